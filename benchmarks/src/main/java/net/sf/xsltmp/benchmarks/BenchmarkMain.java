@@ -0,0 +1,30 @@
+package net.sf.xsltmp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.Main;
+
+/**
+ * Runs the benchmarks by the JMH command line, with the allocation profiler
+ * ({@link org.openjdk.jmh.profile.GCProfiler}) enabled unless another
+ * profiler is requested.
+ * <p>
+ * Eg. <code>java -jar target/benchmarks.jar TranslationBenchmark</code>
+ * reports the time and the bytes allocated per operation of the translation
+ * benchmarks. All the options of JMH apply, see <code>-h</code>.
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws Exception {
+		List arguments = new ArrayList(Arrays.asList(args));
+		if (!arguments.contains("-prof") && !arguments.contains("-h")
+				&& !arguments.contains("-l") && !arguments.contains("-lprof")) {
+			arguments.add("-prof");
+			arguments.add("gc");
+		}
+		Main.main((String[]) arguments.toArray(new String[arguments.size()]));
+	}
+
+}
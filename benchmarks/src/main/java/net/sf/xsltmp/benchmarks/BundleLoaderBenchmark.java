@@ -0,0 +1,106 @@
+package net.sf.xsltmp.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.xsltmp.XsltGeneratorConstants;
+import net.sf.xsltmp.util.BundleLoader;
+import net.sf.xsltmp.util.FileResolver;
+import net.sf.xsltmp.util.UnArchiverHelper;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading of a resource bundle by {@link BundleLoader#loadBundle()}, as done
+ * by each execution translating templates.
+ * <p>
+ * The bundle files of the locale and of its parents are found in the project
+ * base directory or in the last archive of a synthetic classpath. The merged
+ * resources are loaded once per JVM, the measured loads validate them against
+ * the bundle files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class BundleLoaderBenchmark {
+
+	/**
+	 * Number of the resources in each bundle file.
+	 */
+	@Param( { "100", "10000" })
+	public int keys;
+
+	/**
+	 * Where the bundle files are: <code>basedir</code> or
+	 * <code>classpath</code>.
+	 */
+	@Param( { "basedir", "classpath" })
+	public String location;
+
+	private File dir;
+	private FileResolver resolver;
+
+	@Setup
+	public void setUp() throws IOException {
+		dir = Synthetic.createTempDir("bundle");
+		File basedir = new File(dir, "project");
+		Properties resources = Synthetic.createResources(keys);
+		List classpath = new ArrayList();
+		if ("basedir".equals(location)) {
+			Synthetic.write(new File(basedir, "Resource.properties"), resources);
+			Synthetic.write(new File(basedir, "Resource_de.properties"),
+					resources);
+		} else {
+			classpath = Synthetic.createClasspath(new File(dir, "classpath"),
+					100, 10);
+			File bundles = new File(dir, "bundles");
+			Synthetic.write(new File(bundles, "Resource.properties"),
+					resources);
+			Synthetic.write(new File(bundles, "Resource_de.properties"),
+					resources);
+			classpath.add(bundles.getPath());
+		}
+		Log log = new QuietLog();
+		MavenProject project = Synthetic.createProject(basedir, classpath);
+		UnArchiverHelper helper = new UnArchiverHelper(log, project,
+				Synthetic.createArchiverManager(),
+				XsltGeneratorConstants.EXTRACTS_DIR);
+		resolver = new FileResolver(log, project, helper);
+	}
+
+	@TearDown
+	public void tearDown() {
+		Synthetic.delete(dir);
+	}
+
+	@Benchmark
+	public Map loadBundle() {
+		Map resourceMap = new HashMap();
+		new BundleLoader("Resource", "de", "AT", "", "ISO-8859-1", resolver,
+				resourceMap).loadBundle();
+		return resourceMap;
+	}
+
+}
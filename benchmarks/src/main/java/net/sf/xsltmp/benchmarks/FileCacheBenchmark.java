@@ -0,0 +1,85 @@
+package net.sf.xsltmp.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.xsltmp.util.FileCache;
+
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Storing and retrieving filtered templates by the {@link FileCache}.
+ * <p>
+ * A content is retrieved either from memory, by the cache which stored it,
+ * or from the stored files, by a new cache as in the following build.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class FileCacheBenchmark {
+
+	private static final String KEY = "filter=translate, filterParameters={}";
+
+	/**
+	 * Length of the template, in characters.
+	 */
+	@Param( { "16384", "1048576" })
+	public int length;
+
+	private final Log log = new QuietLog();
+	private File dir;
+	private File storeAt;
+	private File sourceFile;
+	private String content;
+	private FileCache cache;
+
+	@Setup
+	public void setUp() throws IOException {
+		dir = Synthetic.createTempDir("filecache");
+		storeAt = new File(dir, "target/filtered");
+		sourceFile = new File(dir, "src/template.xsl");
+		content = Synthetic.createTranslatedText(length, 1000);
+		Synthetic.write(sourceFile, content);
+		cache = new FileCache(log, dir, storeAt, "UTF-8");
+		cache.store(sourceFile, KEY, content);
+	}
+
+	@TearDown
+	public void tearDown() {
+		Synthetic.delete(dir);
+	}
+
+	@Benchmark
+	public void store() {
+		cache.store(sourceFile, KEY, content);
+	}
+
+	@Benchmark
+	public void retrieveFromMemory(Blackhole blackhole) throws IOException {
+		TranslationBenchmark.drain(cache.retrieve(sourceFile, KEY), blackhole);
+	}
+
+	@Benchmark
+	public void retrieveFromStore(Blackhole blackhole) throws IOException {
+		FileCache stored = new FileCache(log, dir, storeAt, "UTF-8");
+		TranslationBenchmark.drain(stored.retrieve(sourceFile, KEY), blackhole);
+	}
+
+}
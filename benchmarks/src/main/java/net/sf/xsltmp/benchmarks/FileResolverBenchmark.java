@@ -0,0 +1,89 @@
+package net.sf.xsltmp.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.xsltmp.XsltGeneratorConstants;
+import net.sf.xsltmp.util.FileResolver;
+import net.sf.xsltmp.util.UnArchiverHelper;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resolution of files by {@link FileResolver#resolve(String)} against a large
+ * synthetic classpath of directories and JAR archives.
+ * <p>
+ * The file is looked up in the first classpath element, in the last one, or
+ * is missing on the classpath, which is the costliest case.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class FileResolverBenchmark {
+
+	/**
+	 * Number of the classpath elements.
+	 */
+	@Param( { "100", "1000" })
+	public int elements;
+
+	/**
+	 * Where the file is found: <code>first</code>, <code>last</code> or
+	 * <code>missing</code>.
+	 */
+	@Param( { "first", "last", "missing" })
+	public String lookup;
+
+	private File dir;
+	private FileResolver resolver;
+	private String filePath;
+
+	@Setup
+	public void setUp() throws IOException {
+		dir = Synthetic.createTempDir("resolver");
+		List classpath = Synthetic.createClasspath(new File(dir, "classpath"),
+				elements, 10);
+		Log log = new QuietLog();
+		MavenProject project = Synthetic.createProject(new File(dir,
+				"project"), classpath);
+		UnArchiverHelper helper = new UnArchiverHelper(log, project,
+				Synthetic.createArchiverManager(),
+				XsltGeneratorConstants.EXTRACTS_DIR);
+		resolver = new FileResolver(log, project, helper);
+		if ("first".equals(lookup))
+			filePath = Synthetic.getClasspathFile(0, 5);
+		else if ("last".equals(lookup))
+			filePath = Synthetic.getClasspathFile(elements - 1, 5);
+		else
+			filePath = "missing/file.xsl";
+	}
+
+	@TearDown
+	public void tearDown() {
+		Synthetic.delete(dir);
+	}
+
+	@Benchmark
+	public File resolve() {
+		return resolver.resolve(filePath);
+	}
+
+}
@@ -0,0 +1,427 @@
+package net.sf.xsltmp.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import net.sf.xsltmp.FinalizeMojo;
+import net.sf.xsltmp.FromManyBase;
+import net.sf.xsltmp.InitializeMojo;
+import net.sf.xsltmp.ManyToDynamicMojo;
+import net.sf.xsltmp.ManyToManyBase;
+import net.sf.xsltmp.ManyToManyMojo;
+import net.sf.xsltmp.ManyToOneMojo;
+import net.sf.xsltmp.util.PerformanceReport;
+import net.sf.xsltmp.util.TimestampUtils;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Measures how the goals scale with the number of the source files.
+ * <p>
+ * Generates a {@link SyntheticProject} for each number of the source files
+ * and drives the goals on it directly, without Maven. Each build runs the
+ * initialize goal, the measured goal and the finalize goal, as a Maven build
+ * would. The scenarios are measured in the order:
+ * <ul>
+ * <li><code>cold</code>: a build without the results of a previous build,</li>
+ * <li><code>noop</code>: a build after the previous one, nothing changed,</li>
+ * <li><code>change</code>: a build after a change of a single source file,</li>
+ * <li><code>translate</code>: a cold build translating the templates.</li>
+ * </ul>
+ * The wall time, the source files processed per second and the peak usage of
+ * the heap of each build are printed and stored in
+ * <code>results.properties</code> in the working directory. They are
+ * compared with the baseline results stored by a previous run, when given:
+ * the results depend on the machine, so no baseline is shipped.
+ * <p>
+ * With multiple threads, the builds of the many-to-one goals are checked to
+ * parse no source file ahead in vain, and the many-to-one-documents goal,
+ * loading the source files by the <code>document()</code> function, to have
+ * all of them parsed ahead.
+ * <p>
+ * The arguments are given as <code>name=value</code>:
+ * <ul>
+ * <li><code>sizes</code>: numbers of the source files, default
+ * <code>1000,10000,100000</code>,</li>
+ * <li><code>goals</code>: <code>many-to-many</code>,
+ * <code>many-to-dynamic</code>, <code>many-to-one</code>,
+ * <code>many-to-one-documents</code> by default,</li>
+ * <li><code>scenarios</code>: <code>cold,noop,change,translate</code> by
+ * default,</li>
+ * <li><code>threads</code>: the threads parameter of the goals, default
+ * 1,</li>
+ * <li><code>dir</code>: the working directory, default
+ * <code>target/scaling</code>,</li>
+ * <li><code>libraryTemplates</code>: number of the templates included from
+ * the classpath, default 20,</li>
+ * <li><code>jars</code>: number of the archives filling the classpath,
+ * default 50,</li>
+ * <li><code>baseline</code>: results to compare with,</li>
+ * <li><code>saveBaseline</code>: where to store the results as a baseline,</li>
+ * <li><code>tolerance</code>: the relative increase of the wall time or of the
+ * peak heap reported as a regression, default 0.25.</li>
+ * </ul>
+ * Exits with the status 1 when a regression against the baseline is found
+ * or a check fails.
+ */
+public class ScalingHarness {
+
+	private static final String[] SCENARIOS = { "cold", "noop", "change",
+			"translate" };
+
+	private static final String WALL_MILLIS = ".wallMillis";
+	private static final String FILES_PER_SECOND = ".filesPerSecond";
+	private static final String PEAK_HEAP_MEGABYTES = ".peakHeapMegabytes";
+
+	private final Log log = new QuietLog();
+
+	private final Properties arguments;
+	private final File dir;
+	private final int threads;
+
+	/**
+	 * The results by the name of the measurement, in the order of
+	 * measurement.
+	 */
+	private final Properties results = new Properties();
+	private final List names = new ArrayList();
+
+	/**
+	 * The failed checks, String messages.
+	 */
+	private final List failures = new ArrayList();
+
+	/**
+	 * Revisions of the changed source files, by File.
+	 */
+	private final Map revisions = new HashMap();
+
+	public ScalingHarness(Properties arguments) {
+		this.arguments = arguments;
+		this.dir = new File(arguments.getProperty("dir", "target/scaling"))
+				.getAbsoluteFile();
+		this.threads = Integer.parseInt(arguments.getProperty("threads", "1"));
+	}
+
+	public static void main(String[] args) throws Exception {
+		Properties arguments = new Properties();
+		for (int i = 0; i < args.length; i++) {
+			int separator = args[i].indexOf('=');
+			if (separator < 0)
+				throw new IllegalArgumentException("Not name=value: "
+						+ args[i]);
+			arguments.setProperty(args[i].substring(0, separator), args[i]
+					.substring(separator + 1));
+		}
+		ScalingHarness harness = new ScalingHarness(arguments);
+		harness.run();
+		boolean compared = harness.compare();
+		if (!harness.check() || !compared)
+			System.exit(1);
+	}
+
+	/**
+	 * Measure all the goals on the projects of all the sizes.
+	 *
+	 * @throws Exception
+	 */
+	public void run() throws Exception {
+		String[] sizes = getList("sizes", "1000,10000,100000");
+		String[] goals = getList("goals",
+				"many-to-many,many-to-dynamic,many-to-one,many-to-one-documents");
+		List scenarios = Arrays.asList(getList("scenarios",
+				StringUtils.join(SCENARIOS, ",")));
+		for (int i = 0; i < sizes.length; i++) {
+			int size = Integer.parseInt(sizes[i]);
+			SyntheticProject project = new SyntheticProject(new File(dir,
+					"project-" + size), size, Integer.parseInt(arguments
+					.getProperty("libraryTemplates", "20")), Integer
+					.parseInt(arguments.getProperty("jars", "50")));
+			long start = System.currentTimeMillis();
+			if (project.generate())
+				System.out.println("Generated " + size + " source files in "
+						+ (System.currentTimeMillis() - start) + " ms");
+			for (int j = 0; j < goals.length; j++)
+				run(project, goals[j], scenarios);
+		}
+		store(new File(dir, "results.properties"));
+		String saveBaseline = arguments.getProperty("saveBaseline");
+		if (null != saveBaseline)
+			store(new File(saveBaseline));
+	}
+
+	private void run(SyntheticProject project, String goal, List scenarios)
+			throws Exception {
+		File basedir = new File(dir, "builds/" + goal + "-"
+				+ project.getSources());
+		Synthetic.delete(basedir);
+		String prefix = goal + "." + project.getSources() + ".";
+		boolean built = false;
+		for (int i = 0; i < SCENARIOS.length; i++) {
+			String scenario = SCENARIOS[i];
+			if (!scenarios.contains(scenario))
+				continue;
+			boolean translate = "translate".equals(scenario);
+			if ("cold".equals(scenario) || translate) {
+				Synthetic.delete(new File(basedir, "target"));
+			} else if (!built) {
+				// not measured, the scenario needs a previous build
+				build(project, goal, basedir, false);
+			}
+			if ("change".equals(scenario))
+				change(project, basedir);
+			System.gc();
+			resetPeakHeap();
+			long start = System.nanoTime();
+			FromManyBase mojo = build(project, goal, basedir, translate);
+			long wallMillis = (System.nanoTime() - start) / 1000000L;
+			record(prefix + scenario, project.getSources(), wallMillis,
+					getPeakHeap());
+			checkPrefetching(prefix + scenario, goal, project, mojo);
+			built = true;
+		}
+	}
+
+	/**
+	 * Build the project by the goal, between the initialize and the finalize
+	 * goals.
+	 * 
+	 * @return The mojo of the goal
+	 */
+	private FromManyBase build(SyntheticProject project, String goal,
+			File basedir, boolean translate) throws Exception {
+		MavenProject mavenProject = Synthetic.createProject(basedir, project
+				.getClasspath());
+		InitializeMojo initialize = new InitializeMojo();
+		initialize.setLog(log);
+		initialize.setProject(mavenProject);
+		initialize.execute();
+		FromManyBase mojo = createMojo(project, goal, mavenProject, translate);
+		mojo.execute();
+		FinalizeMojo finalize = new FinalizeMojo();
+		finalize.setLog(log);
+		finalize.setProject(mavenProject);
+		finalize.execute();
+		return mojo;
+	}
+
+	private FromManyBase createMojo(SyntheticProject project, String goal,
+			MavenProject mavenProject, boolean translate) {
+		File target = new File(mavenProject.getBuild().getDirectory());
+		FromManyBase result;
+		if (goal.startsWith("many-to-one")) {
+			ManyToOneMojo mojo = new ManyToOneMojo();
+			mojo.setDestFile(new File(target, "one.xml"));
+			result = mojo;
+		} else {
+			ManyToManyBase mojo;
+			if ("many-to-many".equals(goal))
+				mojo = new ManyToManyMojo();
+			else if ("many-to-dynamic".equals(goal))
+				mojo = new ManyToDynamicMojo();
+			else
+				throw new IllegalArgumentException("Unknown goal: " + goal);
+			mojo.setDestDir(new File(target, "out"));
+			result = mojo;
+		}
+		result.setLog(log);
+		result.setProject(mavenProject);
+		result.setArchiverManager(Synthetic.createArchiverManager());
+		result.setXslTemplate(project.getTemplate(goal).getPath());
+		result.setSrcDir(project.getSrcDir());
+		result.setSrcIncludes("**/*.xml");
+		result.setSourceEncoding("UTF-8");
+		result.setThreads(threads);
+		if (translate) {
+			result.setFilters(Arrays.asList(new String[] { "translate" }));
+			Map filterParameters = new HashMap();
+			filterParameters.put("bundle", "Resource");
+			filterParameters.put("bundleLanguage", "");
+			filterParameters.put("bundleCountry", "");
+			filterParameters.put("bundleVariant", "");
+			filterParameters.put("bundleEncoding", "ISO-8859-1");
+			result.setFilterParameters(filterParameters);
+		}
+		return result;
+	}
+
+	/**
+	 * Change the content of a single source file, after the timestamp of the
+	 * previous build.
+	 */
+	private void change(SyntheticProject project, File basedir) {
+		int index = project.getSources() / 2;
+		File file = project.getSourceFile(index);
+		Integer revision = (Integer) revisions.get(file);
+		revision = Integer.valueOf(null == revision ? 1 : revision.intValue() + 1);
+		revisions.put(file, revision);
+		try {
+			Synthetic.write(file, project.createSource(index, revision
+					.intValue()));
+		} catch (IOException ioe) {
+			throw new IllegalStateException("Cannot change " + file + ": "
+					+ ioe);
+		}
+		long timestamp = new TimestampUtils(Synthetic.createProject(basedir,
+				project.getClasspath())).getTimestampFile().lastModified();
+		// on file systems with the precision of seconds
+		if (file.lastModified() <= timestamp)
+			file.setLastModified(timestamp + 1000);
+	}
+
+	/**
+	 * Check that the source files of many-to-one are parsed ahead, none in
+	 * vain: all the source files when the template reads the collection, the
+	 * source files named by the <code>source-file-names</code> parameter when
+	 * it loads them by the <code>document()</code> function.
+	 */
+	private void checkPrefetching(String name, String goal,
+			SyntheticProject project, FromManyBase mojo) {
+		if (threads <= 1 || !(mojo instanceof ManyToOneMojo)
+				|| !((ManyToOneMojo) mojo).getShouldRun())
+			return;
+		PerformanceReport report = mojo.getPerformanceReport();
+		long parsed = report.getCounter("prefetcher.parsed");
+		long hits = report.getCounter("prefetcher.hits");
+		if (parsed > hits)
+			failures.add(name + ": " + (parsed - hits)
+					+ " source files parsed ahead in vain");
+		int sources = "many-to-one".equals(goal) ? project.getSources()
+				: StringUtils.split((String) mojo.getParameters().get(
+						"source-file-names"),
+						ManyToOneMojo.SOURCE_FILE_NAMES_SEPARATOR).length;
+		if (hits < sources)
+			failures.add(name + ": " + (sources - hits)
+					+ " source files not parsed ahead");
+	}
+
+	/**
+	 * Print the failed checks.
+	 * 
+	 * @return false iff a check failed
+	 */
+	public boolean check() {
+		for (Iterator iterator = failures.iterator(); iterator.hasNext();)
+			System.out.println("FAILED " + iterator.next());
+		return failures.isEmpty();
+	}
+
+	private void resetPeakHeap() {
+		for (Iterator iterator = ManagementFactory.getMemoryPoolMXBeans()
+				.iterator(); iterator.hasNext();) {
+			MemoryPoolMXBean pool = (MemoryPoolMXBean) iterator.next();
+			if (MemoryType.HEAP == pool.getType())
+				pool.resetPeakUsage();
+		}
+	}
+
+	/**
+	 * Return the sum of the peak usages of the heap memory pools since reset,
+	 * in bytes.
+	 */
+	private long getPeakHeap() {
+		long result = 0;
+		for (Iterator iterator = ManagementFactory.getMemoryPoolMXBeans()
+				.iterator(); iterator.hasNext();) {
+			MemoryPoolMXBean pool = (MemoryPoolMXBean) iterator.next();
+			if (MemoryType.HEAP == pool.getType())
+				result += pool.getPeakUsage().getUsed();
+		}
+		return result;
+	}
+
+	private void record(String name, int files, long wallMillis, long peakHeap) {
+		long filesPerSecond = files * 1000L / Math.max(1, wallMillis);
+		long peakHeapMegabytes = peakHeap / (1024 * 1024);
+		names.add(name);
+		results.setProperty(name + WALL_MILLIS, String.valueOf(wallMillis));
+		results.setProperty(name + FILES_PER_SECOND, String
+				.valueOf(filesPerSecond));
+		results.setProperty(name + PEAK_HEAP_MEGABYTES, String
+				.valueOf(peakHeapMegabytes));
+		System.out.println(StringUtils.rightPad(name, 32)
+				+ StringUtils.leftPad(wallMillis + " ms", 12)
+				+ StringUtils.leftPad(filesPerSecond + " files/s", 16)
+				+ StringUtils.leftPad(peakHeapMegabytes + " MB heap", 14));
+	}
+
+	/**
+	 * Compare the results with the baseline, if given.
+	 *
+	 * @return false iff a regression against the baseline is found
+	 * @throws IOException
+	 */
+	public boolean compare() throws IOException {
+		String baselineName = arguments.getProperty("baseline");
+		if (null == baselineName) {
+			System.out.println("Not compared, no baseline given: store one by"
+					+ " saveBaseline=<file>, compare with it by"
+					+ " baseline=<file>");
+			return true;
+		}
+		Properties baseline = new Properties();
+		InputStream in = new FileInputStream(baselineName);
+		try {
+			baseline.load(in);
+		} finally {
+			in.close();
+		}
+		double tolerance = Double.parseDouble(arguments.getProperty(
+				"tolerance", "0.25"));
+		boolean result = true;
+		System.out.println("Compared with baseline " + baselineName + ":");
+		for (Iterator iterator = names.iterator(); iterator.hasNext();) {
+			String name = (String) iterator.next();
+			if (null == baseline.getProperty(name + WALL_MILLIS)) {
+				System.out.println(StringUtils.rightPad(name, 32)
+						+ "  not in baseline");
+				continue;
+			}
+			boolean wall = compare(name, WALL_MILLIS, baseline, tolerance);
+			boolean heap = compare(name, PEAK_HEAP_MEGABYTES, baseline,
+					tolerance);
+			result = result && wall && heap;
+		}
+		return result;
+	}
+
+	private boolean compare(String name, String measure, Properties baseline,
+			double tolerance) {
+		long value = Long.parseLong(results.getProperty(name + measure));
+		long base = Long.parseLong(baseline.getProperty(name + measure));
+		boolean regression = value > Math.max(1, base) * (1 + tolerance);
+		System.out.println(StringUtils.rightPad(name + measure, 48)
+				+ StringUtils.leftPad(String.valueOf(value), 12)
+				+ StringUtils.leftPad(String.valueOf(base), 12)
+				+ (regression ? "  REGRESSION" : ""));
+		return !regression;
+	}
+
+	private void store(File file) throws IOException {
+		Synthetic.write(file, results);
+		System.out.println("Results stored in " + file);
+	}
+
+	private String[] getList(String name, String defaultValue) {
+		String[] result = StringUtils.split(arguments.getProperty(name,
+				defaultValue), ",");
+		for (int i = 0; i < result.length; i++)
+			result[i] = result[i].trim();
+		return result;
+	}
+
+}
@@ -0,0 +1,89 @@
+package net.sf.xsltmp.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.xsltmp.ManyToManyMojo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scanning of the source directory by
+ * {@link net.sf.xsltmp.FromManyBase#getSourceFiles()}, by the directory
+ * scanner, by the parallel scanner or from the snapshot of the previous scan.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class SourceScanBenchmark {
+
+	/**
+	 * Number of the source files.
+	 */
+	@Param( { "1000", "10000" })
+	public int files;
+
+	/**
+	 * How the sources are scanned: <code>plain</code>, <code>parallel</code>
+	 * or <code>snapshot</code>.
+	 */
+	@Param( { "plain", "parallel", "snapshot" })
+	public String scan;
+
+	private File dir;
+	private ScanningMojo mojo;
+
+	@Setup
+	public void setUp() throws IOException {
+		dir = Synthetic.createTempDir("scan");
+		File basedir = new File(dir, "project");
+		Synthetic.createSources(new File(basedir, "src/xml"), files,
+				"<source/>\n");
+		mojo = new ScanningMojo();
+		mojo.setLog(new QuietLog());
+		mojo.setProject(Synthetic.createProject(basedir, new ArrayList()));
+		mojo.setSrcDir(new File(basedir, "src/xml"));
+		mojo.setSrcIncludes("**/*.xml");
+		mojo.setDestDir(new File(basedir, "target/out"));
+		mojo.setXslTemplate("src/template.xsl");
+		mojo.setThreads(4);
+		mojo.setParallelScan("parallel".equals(scan));
+		mojo.setScanSnapshot("snapshot".equals(scan));
+	}
+
+	@TearDown
+	public void tearDown() {
+		Synthetic.delete(dir);
+	}
+
+	@Benchmark
+	public String[] getSourceFiles() {
+		return mojo.scan();
+	}
+
+	/**
+	 * Exposes the scan of the source files.
+	 */
+	public static class ScanningMojo extends ManyToManyMojo {
+		public String[] scan() {
+			return getSourceFiles();
+		}
+	}
+
+}
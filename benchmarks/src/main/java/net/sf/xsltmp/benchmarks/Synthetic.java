@@ -0,0 +1,336 @@
+package net.sf.xsltmp.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.archiver.Archiver;
+import org.codehaus.plexus.archiver.UnArchiver;
+import org.codehaus.plexus.archiver.manager.ArchiverManager;
+import org.codehaus.plexus.archiver.zip.ZipUnArchiver;
+import org.codehaus.plexus.components.io.resources.PlexusIoResourceCollection;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+
+/**
+ * Creates the synthetic files and projects the benchmarks run on.
+ * <p>
+ * All the files are created under a temporary directory, deleted by
+ * {@link #delete(File)} when the benchmark is torn down.
+ */
+public class Synthetic {
+
+	private static final String ENCODING = "UTF-8";
+
+	private Synthetic() {
+	}
+
+	/**
+	 * Create a new temporary directory.
+	 * 
+	 * @param prefix
+	 *            Prefix of the name of the directory
+	 * @return The directory
+	 * @throws IOException
+	 */
+	public static File createTempDir(String prefix) throws IOException {
+		File dir = File.createTempFile("xsltmp-" + prefix + "-", "");
+		if (!dir.delete() || !dir.mkdirs())
+			throw new IOException("Cannot create directory " + dir);
+		return dir;
+	}
+
+	/**
+	 * Write a text file in UTF-8, creating its directory.
+	 * 
+	 * @param file
+	 *            The file
+	 * @param content
+	 *            The content
+	 * @throws IOException
+	 */
+	public static void write(File file, String content) throws IOException {
+		file.getParentFile().mkdirs();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+				ENCODING);
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Create a JAR archive of text files with the same content.
+	 * 
+	 * @param jar
+	 *            The archive file
+	 * @param paths
+	 *            The paths of the files within the archive
+	 * @param content
+	 *            The content of all the files
+	 * @throws IOException
+	 */
+	public static void createJar(File jar, String[] paths, String content)
+			throws IOException {
+		String[] contents = new String[paths.length];
+		Arrays.fill(contents, content);
+		createJar(jar, paths, contents, ENCODING);
+	}
+
+	/**
+	 * Create a JAR archive of text files.
+	 * 
+	 * @param jar
+	 *            The archive file
+	 * @param paths
+	 *            The paths of the files within the archive
+	 * @param contents
+	 *            The contents of the files
+	 * @param encoding
+	 *            The encoding of the files
+	 * @throws IOException
+	 */
+	public static void createJar(File jar, String[] paths, String[] contents,
+			String encoding) throws IOException {
+		jar.getParentFile().mkdirs();
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+		try {
+			for (int i = 0; i < paths.length; i++) {
+				out.putNextEntry(new ZipEntry(paths[i]));
+				out.write(contents[i].getBytes(encoding));
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Create a synthetic classpath of directories and JAR archives, each
+	 * containing the same number of files.
+	 * <p>
+	 * The element <code>i</code> contains the files
+	 * <code>pkg&lt;i&gt;/file&lt;j&gt;.xsl</code>. Every other element is an
+	 * archive.
+	 * 
+	 * @param dir
+	 *            Directory where to create the elements
+	 * @param elements
+	 *            Number of the classpath elements
+	 * @param files
+	 *            Number of the files in each element
+	 * @return List of the paths of the classpath elements
+	 * @throws IOException
+	 */
+	public static List createClasspath(File dir, int elements, int files)
+			throws IOException {
+		String content = "<xsl:stylesheet version=\"1.0\" "
+				+ "xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"/>\n";
+		List result = new ArrayList();
+		for (int i = 0; i < elements; i++) {
+			String[] paths = new String[files];
+			for (int j = 0; j < files; j++)
+				paths[j] = getClasspathFile(i, j);
+			File element;
+			if (i % 2 == 1) {
+				element = new File(dir, "lib" + i + ".jar");
+				createJar(element, paths, content);
+			} else {
+				element = new File(dir, "classes" + i);
+				for (int j = 0; j < files; j++)
+					write(new File(element, paths[j]), content);
+			}
+			result.add(element.getPath());
+		}
+		return result;
+	}
+
+	/**
+	 * Return the path of a file in a synthetic classpath element.
+	 * 
+	 * @param element
+	 *            Index of the classpath element
+	 * @param file
+	 *            Index of the file
+	 * @return The relative path
+	 * @see #createClasspath(File, int, int)
+	 */
+	public static String getClasspathFile(int element, int file) {
+		return "pkg" + element + "/file" + file + ".xsl";
+	}
+
+	/**
+	 * Create the source tree of XML files, in directories of 100 files.
+	 * 
+	 * @param dir
+	 *            The source directory
+	 * @param files
+	 *            Number of the files
+	 * @param content
+	 *            The content of all the files
+	 * @throws IOException
+	 */
+	public static void createSources(File dir, int files, String content)
+			throws IOException {
+		for (int i = 0; i < files; i++)
+			write(new File(dir, getSourceFile(i)), content);
+	}
+
+	/**
+	 * Return the path of a file in a synthetic source tree.
+	 * 
+	 * @param file
+	 *            Index of the file
+	 * @return The relative path
+	 * @see #createSources(File, int, String)
+	 */
+	public static String getSourceFile(int file) {
+		return "d" + (file / 100) + "/f" + file + ".xml";
+	}
+
+	/**
+	 * Create a text of the given length with a <code>#key&lt;i&gt;#</code>
+	 * token in each line.
+	 * 
+	 * @param length
+	 *            Number of characters
+	 * @param keys
+	 *            Number of distinct keys
+	 * @return The text
+	 */
+	public static String createTranslatedText(int length, int keys) {
+		StringBuffer result = new StringBuffer(length + 80);
+		for (int i = 0; result.length() < length; i++)
+			result.append("<text id=\"").append(i).append("\">#key").append(
+					i % keys).append("# and some text to keep</text>\n");
+		result.setLength(length);
+		return result.toString();
+	}
+
+	/**
+	 * Create the resources of the keys of the translated text.
+	 * 
+	 * @param keys
+	 *            Number of distinct keys
+	 * @return Properties
+	 * @see #createTranslatedText(int, int)
+	 */
+	public static Properties createResources(int keys) {
+		Properties result = new Properties();
+		for (int i = 0; i < keys; i++)
+			result.setProperty("key" + i, "value of key " + i);
+		return result;
+	}
+
+	/**
+	 * Create a Maven project with its build directory under the base directory
+	 * and the given compile classpath.
+	 * 
+	 * @param basedir
+	 *            The project base directory
+	 * @param classpath
+	 *            List of the paths of the classpath elements
+	 * @return MavenProject
+	 */
+	public static MavenProject createProject(File basedir, final List classpath) {
+		Model model = new Model();
+		Build build = new Build();
+		build.setDirectory(new File(basedir, "target").getPath());
+		build.setOutputDirectory(new File(basedir, "target/classes").getPath());
+		model.setBuild(build);
+		model.setProperties(new Properties());
+		MavenProject project = new MavenProject(model) {
+			public List getCompileClasspathElements() {
+				return classpath;
+			}
+		};
+		project.setFile(new File(basedir, "pom.xml"));
+		return project;
+	}
+
+	/**
+	 * Create an archiver manager extracting ZIP archives, in place of the one
+	 * of the Maven container.
+	 * 
+	 * @return ArchiverManager
+	 */
+	public static ArchiverManager createArchiverManager() {
+		return new ArchiverManager() {
+			public Archiver getArchiver(String archiverName) {
+				return null;
+			}
+
+			public Archiver getArchiver(File file) {
+				return null;
+			}
+
+			public UnArchiver getUnArchiver(String unArchiverName) {
+				ZipUnArchiver result = new ZipUnArchiver();
+				result.enableLogging(new ConsoleLogger(Logger.LEVEL_ERROR,
+						"unarchiver"));
+				return result;
+			}
+
+			public UnArchiver getUnArchiver(File file) {
+				return getUnArchiver("zip");
+			}
+
+			public PlexusIoResourceCollection getResourceCollection(
+					String resourceCollectionName) {
+				return null;
+			}
+
+			public PlexusIoResourceCollection getResourceCollection(File file) {
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Write properties to a file.
+	 * 
+	 * @param file
+	 *            The file
+	 * @param properties
+	 *            The properties
+	 * @throws IOException
+	 */
+	public static void write(File file, Properties properties)
+			throws IOException {
+		file.getParentFile().mkdirs();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			properties.store(out, null);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Delete a directory with all its content.
+	 * 
+	 * @param dir
+	 *            The directory
+	 */
+	public static void delete(File dir) {
+		File[] files = dir.listFiles();
+		if (null != files)
+			for (int i = 0; i < files.length; i++)
+				delete(files[i]);
+		dir.delete();
+	}
+
+}
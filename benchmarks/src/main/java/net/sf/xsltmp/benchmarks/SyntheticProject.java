@@ -0,0 +1,268 @@
+package net.sf.xsltmp.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Generates a synthetic project for the scaling benchmarks: a source tree,
+ * the templates of the goals and a classpath of JAR archives.
+ * <p>
+ * The templates of the goals are in the project directory. They include a
+ * library of templates from an archive on the classpath, the resource bundle
+ * translating their keys is in another archive. The other archives fill the
+ * classpath, so that the files are looked up in many archives.
+ * <p>
+ * The project is generated once, it is reused while generated with the same
+ * numbers of files.
+ */
+public class SyntheticProject {
+
+	private static final String XSL_HEADER = "<xsl:stylesheet version=\"2.0\" "
+			+ "xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">\n";
+	private static final String XSL_FOOTER = "</xsl:stylesheet>\n";
+
+	private static final String GENERATED_FILE = "generated.properties";
+
+	/**
+	 * Version of the generated files, increased when they change.
+	 */
+	private static final String GENERATOR_VERSION = "2";
+
+	/**
+	 * The directory of the project.
+	 */
+	private final File dir;
+
+	/**
+	 * Number of the source files.
+	 */
+	private final int sources;
+
+	/**
+	 * Number of the templates of the library.
+	 */
+	private final int libraryTemplates;
+
+	/**
+	 * Number of the archives filling the classpath.
+	 */
+	private final int jars;
+
+	/**
+	 * Create synthetic project.
+	 * 
+	 * @param dir
+	 *            The directory of the project
+	 * @param sources
+	 *            Number of the source files
+	 * @param libraryTemplates
+	 *            Number of the templates of the library
+	 * @param jars
+	 *            Number of the archives filling the classpath
+	 */
+	public SyntheticProject(File dir, int sources, int libraryTemplates,
+			int jars) {
+		this.dir = dir;
+		this.sources = sources;
+		this.libraryTemplates = libraryTemplates;
+		this.jars = jars;
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	public int getSources() {
+		return sources;
+	}
+
+	public File getSrcDir() {
+		return new File(dir, "src/xml");
+	}
+
+	/**
+	 * Return the template of a goal.
+	 * 
+	 * @param goal
+	 *            The goal: many-to-many, many-to-dynamic, many-to-one or
+	 *            many-to-one-documents (many-to-one loading the source files
+	 *            by the document() function instead of the collection)
+	 * @return The template file
+	 */
+	public File getTemplate(String goal) {
+		return new File(dir, "src/xsl/" + goal + ".xsl");
+	}
+
+	/**
+	 * Return a source file.
+	 * 
+	 * @param index
+	 *            Index of the source file
+	 * @return The source file
+	 */
+	public File getSourceFile(int index) {
+		return new File(getSrcDir(), Synthetic.getSourceFile(index));
+	}
+
+	/**
+	 * Return the classpath of the project.
+	 * 
+	 * @return List of the paths of the archives
+	 */
+	public List getClasspath() {
+		List result = new ArrayList();
+		File lib = new File(dir, "lib");
+		for (int i = 0; i < jars; i++)
+			result.add(new File(lib, "filler" + i + ".jar").getPath());
+		result.add(new File(lib, "templates.jar").getPath());
+		result.add(new File(lib, "bundles.jar").getPath());
+		return result;
+	}
+
+	/**
+	 * Generate the project, unless generated already.
+	 * 
+	 * @return true iff generated, false when reused
+	 * @throws IOException
+	 */
+	public boolean generate() throws IOException {
+		Properties generated = getGeneratedProperties();
+		File generatedFile = new File(dir, GENERATED_FILE);
+		if (generatedFile.exists()) {
+			Properties existing = new Properties();
+			InputStream in = new FileInputStream(generatedFile);
+			try {
+				existing.load(in);
+			} finally {
+				in.close();
+			}
+			if (generated.equals(existing))
+				return false;
+		}
+		Synthetic.delete(dir);
+		generateSources();
+		generateTemplates();
+		generateClasspath();
+		Synthetic.write(generatedFile, generated);
+		return true;
+	}
+
+	private Properties getGeneratedProperties() {
+		Properties result = new Properties();
+		result.setProperty("version", GENERATOR_VERSION);
+		result.setProperty("sources", String.valueOf(sources));
+		result.setProperty("libraryTemplates", String.valueOf(libraryTemplates));
+		result.setProperty("jars", String.valueOf(jars));
+		return result;
+	}
+
+	private void generateSources() throws IOException {
+		for (int i = 0; i < sources; i++)
+			Synthetic.write(getSourceFile(i), createSource(i, 0));
+	}
+
+	/**
+	 * Create the content of a source file.
+	 * 
+	 * @param index
+	 *            Index of the source file
+	 * @param revision
+	 *            Revision of the content
+	 * @return The content
+	 */
+	public String createSource(int index, int revision) {
+		StringBuffer result = new StringBuffer();
+		result.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		result.append("<doc n=\"").append(index).append("\" revision=\"")
+				.append(revision).append("\">\n");
+		for (int i = 0; i < 20; i++)
+			result.append("\t<item id=\"").append(i).append(
+					"\">Item text of the source ").append(index).append(
+					"</item>\n");
+		result.append("</doc>\n");
+		return result.toString();
+	}
+
+	private void generateTemplates() throws IOException {
+		String include = "<xsl:include href=\"lib/all.xsl\"/>\n";
+		Synthetic.write(getTemplate("many-to-many"), XSL_HEADER + include
+				+ "<xsl:template match=\"/\">"
+				+ "<out title=\"#title#\"><xsl:call-template name=\"lib-all\"/>"
+				+ "<xsl:copy-of select=\"*\"/></out></xsl:template>\n"
+				+ XSL_FOOTER);
+		Synthetic.write(getTemplate("many-to-dynamic"), XSL_HEADER + include
+				+ "<xsl:template match=\"/\">"
+				+ "<xsl:result-document href=\"dyn/{replace(document-uri(/), "
+				+ "'^.*/', '')}.txt\" method=\"text\">"
+				+ "<xsl:value-of select=\"*/@n, count(//item)\"/>"
+				+ "</xsl:result-document>"
+				+ "<out title=\"#title#\"><xsl:call-template name=\"lib-all\"/>"
+				+ "</out></xsl:template>\n" + XSL_FOOTER);
+		Synthetic.write(getTemplate("many-to-one"), XSL_HEADER + include
+				+ "<xsl:param name=\"source-collection\"/>\n"
+				+ "<xsl:template match=\"/\"><all title=\"#title#\">"
+				+ "<xsl:for-each select=\"collection($source-collection)\">"
+				+ "<d n=\"{*/@n}\" items=\"{count(//item)}\"/></xsl:for-each>"
+				+ "<xsl:call-template name=\"lib-all\"/></all></xsl:template>\n"
+				+ XSL_FOOTER);
+		Synthetic.write(getTemplate("many-to-one-documents"), XSL_HEADER
+				+ include + "<xsl:param name=\"source-file-names\"/>\n"
+				+ "<xsl:template match=\"/\"><all title=\"#title#\">"
+				+ "<xsl:for-each select=\"document(tokenize("
+				+ "$source-file-names, '\\|'))\">"
+				+ "<d n=\"{*/@n}\" items=\"{count(//item)}\"/></xsl:for-each>"
+				+ "<xsl:call-template name=\"lib-all\"/></all></xsl:template>\n"
+				+ XSL_FOOTER);
+	}
+
+	private void generateClasspath() throws IOException {
+		File lib = new File(dir, "lib");
+		for (int i = 0; i < jars; i++) {
+			String[] paths = new String[20];
+			for (int j = 0; j < paths.length; j++)
+				paths[j] = Synthetic.getClasspathFile(i, j);
+			Synthetic.createJar(new File(lib, "filler" + i + ".jar"), paths,
+					XSL_HEADER + XSL_FOOTER);
+		}
+		// the library of templates
+		String[] paths = new String[libraryTemplates + 1];
+		String[] contents = new String[libraryTemplates + 1];
+		StringBuffer all = new StringBuffer(XSL_HEADER);
+		StringBuffer calls = new StringBuffer();
+		for (int i = 0; i < libraryTemplates; i++) {
+			paths[i] = "lib/lib" + i + ".xsl";
+			contents[i] = XSL_HEADER + "<xsl:template name=\"lib" + i
+					+ "\"><l key=\"#key" + i + "#\">"
+					+ "<xsl:value-of select=\"count(//item)\"/></l>"
+					+ "</xsl:template>\n" + XSL_FOOTER;
+			all.append("<xsl:include href=\"lib").append(i).append(
+					".xsl\"/>\n");
+			calls.append("<xsl:call-template name=\"lib").append(i).append(
+					"\"/>");
+		}
+		all.append("<xsl:template name=\"lib-all\">").append(calls).append(
+				"</xsl:template>\n").append(XSL_FOOTER);
+		paths[libraryTemplates] = "lib/all.xsl";
+		contents[libraryTemplates] = all.toString();
+		Synthetic.createJar(new File(lib, "templates.jar"), paths, contents,
+				"UTF-8");
+		// the resource bundle
+		Properties resources = Synthetic.createResources(libraryTemplates);
+		resources.setProperty("title", "Synthetic project");
+		File bundle = new File(dir, "Resource.properties");
+		Synthetic.write(bundle, resources);
+		Synthetic.createJar(new File(lib, "bundles.jar"),
+				new String[] { bundle.getName() },
+				new String[] { FileUtils.fileRead(bundle, "ISO-8859-1") },
+				"ISO-8859-1");
+		bundle.delete();
+	}
+
+}
@@ -0,0 +1,89 @@
+package net.sf.xsltmp.benchmarks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.xsltmp.util.TranslatingReader;
+
+import org.apache.maven.plugin.logging.Log;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Translation of a template by the deprecated
+ * {@link net.sf.xsltmp.util.StreamTranslator},
+ * which reads the whole template into memory, and by the
+ * {@link TranslatingReader}, which translates it while it is read.
+ */
+@SuppressWarnings("deprecation")
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class TranslationBenchmark {
+
+	/**
+	 * Length of the template, in characters.
+	 */
+	@Param( { "16384", "1048576" })
+	public int length;
+
+	/**
+	 * Number of distinct keys in the template and in the resources.
+	 */
+	@Param( { "1000" })
+	public int keys;
+
+	private final Log log = new QuietLog();
+	private String text;
+	private Map resources;
+
+	@Setup
+	public void setUp() {
+		text = Synthetic.createTranslatedText(length, keys);
+		resources = Synthetic.createResources(keys);
+	}
+
+	@Benchmark
+	public void streamTranslator(Blackhole blackhole) throws IOException {
+		net.sf.xsltmp.util.StreamTranslator translator = new net.sf.xsltmp.util.StreamTranslator(
+				"#", "#", resources, log);
+		drain(translator.translate(new StringReader(text)), blackhole);
+	}
+
+	@Benchmark
+	public void translatingReader(Blackhole blackhole) throws IOException {
+		drain(new TranslatingReader(new StringReader(text), "#", "#",
+				resources, log), blackhole);
+	}
+
+	/**
+	 * Read the whole translated content, as the parser would.
+	 */
+	static void drain(Reader reader, Blackhole blackhole) throws IOException {
+		char[] buffer = new char[8192];
+		int read;
+		long count = 0;
+		while ((read = reader.read(buffer)) >= 0)
+			count += read;
+		reader.close();
+		blackhole.consume(count);
+		blackhole.consume(buffer);
+	}
+
+}
@@ -0,0 +1,154 @@
+package net.sf.xsltmp.benchmarks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import net.sf.xsltmp.util.TranslatingReader;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Checks that the {@link TranslatingReader} translates exactly as the
+ * deprecated {@link net.sf.xsltmp.util.StreamTranslator}.
+ * <p>
+ * Translates random inputs by both and compares the results. The inputs mix
+ * the tokens, the keys present and missing in the resources, the line ends
+ * <code>"\n"</code>, <code>"\r\n"</code> and <code>"\r"</code> and the
+ * characters not allowed in the keys. The values of the keys contain the
+ * tokens, which must not be translated again. The translating reader is
+ * read in chunks of random lengths, including single characters by
+ * {@link Reader#read()}.
+ * <p>
+ * The arguments are given as <code>name=value</code>:
+ * <ul>
+ * <li><code>inputs</code>: number of the random inputs, default 200000,</li>
+ * <li><code>seed</code>: seed of the random inputs, default 1.</li>
+ * </ul>
+ * Exits with the status 1 when the results differ, printing the first input
+ * translated differently.
+ */
+@SuppressWarnings("deprecation")
+public class TranslationEquivalence {
+
+	/**
+	 * Pairs of the starting and the ending tokens.
+	 */
+	private static final String[][] TOKENS = { { "#", "#" }, { "${", "}" },
+			{ "@@", "@" } };
+
+	/**
+	 * Fragments of the inputs, besides the tokens.
+	 */
+	private static final String[] FRAGMENTS = { "a", "b", "key", "ab", "x y",
+			"\n", "\r\n", "\r", " ", ":", "=", "\t", "<xsl:value-of/>",
+			"missing" };
+
+	private final Log log = new QuietLog();
+	private final Random random;
+	private final Map resources = new HashMap();
+
+	public TranslationEquivalence(long seed) {
+		this.random = new Random(seed);
+		resources.put("a", "A");
+		resources.put("b", "");
+		resources.put("key", "value with #a# and ${b}");
+		resources.put("ab", "@@key@");
+	}
+
+	public static void main(String[] args) throws Exception {
+		Properties arguments = new Properties();
+		for (int i = 0; i < args.length; i++) {
+			int separator = args[i].indexOf('=');
+			if (separator < 0)
+				throw new IllegalArgumentException("Not name=value: "
+						+ args[i]);
+			arguments.setProperty(args[i].substring(0, separator), args[i]
+					.substring(separator + 1));
+		}
+		int inputs = Integer.parseInt(arguments.getProperty("inputs",
+				"200000"));
+		long seed = Long.parseLong(arguments.getProperty("seed", "1"));
+		if (!new TranslationEquivalence(seed).check(inputs))
+			System.exit(1);
+	}
+
+	/**
+	 * Translate the random inputs by both translators.
+	 *
+	 * @param inputs
+	 *            Number of the inputs
+	 * @return true iff all the inputs are translated the same
+	 * @throws IOException
+	 */
+	public boolean check(int inputs) throws IOException {
+		for (int i = 0; i < inputs; i++) {
+			String[] tokens = TOKENS[random.nextInt(TOKENS.length)];
+			String input = createInput(tokens);
+			String expected = readAll(new net.sf.xsltmp.util.StreamTranslator(
+					tokens[0], tokens[1], resources, log)
+					.translate(new StringReader(input)));
+			String actual = readAll(new TranslatingReader(new StringReader(
+					input), tokens[0], tokens[1], resources, log));
+			if (!expected.equals(actual)) {
+				System.out.println("Input " + i + " translated differently,"
+						+ " tokens " + tokens[0] + " " + tokens[1]);
+				System.out.println("Input:    " + escape(input));
+				System.out.println("Expected: " + escape(expected));
+				System.out.println("Actual:   " + escape(actual));
+				return false;
+			}
+		}
+		System.out.println(inputs + " inputs translated the same");
+		return true;
+	}
+
+	private String createInput(String[] tokens) {
+		StringBuffer result = new StringBuffer();
+		int parts = random.nextInt(40);
+		for (int i = 0; i < parts; i++) {
+			int kind = random.nextInt(4);
+			if (kind == 0)
+				result.append(tokens[0]);
+			else if (kind == 1)
+				result.append(tokens[1]);
+			else
+				result.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Read the whole content in chunks of random lengths.
+	 */
+	private String readAll(Reader reader) throws IOException {
+		StringBuffer result = new StringBuffer();
+		char[] buffer = new char[16];
+		while (true) {
+			int length = random.nextInt(buffer.length + 1);
+			if (length == 0) {
+				int c = reader.read();
+				if (c < 0)
+					break;
+				result.append((char) c);
+				continue;
+			}
+			int read = reader.read(buffer, 0, length);
+			if (read < 0)
+				break;
+			result.append(buffer, 0, read);
+		}
+		reader.close();
+		return result.toString();
+	}
+
+	private static String escape(String s) {
+		return s.replaceAll("\r", "\\\\r").replaceAll("\n", "\\\\n").replaceAll(
+				"\t", "\\\\t");
+	}
+
+}
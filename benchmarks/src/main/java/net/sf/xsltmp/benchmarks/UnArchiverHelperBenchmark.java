@@ -0,0 +1,94 @@
+package net.sf.xsltmp.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.xsltmp.XsltGeneratorConstants;
+import net.sf.xsltmp.util.SharedExtractCache;
+import net.sf.xsltmp.util.UnArchiverHelper;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Getting files from an archive by {@link UnArchiverHelper#getFile(File,
+ * String)}, cycling over all the files of the archive.
+ * <p>
+ * The files are extracted to the build directory, read directly from the
+ * archive, or extracted to the shared repository. The first round extracts
+ * the files during the warmup, the measured ones find them extracted.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class UnArchiverHelperBenchmark {
+
+	/**
+	 * Number of the files in the archive.
+	 */
+	@Param( { "1000" })
+	public int files;
+
+	/**
+	 * How the files are got: <code>extract</code>, <code>direct</code> or
+	 * <code>shared</code>.
+	 */
+	@Param( { "extract", "direct", "shared" })
+	public String mode;
+
+	private File dir;
+	private File archive;
+	private String[] paths;
+	private UnArchiverHelper helper;
+	private int next = 0;
+
+	@Setup
+	public void setUp() throws IOException {
+		dir = Synthetic.createTempDir("unarchiver");
+		paths = new String[files];
+		for (int i = 0; i < files; i++)
+			paths[i] = Synthetic.getClasspathFile(i / 100, i);
+		archive = new File(dir, "lib.jar");
+		Synthetic.createJar(archive, paths, "<empty/>\n");
+		Log log = new QuietLog();
+		MavenProject project = Synthetic.createProject(new File(dir,
+				"project"), new ArrayList());
+		helper = new UnArchiverHelper(log, project, Synthetic
+				.createArchiverManager(), XsltGeneratorConstants.EXTRACTS_DIR);
+		if ("direct".equals(mode))
+			helper.setReadDirectly(true);
+		else if ("shared".equals(mode))
+			helper.setSharedExtractCache(new SharedExtractCache(log, new File(
+					dir, "shared"), helper.getArchiveReader()));
+	}
+
+	@TearDown
+	public void tearDown() {
+		Synthetic.delete(dir);
+	}
+
+	@Benchmark
+	public File getFile() {
+		String path = paths[next];
+		next = (next + 1) % paths.length;
+		return helper.getFile(archive, path);
+	}
+
+}
@@ -2,8 +2,16 @@ package net.sf.xsltmp;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 import net.sf.xsltmp.util.DefaultURIResolver;
+import net.sf.xsltmp.util.PerformanceReport;
+import net.sf.xsltmp.util.ScanSnapshot;
+import net.sf.xsltmp.util.SourceScanner;
+import net.sf.xsltmp.util.WorkerPool;
 
 import org.apache.maven.plugin.MojoFailureException;
 import org.codehaus.plexus.util.DirectoryScanner;
@@ -41,6 +49,35 @@ public abstract class FromManyBase extends XsltGeneratorBase {
 	 */
 	private String srcExcludes;
 
+	/**
+	 * Scan the source directory by the worker threads.
+	 * <p>
+	 * When set, the subdirectories of the source directory are listed in
+	 * parallel by the worker threads (see the <code>threads</code>
+	 * parameter), the directories which cannot contain included source files
+	 * are not entered and the attributes of the source files are read once
+	 * by the scan. When not using checksums, the transformations of the
+	 * source files start while the scan proceeds. The source files are
+	 * processed in the same sorted order.
+	 * 
+	 * @parameter expression="${xsltmp.parallelScan}" default-value="false"
+	 */
+	private boolean parallelScan;
+
+	/**
+	 * Keep a snapshot of the scanned source directory tree for the next build.
+	 * <p>
+	 * When set, the names of the entries of the scanned directories are stored
+	 * along with the last modification times of the directories. The next
+	 * build does not list the directories unchanged since, speeding up the
+	 * builds with few or no changes of large source directory trees. The
+	 * source files are scanned as with the <code>parallelScan</code>
+	 * parameter, but by the worker threads only when that is set.
+	 * 
+	 * @parameter expression="${xsltmp.scanSnapshot}" default-value="false"
+	 */
+	private boolean scanSnapshot;
+
 	// Standard getters and setters for the properties
 
 	public File getSrcDir() {
@@ -67,6 +104,22 @@ public abstract class FromManyBase extends XsltGeneratorBase {
 		this.srcExcludes = srcExcludes;
 	}
 
+	public boolean getParallelScan() {
+		return parallelScan;
+	}
+
+	public void setParallelScan(boolean parallelScan) {
+		this.parallelScan = parallelScan;
+	}
+
+	public boolean getScanSnapshot() {
+		return scanSnapshot;
+	}
+
+	public void setScanSnapshot(boolean scanSnapshot) {
+		this.scanSnapshot = scanSnapshot;
+	}
+
 	// Shared helper methods
 
 	protected boolean verifySrcDirExist() {
@@ -80,21 +133,106 @@ public abstract class FromManyBase extends XsltGeneratorBase {
 	}
 
 	protected String[] getSourceFiles() {
-		DirectoryScanner scanner = new DirectoryScanner();
-		scanner.setBasedir(getSrcDir());
-		scanner.setIncludes(StringUtils.split(getSrcIncludes(), ","));
-		if (getSrcExcludes() != null) {
-			scanner.setExcludes(StringUtils.split(getSrcExcludes(), ","));
+		long start = System.nanoTime();
+		String[] sourceFiles;
+		if (isScannedIncrementally()) {
+			WorkerPool pool = new WorkerPool(getParallelScan() ? getThreads()
+					: 1, getMojoName() + "-scan");
+			try {
+				sourceFiles = createSourceScanner(pool).scan();
+			} finally {
+				pool.shutdown();
+			}
+		} else {
+			DirectoryScanner scanner = new DirectoryScanner();
+			scanner.setBasedir(getSrcDir());
+			scanner.setIncludes(StringUtils.split(getSrcIncludes(), ","));
+			if (getSrcExcludes() != null) {
+				scanner.setExcludes(StringUtils.split(getSrcExcludes(), ","));
+			}
+			scanner.scan();
+			sourceFiles = scanner.getIncludedFiles();
+			// sort the file names to keep consistent order over multiple OS'es
+			Arrays.sort(sourceFiles);
 		}
-		scanner.scan();
-		String[] sourceFiles = scanner.getIncludedFiles();
-		// sort the file names to keep consistent order over multiple OS'es
-		Arrays.sort(sourceFiles);
 		if (0 == sourceFiles.length)
 			getLog().info("No source files to process.");
+		getPerformanceReport().addTime(PerformanceReport.SCAN, start);
 		return sourceFiles;
 	}
 
+	/**
+	 * Are the source files scanned by the incremental scanner, returning them
+	 * while the scan proceeds?
+	 * 
+	 * @return true iff the parallelScan or scanSnapshot parameter is set
+	 * @see #scanSourceFiles(WorkerPool)
+	 */
+	protected boolean isScannedIncrementally() {
+		return getParallelScan() || getScanSnapshot();
+	}
+
+	/**
+	 * Scan the source files by the workers of a pool, returning them while the
+	 * scan proceeds.
+	 * 
+	 * @param pool
+	 *            Worker pool listing the directories
+	 * @return Iterator of the names of the source files in their sorted order
+	 */
+	protected Iterator scanSourceFiles(WorkerPool pool) {
+		return createSourceScanner(pool).iterator();
+	}
+
+	private SourceScanner createSourceScanner(WorkerPool pool) {
+		String[] excludes = null;
+		if (getSrcExcludes() != null)
+			excludes = StringUtils.split(getSrcExcludes(), ",");
+		SourceScanner scanner = new SourceScanner(getLog(), getSrcDir(),
+				StringUtils.split(getSrcIncludes(), ","), excludes,
+				getParallelScan() ? pool : new WorkerPool(1, null),
+				getStatCache());
+		if (getScanSnapshot()) {
+			File snapshotsDir = new File(getProject().getBuild()
+					.getDirectory(), SNAPSHOTS_DIR);
+			ScanSnapshot snapshot = new ScanSnapshot(getLog(), new File(
+					snapshotsDir, getMojoName() + "-"
+							+ CHECKSUM_UTILS.checksum(getExecutionKey())
+							+ ".properties"));
+			snapshot.load();
+			scanner.setSnapshot(snapshot);
+		}
+		return scanner;
+	}
+
+	protected String getExecutionKey() {
+		return super.getExecutionKey() + ", srcDir="
+				+ getSrcDir().getAbsolutePath() + ", srcIncludes="
+				+ getSrcIncludes() + ", srcExcludes=" + getSrcExcludes();
+	}
+
+	/**
+	 * Compute checksums of the source files in advance, when using checksums.
+	 * 
+	 * @param sourceFileNames
+	 *            Names of the source files
+	 * @param pool
+	 *            Worker pool to compute the checksums
+	 * @throws Exception
+	 */
+	protected void computeChecksums(String[] sourceFileNames, WorkerPool pool)
+			throws Exception {
+		if (!getChecksums() || getForce())
+			return;
+		Set files = new LinkedHashSet();
+		for (int i = 0; i < sourceFileNames.length; i++) {
+			files.add(getSourceFile(sourceFileNames[i]));
+			files.addAll(getManifest().getOutputs(sourceFileNames[i]));
+			files.addAll(getManifest().getDependencies(sourceFileNames[i]));
+		}
+		getManifest().computeChecksums(files, pool);
+	}
+
 	protected File getSourceFile(String sourceFileName) {
 		return new File(getSrcDir(), sourceFileName);
 	}
@@ -118,19 +256,18 @@ public abstract class FromManyBase extends XsltGeneratorBase {
 	}
 
 	// Set up URIResolver from srcDir.
-	public DefaultURIResolver getResolver() {
-		if (null == resolver) {
-			if (getLog().isDebugEnabled())
-				getLog().debug(
-						"Setting up SrcDirURIResolver: srcDir=" + getSrcDir()
-								+ ", sourceEncoding=" + getSourceEncoding()
-								+ ", filter=" + getFilter()
-								+ ", filterParameters=" + getFilterParameters());
-			resolver = new SrcDirURIResolver(getSrcDir(), getLog(),
-					getProject(), getHelper(), getSourceEncoding(),
-					getFilter(), getFilterParameters());
-		}
-		return resolver;
+	protected DefaultURIResolver createResolver(Map filterParameters) {
+		if (getLog().isDebugEnabled())
+			getLog().debug(
+					"Setting up SrcDirURIResolver: srcDir=" + getSrcDir()
+							+ ", sourceEncoding=" + getSourceEncoding()
+							+ ", filter=" + getFilterChain()
+							+ ", filterParameters=" + filterParameters);
+		DefaultURIResolver result = new SrcDirURIResolver(getSrcDir(),
+				getLog(), getProject(), getHelper(), getSourceEncoding(),
+				getFilterChain(), filterParameters);
+		setUpResolver(result);
+		return result;
 	}
 
 }
@@ -1,6 +1,13 @@
 package net.sf.xsltmp;
 
 import java.io.File;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.stream.StreamResult;
 
 /**
  * Perform XSL transformation of multiple source files into destination files
@@ -9,9 +16,15 @@ import java.io.File;
  * For each source file, the template is supposed to create destination files
  * dynamically using the <code>xsl:result-document</code> command.
  * <p>
- * The default output of the template is directed to a file which is deleted
- * after processing.
- * 
+ * The default output of the template is discarded. Its URI is a file named
+ * <code>null</code> in the destination directory, relative URIs of the
+ * destination files are resolved against it.
+ * <p>
+ * When the XSLT engine supports capturing the destination files created by
+ * each source file (Saxon does), they are remembered for the next build. A
+ * source file is then skipped as long as all its destination files exist and
+ * are newer than the source file.
+ *
  * @goal many-to-dynamic
  * @phase generate-sources
  * @requiresDependencyResolution compile
@@ -31,9 +44,42 @@ public class ManyToDynamicMojo extends ManyToManyBase {
 		return false;
 	}
 
-	protected void cleanAfterFileTransformation(File destFile) {
-		if (destFile.exists())
-			destFile.delete();
+	protected boolean shouldSkip(String sourceFileName, File srcFile,
+			File destFile) {
+		if (!getManifest().isRecordedSource(sourceFileName))
+			return false;
+		List outputs = getManifest().getOutputs(sourceFileName);
+		if (outputs.isEmpty())
+			return false;
+		for (Iterator iterator = outputs.iterator(); iterator.hasNext();) {
+			File output = (File) iterator.next();
+			if (output.lastModified() <= srcFile.lastModified())
+				return false;
+		}
+		return true;
+	}
+
+	protected Result createResult(File destFile) {
+		StreamResult result = new StreamResult(new DiscardOutputStream());
+		result.setSystemId(destFile);
+		return result;
+	}
+
+	protected List getOutputFiles(File destFile) {
+		return Collections.EMPTY_LIST;
+	}
+
+	/**
+	 * Output stream discarding everything written to it.
+	 */
+	private static class DiscardOutputStream extends OutputStream {
+
+		public void write(int b) {
+		}
+
+		public void write(byte[] b, int off, int len) {
+		}
+
 	}
 
 }
@@ -1,11 +1,26 @@
 package net.sf.xsltmp;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
 
 import net.sf.xsltmp.util.AddSourcesUtils;
+import net.sf.xsltmp.util.DefaultURIResolver;
+import net.sf.xsltmp.util.PerformanceReport;
+import net.sf.xsltmp.util.ResultDocumentCapture;
+import net.sf.xsltmp.util.SAXBuffer;
+import net.sf.xsltmp.util.WorkerPool;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -37,6 +52,22 @@ public abstract class ManyToManyBase extends FromManyBase {
 	 */
 	private String addDestDirTo;
 
+	/**
+	 * Delete obsolete destination files.
+	 * <p>
+	 * A destination file is obsolete when it was generated by a previous
+	 * build, but its source file has been deleted or renamed since, or the
+	 * source file no longer produces it. Directories left empty are deleted as
+	 * well. Only the files recorded in the manifest by a previous build and
+	 * within the destination directory are deleted, never other files of the
+	 * destination directory.
+	 * <p>
+	 * Off by default, the destination files are only deleted when opted in.
+	 * 
+	 * @parameter expression="${xsltmp.prune}" default-value="false"
+	 */
+	private boolean prune = false;
+
 	// Standard getters and setters for the properties
 
 	public File getDestDir() {
@@ -55,6 +86,14 @@ public abstract class ManyToManyBase extends FromManyBase {
 		this.addDestDirTo = addDestDirTo;
 	}
 
+	public boolean getPrune() {
+		return prune;
+	}
+
+	public void setPrune(boolean prune) {
+		this.prune = prune;
+	}
+
 	// Standard implementation of the transformation algorithm for multiple
 	// destination files.
 
@@ -63,9 +102,20 @@ public abstract class ManyToManyBase extends FromManyBase {
 	 * 
 	 * Perform a generic XSL transformation algorithm. The mojo-specific parts
 	 * are implemented in called abstract methods in the class descendants.
+	 * <p>
+	 * The source files are processed in their sorted order. When run by
+	 * multiple worker threads, the executions are still logged in this order
+	 * and the failure of the first failed source file in this order is
+	 * reported. Once a source file has failed, no more source files are
+	 * submitted to the worker threads.
+	 * <p>
+	 * When translating to multiple locales, each source file is parsed once
+	 * and transformed into the destination files of all the locales, placed
+	 * in the subdirectories of the locales within the destination directory.
 	 */
 	public void execute() throws MojoExecutionException, MojoFailureException {
 		boolean didRun = false;
+		WorkerPool pool = new WorkerPool(getThreads(), getMojoName());
 		try {
 			if (!verifyXsltFileExist())
 				return;
@@ -73,24 +123,52 @@ public abstract class ManyToManyBase extends FromManyBase {
 				return;
 			ensureDestDirExists();
 
-			boolean xslFileChanged = hasChanged(getXslFile());
-			String[] sourceFileNames = getSourceFiles();
-			for (int i = 0; i < sourceFileNames.length; i++) {
-				File srcFile = getSourceFile(sourceFileNames[i]);
-				File destFile = getDestFile(sourceFileNames[i]);
+			boolean xslFileChanged = hasTemplateChanged();
+			Iterator sourceFileNames;
+			if (isScannedIncrementally() && (!getChecksums() || getForce())) {
+				// transform while scanning
+				sourceFileNames = scanSourceFiles(pool);
+			} else {
+				String[] names = getSourceFiles();
+				computeChecksums(names, pool);
+				sourceFileNames = Arrays.asList(names).iterator();
+			}
+			boolean found = false;
+			List tasks = new ArrayList();
+			while (sourceFileNames.hasNext()) {
+				if (pool.hasFailed())
+					// the failure is thrown by join()
+					break;
+				String sourceFileName = (String) sourceFileNames.next();
+				found = true;
+				File srcFile = getSourceFile(sourceFileName);
+				File[] destFiles = getDestFiles(sourceFileName);
 				if (!xslFileChanged
-						&& (shouldSkip(srcFile, destFile) || !hasChanged(srcFile))) {
+						&& areUpToDate(sourceFileName, srcFile, destFiles)) {
 					if (getLog().isDebugEnabled())
 						getLog().debug("File skipped: " + srcFile);
+					getManifest().keepSource(sourceFileName, srcFile);
+					getPerformanceReport().count("sources.skipped");
 					continue;
 				}
 				didRun = true;
-				ensureDestFileDirExists(destFile);
+				for (int i = 0; i < destFiles.length; i++)
+					ensureDestFileDirExists(destFiles[i]);
 				logExecution(srcFile);
-				getTransformer().transform(new StreamSource(srcFile),
-						new StreamResult(destFile));
-				cleanAfterFileTransformation(destFile);
+				TransformTask task = new TransformTask(sourceFileName,
+						srcFile, destFiles);
+				tasks.add(task);
+				pool.submit(task);
 			}
+			pool.join();
+			if (!found && isScannedIncrementally())
+				getLog().info("No source files to process.");
+			recordSources(tasks);
+			if (getPrune())
+				deleteObsoleteOutputs();
+			saveManifest();
+			getResolver().logStatistics();
+			writePerformanceReport();
 			if (!didRun)
 				getLog().info("No sources to process.");
 			addDestDir();
@@ -99,9 +177,114 @@ public abstract class ManyToManyBase extends FromManyBase {
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw new MojoExecutionException(e.getMessage(), e);
+		} finally {
+			pool.shutdown();
 		}
 	}
 
+	/**
+	 * Transformation of a single source file into its destination files, one
+	 * for each locale translated to.
+	 */
+	private class TransformTask implements Callable {
+
+		private final String sourceFileName;
+		private final File srcFile;
+		private final File[] destFiles;
+		private final List dependencies = new ArrayList();
+		private final List resultDocuments = new ArrayList();
+
+		public TransformTask(String sourceFileName, File srcFile,
+				File[] destFiles) {
+			this.sourceFileName = sourceFileName;
+			this.srcFile = srcFile;
+			this.destFiles = destFiles;
+		}
+
+		public Object call() throws Exception {
+			String[] locales = getBundleLocales();
+			if (null == locales) {
+				transform(getWorkerTransformer(), getResolver(), createSource(
+						getResolver(), srcFile), destFiles[0]);
+				return null;
+			}
+			if (isFilteringSources()) {
+				// the source file is filtered for each locale
+				for (int i = 0; i < locales.length; i++) {
+					DefaultURIResolver resolver = getLocaleVariant(locales[i])
+							.getResolver();
+					transform(getWorkerTransformer(locales[i]), resolver,
+							createSource(resolver, srcFile), destFiles[i]);
+				}
+				return null;
+			}
+			// parse the source file once for all the locales
+			SAXBuffer buffer = new SAXBuffer();
+			getPerformanceReport().addBytesRead(srcFile.length());
+			buffer.parse(getXMLReaderPool().createSource(srcFile));
+			String systemId = srcFile.toURI().toString();
+			for (int i = 0; i < locales.length; i++)
+				transform(getWorkerTransformer(locales[i]), getLocaleVariant(
+						locales[i]).getResolver(), buffer
+						.createSource(systemId), destFiles[i]);
+			return null;
+		}
+
+		private void transform(Transformer transformer,
+				DefaultURIResolver resolver, Source source, File destFile)
+				throws Exception {
+			Result result = createResult(destFile);
+			resolver.startRecording();
+			getResultDocumentCapture().start();
+			PerformanceReport report = getPerformanceReport();
+			List captured = null;
+			boolean done = false;
+			try {
+				long start = System.nanoTime();
+				transformer.transform(source, result);
+				report.recordTransform(getReportedName(destFile), start);
+				start = System.nanoTime();
+				commitResult(result);
+				report.addTime(PerformanceReport.WRITE, start);
+				done = true;
+			} finally {
+				if (!done)
+					discardResult(result);
+				captured = getResultDocumentCapture().stop();
+				resultDocuments.addAll(captured);
+				List recorded = resolver.stopRecording();
+				for (Iterator iterator = recorded.iterator(); iterator
+						.hasNext();) {
+					Object file = iterator.next();
+					if (!dependencies.contains(file))
+						dependencies.add(file);
+				}
+			}
+			// no file is written for a discarded default output
+			for (Iterator iterator = getOutputFiles(destFile).iterator(); iterator
+					.hasNext();)
+				report.addBytesWritten(((File) iterator.next()).length());
+			for (Iterator iterator = captured.iterator(); iterator.hasNext();)
+				report.addBytesWritten(((File) iterator.next()).length());
+			cleanAfterFileTransformation(destFile);
+		}
+
+		/**
+		 * Return the name of the transformation in the performance report:
+		 * the name of the source file, followed by the locale translated to.
+		 */
+		private String getReportedName(File destFile) {
+			if (1 == destFiles.length)
+				return sourceFileName;
+			String[] locales = getBundleLocales();
+			for (int i = 0; i < destFiles.length; i++)
+				if (destFiles[i].equals(destFile))
+					return sourceFileName + " [" + locales[i] + "]";
+			return sourceFileName;
+		}
+
+	}
+
 	// The abstract methods which defer implementation of the specifics of the
 	// transformation algorithm to descendants.
 
@@ -123,6 +306,36 @@ public abstract class ManyToManyBase extends FromManyBase {
 	 */
 	protected abstract boolean shouldSkip(File srcFile, File destFile);
 
+	/**
+	 * Return true iff the transformation of the given source file should be
+	 * skipped.
+	 * <p>
+	 * Delegates to {@link #shouldSkip(File, File)} by default.
+	 * 
+	 * @param sourceFileName
+	 * @param srcFile
+	 * @param destFile
+	 * @return boolean
+	 */
+	protected boolean shouldSkip(String sourceFileName, File srcFile,
+			File destFile) {
+		return shouldSkip(srcFile, destFile);
+	}
+
+	/**
+	 * Return the destination files produced by the transformation of a source
+	 * file into the given destination file.
+	 * <p>
+	 * The files written by the <code>xsl:result-document</code> command are
+	 * added to these when the XSLT engine supports capturing them.
+	 * 
+	 * @param destFile
+	 * @return List of Files
+	 */
+	protected List getOutputFiles(File destFile) {
+		return Collections.singletonList(destFile);
+	}
+
 	/**
 	 * Perform any clean-up after a source file has been transformed into the
 	 * given destination file.
@@ -134,6 +347,163 @@ public abstract class ManyToManyBase extends FromManyBase {
 
 	// Helper methods
 
+	protected String getExecutionKey() {
+		return super.getExecutionKey() + ", destDir="
+				+ getDestDir().getAbsolutePath();
+	}
+
+	/**
+	 * Return the destination files of a source file, one for each locale
+	 * translated to.
+	 * 
+	 * @param sourceFileName
+	 * @return Files in the order of the locales
+	 * @see #getBundleLocales()
+	 */
+	protected File[] getDestFiles(String sourceFileName) {
+		File destFile = getDestFile(sourceFileName);
+		String[] locales = getBundleLocales();
+		if (null == locales)
+			return new File[] { destFile };
+		File[] result = new File[locales.length];
+		for (int i = 0; i < locales.length; i++)
+			result[i] = getLocaleFile(getDestDir(), destFile, locales[i]);
+		return result;
+	}
+
+	/**
+	 * Are the destinations of a source file up-to-date?
+	 * 
+	 * @param sourceFileName
+	 * @param srcFile
+	 * @param destFiles
+	 * @return boolean
+	 * @see #isUpToDate(String, File, File)
+	 */
+	private boolean areUpToDate(String sourceFileName, File srcFile,
+			File[] destFiles) {
+		for (int i = 0; i < destFiles.length; i++)
+			if (!isUpToDate(sourceFileName, srcFile, destFiles[i]))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Is the destination of a source file up-to-date?
+	 * <p>
+	 * It is not up-to-date when any of the files the source file depended on
+	 * in the previous execution has changed, eg. a file loaded by the
+	 * <code>document()</code> function.
+	 * <p>
+	 * When using checksums, it is up-to-date iff neither the source file nor
+	 * the destination files produced from it by the previous execution have
+	 * changed. Otherwise the descendant decides, see
+	 * {@link #shouldSkip(String, File, File)}, or the timestamp of the source
+	 * file.
+	 * 
+	 * @param sourceFileName
+	 * @param srcFile
+	 * @param destFile
+	 * @return boolean
+	 */
+	protected boolean isUpToDate(String sourceFileName, File srcFile,
+			File destFile) {
+		if (haveChanged(getManifest().getDependencies(sourceFileName)))
+			return false;
+		if (getChecksums())
+			return getManifest().isRecordedSource(sourceFileName)
+					&& !hasChanged(srcFile)
+					&& getManifest().areOutputsUpToDate(sourceFileName);
+		// the source file is checked first, its timestamp is known from the
+		// scan
+		return !hasChanged(srcFile)
+				|| shouldSkip(sourceFileName, srcFile, destFile);
+	}
+
+	/**
+	 * Record the transformed source files in the manifest.
+	 * 
+	 * @param tasks
+	 *            List of performed TransformTasks
+	 */
+	private void recordSources(List tasks) {
+		for (Iterator iterator = tasks.iterator(); iterator.hasNext();) {
+			TransformTask task = (TransformTask) iterator.next();
+			List outputs = new ArrayList();
+			for (int i = 0; i < task.destFiles.length; i++)
+				outputs.addAll(getOutputFiles(task.destFiles[i]));
+			for (Iterator it = task.resultDocuments.iterator(); it.hasNext();) {
+				File file = (File) it.next();
+				if (!outputs.contains(file))
+					outputs.add(file);
+			}
+			getManifest().forget(outputs);
+			getManifest().recordSource(task.sourceFileName, task.srcFile,
+					outputs);
+			getManifest().recordDependencies(task.sourceFileName,
+					task.dependencies);
+		}
+	}
+
+	private final ThreadLocal workerTransformer = new ThreadLocal();
+
+	private final ThreadLocal workerLocaleTransformers = new ThreadLocal();
+
+	private ResultDocumentCapture resultDocumentCapture;
+
+	/**
+	 * Return the transformer of the current worker thread.
+	 * <p>
+	 * The files written by the transformer using the
+	 * <code>xsl:result-document</code> command are captured when supported by
+	 * the XSLT engine.
+	 * 
+	 * @return Transformer
+	 * @throws MojoFailureException
+	 */
+	protected Transformer getWorkerTransformer() throws MojoFailureException {
+		Transformer transformer = (Transformer) workerTransformer.get();
+		if (null == transformer) {
+			transformer = newTransformer();
+			getResultDocumentCapture().install(transformer);
+			workerTransformer.set(transformer);
+		}
+		return transformer;
+	}
+
+	/**
+	 * Return the transformer of the current worker thread translating to a
+	 * locale.
+	 * 
+	 * @param locale
+	 *            The locale
+	 * @return Transformer
+	 * @throws MojoFailureException
+	 * @see #getWorkerTransformer()
+	 */
+	protected Transformer getWorkerTransformer(String locale)
+			throws MojoFailureException {
+		Map transformers = (Map) workerLocaleTransformers.get();
+		if (null == transformers) {
+			transformers = new HashMap();
+			workerLocaleTransformers.set(transformers);
+		}
+		Transformer transformer = (Transformer) transformers.get(locale);
+		if (null == transformer) {
+			transformer = getLocaleVariant(locale).newTransformer();
+			getResultDocumentCapture().install(transformer);
+			transformers.put(locale, transformer);
+		}
+		return transformer;
+	}
+
+	protected synchronized ResultDocumentCapture getResultDocumentCapture() {
+		if (null == resultDocumentCapture)
+			resultDocumentCapture = new ResultDocumentCapture(getLog(),
+					getWriteChangedOnly());
+		return resultDocumentCapture;
+	}
+
 	protected void ensureDestDirExists() throws MojoFailureException {
 		if (!getDestDir().exists()) {
 			boolean dirCreationResult = getDestDir().mkdirs();
@@ -145,6 +515,46 @@ public abstract class ManyToManyBase extends FromManyBase {
 		}
 	}
 
+	/**
+	 * Delete the obsolete destination files and the directories they leave
+	 * empty.
+	 * 
+	 * @throws IOException
+	 */
+	private void deleteObsoleteOutputs() throws IOException {
+		String destDirPath = getDestDir().getCanonicalPath() + File.separator;
+		List obsolete = getManifest().getObsoleteOutputs();
+		for (Iterator iterator = obsolete.iterator(); iterator.hasNext();) {
+			File file = (File) iterator.next();
+			if (!file.getCanonicalPath().startsWith(destDirPath)) {
+				if (getLog().isDebugEnabled())
+					getLog().debug(
+							"Obsolete file not within destination directory, kept: "
+									+ file);
+				continue;
+			}
+			if (!file.exists())
+				continue;
+			if (!file.delete()) {
+				getLog().warn("Cannot delete obsolete destination file: " + file);
+				continue;
+			}
+			getLog().info("Deleted obsolete destination file: " + file);
+			File dir = file.getParentFile();
+			while (dir.getCanonicalPath().startsWith(destDirPath)
+					&& isEmptyDir(dir) && dir.delete()) {
+				if (getLog().isDebugEnabled())
+					getLog().debug("Deleted empty directory: " + dir);
+				dir = dir.getParentFile();
+			}
+		}
+	}
+
+	private boolean isEmptyDir(File dir) {
+		String[] children = dir.list();
+		return null != children && 0 == children.length;
+	}
+
 	/**
 	 * Add the destination directory to the project.
 	 */
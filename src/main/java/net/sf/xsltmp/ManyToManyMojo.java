@@ -57,6 +57,12 @@ public class ManyToManyMojo extends ManyToManyBase {
 		return "many-to-many";
 	}
 
+	protected String getExecutionKey() {
+		return super.getExecutionKey() + ", fileNameRegex="
+				+ getFileNameRegex() + ", fileNameReplacement="
+				+ getFileNameReplacement();
+	}
+
 	protected File getDestFile(String sourceFile) {
 		String destFileName = sourceFile;
 		if (getFileNameRegex() != null && getFileNameReplacement() != null) {
@@ -68,8 +74,9 @@ public class ManyToManyMojo extends ManyToManyBase {
 
 	protected boolean shouldSkip(File srcFile, File destFile) {
 		// if dest file exists and is newer than src file, then skip
-		return destFile.exists()
-				&& srcFile.lastModified() < destFile.lastModified();
+		long destModified = destFile.lastModified();
+		return 0 != destModified
+				&& getStatCache().lastModified(srcFile) < destModified;
 	}
 
 }
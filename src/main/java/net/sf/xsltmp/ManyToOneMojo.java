@@ -3,9 +3,23 @@ package net.sf.xsltmp;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+
+import net.sf.xsltmp.util.ChangedOnlyResult;
+import net.sf.xsltmp.util.DefaultURIResolver;
+import net.sf.xsltmp.util.PerformanceReport;
+import net.sf.xsltmp.util.DocumentPrefetcher;
+import net.sf.xsltmp.util.SAXBuffer;
+import net.sf.xsltmp.util.SourceCollection;
+import net.sf.xsltmp.util.WorkerPool;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -27,6 +41,18 @@ import org.apache.maven.plugin.MojoFailureException;
  * <p>
  * The content of the single source file can then be enriched in the template by
  * the multiple source files.
+ * <p>
+ * With Saxon, all the source files are also available as a collection. Its
+ * URI is passed into the template in a parameter named 'source-collection':
+ * <code>&lt;xsl:variable name="source-files" select="collection($source-collection)" /></code>.
+ * The URI is that of a collection catalog listing the source files in their
+ * sorted order.
+ * <p>
+ * When using multiple threads, the worker threads parse the source files
+ * ahead while the template reads them one by one, in the sorted order, by the
+ * <code>document()</code> function or, with Saxon, from the collection. They
+ * only start parsing once the template loads the first source file, so that
+ * no source file is parsed in vain.
  * 
  * @goal many-to-one
  * @phase generate-sources
@@ -54,6 +80,10 @@ public class ManyToOneMojo extends FromManyBase {
 
 	private boolean shouldRun = false;
 	private File resolvedSrcFile;
+	private String[] sourceFileNames;
+	private List namedSourceFiles = new ArrayList();
+	private List dependencies = Collections.EMPTY_LIST;
+	private static final String DEPENDENCIES_NAME = "destFile";
 	public static final String SOURCE_FILE_NAMES_SEPARATOR = "|";
 
 	// Standard getters and setters for the properties
@@ -94,7 +124,9 @@ public class ManyToOneMojo extends FromManyBase {
 				return;
 			if (!verifySrcDirExist())
 				return;
-			ensureDestFileDirExists(getDestFile());
+			File[] destFiles = getDestFiles();
+			for (int i = 0; i < destFiles.length; i++)
+				ensureDestFileDirExists(destFiles[i]);
 
 			prepare();
 			if (!doesSrcFileExists()) {
@@ -106,11 +138,53 @@ public class ManyToOneMojo extends FromManyBase {
 						"Stored source-file-names param: " + sourceFileNames);
 			if (shouldRun) {
 				logExecution(getSrcFile());
-				getTransformer().transform(new StreamSource(resolvedSrcFile),
-						new StreamResult(getDestFile()));
+				String[] locales = getBundleLocales();
+				if (null == locales) {
+					dependencies = transform(getTransformer(), getResolver(),
+							createSource(getResolver(), resolvedSrcFile),
+							getDestFile());
+				} else if (isFilteringSources()) {
+					// the single source file is filtered for each locale
+					dependencies = new ArrayList();
+					for (int i = 0; i < locales.length; i++) {
+						LocaleVariant variant = getLocaleVariant(locales[i]);
+						List recorded = transform(variant.newTransformer(),
+								variant.getResolver(), createSource(variant
+										.getResolver(), resolvedSrcFile),
+								destFiles[i]);
+						recorded.removeAll(dependencies);
+						dependencies.addAll(recorded);
+					}
+				} else {
+					// parse the single source file once for all the locales
+					SAXBuffer buffer = new SAXBuffer();
+					getPerformanceReport().addBytesRead(
+							resolvedSrcFile.length());
+					buffer.parse(getXMLReaderPool().createSource(
+							resolvedSrcFile));
+					String systemId = resolvedSrcFile.toURI().toString();
+					dependencies = new ArrayList();
+					for (int i = 0; i < locales.length; i++) {
+						LocaleVariant variant = getLocaleVariant(locales[i]);
+						List recorded = transform(variant.newTransformer(),
+								variant.getResolver(), buffer
+										.createSource(systemId), destFiles[i]);
+						recorded.removeAll(dependencies);
+						dependencies.addAll(recorded);
+					}
+				}
+				dependencies.removeAll(getSourceFileList());
+				dependencies.remove(getCollectionFile());
+				getManifest().recordDependencies(DEPENDENCIES_NAME,
+						dependencies);
 			} else {
 				getLog().info("No sources to process.");
+				getManifest().keepDependencies(DEPENDENCIES_NAME);
 			}
+			recordSources();
+			saveManifest();
+			getResolver().logStatistics();
+			writePerformanceReport();
 		} catch (MojoFailureException mfe) {
 			throw mfe;
 		} catch (Exception e) {
@@ -119,14 +193,111 @@ public class ManyToOneMojo extends FromManyBase {
 		}
 	}
 
+	/**
+	 * Transform the single source file into a destination file.
+	 * 
+	 * @return The files the transformation depended on
+	 */
+	private List transform(Transformer transformer,
+			DefaultURIResolver resolver, Source source, File destFile)
+			throws Exception {
+		Result result = createResult(destFile);
+		WorkerPool pool = new WorkerPool(getThreads(), getMojoName());
+		DocumentPrefetcher prefetcher = null;
+		SourceCollection collection = null;
+		if (pool.isParallel()) {
+			prefetcher = new DocumentPrefetcher(getLog(), resolver, pool,
+					namedSourceFiles, pool.getThreads() * 4);
+			resolver.setPrefetcher(prefetcher);
+			collection = new SourceCollection(getLog(), getCollectionFile(),
+					getSourceFileList(), resolver, pool, pool.getThreads() * 4);
+			collection.install(transformer);
+		}
+		resolver.startRecording();
+		PerformanceReport report = getPerformanceReport();
+		List recorded;
+		boolean done = false;
+		try {
+			long start = System.nanoTime();
+			transformer.transform(source, result);
+			report.recordTransform(getReportedName(destFile), start);
+			start = System.nanoTime();
+			commitResult(result);
+			report.addTime(PerformanceReport.WRITE, start);
+			done = true;
+		} finally {
+			if (!done)
+				discardResult(result);
+			recorded = resolver.stopRecording();
+			if (null != prefetcher) {
+				prefetcher.stop();
+				resolver.setPrefetcher(null);
+			}
+			if (null != collection)
+				collection.stop();
+			pool.shutdown();
+		}
+		report.addBytesWritten(destFile.length());
+		return recorded;
+	}
+
+	/**
+	 * Return the name of the transformation in the performance report: the
+	 * path of the source file relative to the project, followed by the
+	 * locale translated to.
+	 */
+	private String getReportedName(File destFile) {
+		String[] locales = getBundleLocales();
+		if (null != locales) {
+			File[] destFiles = getDestFiles();
+			for (int i = 0; i < destFiles.length; i++)
+				if (destFiles[i].equals(destFile))
+					return relativize(resolvedSrcFile.getPath()) + " ["
+							+ locales[i] + "]";
+		}
+		return relativize(resolvedSrcFile.getPath());
+	}
+
+	/**
+	 * Return the destination files, one for each locale translated to.
+	 * 
+	 * @return Files in the order of the locales
+	 * @see #getBundleLocales()
+	 */
+	protected File[] getDestFiles() {
+		String[] locales = getBundleLocales();
+		if (null == locales)
+			return new File[] { getDestFile() };
+		File[] result = new File[locales.length];
+		for (int i = 0; i < locales.length; i++)
+			result[i] = getLocaleFile(getDestFile().getParentFile(),
+					getDestFile(), locales[i]);
+		return result;
+	}
+
 	public void prepare() throws MojoFailureException {
 		storeSourceFileNamesInParam();
+		storeSourceCollectionInParam();
 		if (doesSrcFileExists()) {
 			resolvedSrcFile = getSrcFile();
 			shouldRun |= hasChanged(resolvedSrcFile);
 		} else {
 			resolvedSrcFile = getDefaultFile();
 		}
+		if (getChecksums())
+			shouldRun |= !isDestFileUpToDate();
+	}
+
+	protected String getExecutionKey() {
+		return super.getExecutionKey() + ", srcFile=" + getSrcFile()
+				+ ", destFile=" + getDestFile().getAbsolutePath();
+	}
+
+	protected Map getConfigurationParameters() {
+		Map result = super.getConfigurationParameters();
+		result.remove("source-file-names");
+		result.remove("source-collection");
+		return result;
 	}
 
 	// Private helper methods
@@ -155,10 +326,14 @@ public class ManyToOneMojo extends FromManyBase {
 
 	private void storeSourceFileNamesInParam() throws MojoFailureException {
 		try {
-			boolean xslFileChanged = hasChanged(getXslFile());
+			boolean xslFileChanged = hasTemplateChanged()
+					|| haveChanged(getManifest().getDependencies(
+							DEPENDENCIES_NAME));
 			String srcDirPath = getSrcDir().getCanonicalPath();
 			StringBuilder b = new StringBuilder();
-			String[] sourceFileNames = getSourceFiles();
+			sourceFileNames = getSourceFiles();
+			computeChecksums(sourceFileNames);
+			namedSourceFiles = new ArrayList();
 			for (int i = 0; i < sourceFileNames.length; i++) {
 				File srcFile = getSourceFile(sourceFileNames[i]);
 				if (!xslFileChanged && !hasChanged(srcFile)) {
@@ -167,6 +342,7 @@ public class ManyToOneMojo extends FromManyBase {
 					continue;
 				}
 				shouldRun = true;
+				namedSourceFiles.add(srcFile);
 				String srcFilePath = srcFile.getCanonicalPath();
 				if (!(srcFilePath.startsWith(srcDirPath)))
 					throw new MojoFailureException(
@@ -187,6 +363,119 @@ public class ManyToOneMojo extends FromManyBase {
 		}
 	}
 
+	/**
+	 * Write the catalog of the collection of all the source files and pass
+	 * its URI to the template.
+	 * <p>
+	 * The catalog is only re-written when the source files change. With
+	 * Saxon and multiple threads, the collection is served from the source
+	 * files parsed ahead instead of being read from the catalog, see
+	 * {@link SourceCollection}.
+	 * 
+	 * @throws MojoFailureException
+	 */
+	private void storeSourceCollectionInParam() throws MojoFailureException {
+		File file = getCollectionFile();
+		StringBuilder b = new StringBuilder();
+		b.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		b.append("<collection stable=\"true\">\n");
+		for (int i = 0; i < sourceFileNames.length; i++) {
+			b.append("\t<doc href=\"");
+			b.append(escapeAttribute(getSourceFile(sourceFileNames[i])
+					.getAbsoluteFile().toURI().toString()));
+			b.append("\"/>\n");
+		}
+		b.append("</collection>\n");
+		file.getParentFile().mkdirs();
+		try {
+			ChangedOnlyResult result = new ChangedOnlyResult(getLog(), file);
+			boolean done = false;
+			try {
+				result.getOutputStream().write(b.toString().getBytes("UTF-8"));
+				result.commit();
+				done = true;
+			} finally {
+				if (!done)
+					result.discard();
+			}
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			throw new MojoFailureException("Cannot write collection catalog "
+					+ file, ioe);
+		}
+		getParameters().put("source-collection", file.toURI().toString());
+	}
+
+	private File getCollectionFile() {
+		File collectionsDir = new File(getProject().getBuild().getDirectory(),
+				COLLECTIONS_DIR);
+		return new File(collectionsDir, getMojoName() + "-"
+				+ CHECKSUM_UTILS.checksum(getExecutionKey()) + ".xml");
+	}
+
+	private String escapeAttribute(String value) {
+		return value.replaceAll("&", "&amp;").replaceAll("\"", "&quot;")
+				.replaceAll("<", "&lt;");
+	}
+
+	private void computeChecksums(String[] sourceFileNames)
+			throws MojoFailureException {
+		WorkerPool pool = new WorkerPool(getThreads(), getMojoName());
+		try {
+			computeChecksums(sourceFileNames, pool);
+		} catch (Exception e) {
+			e.printStackTrace();
+			throw new MojoFailureException("Cannot compute checksums", e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Is the destination file up-to-date with respect to the manifest?
+	 * 
+	 * @return true iff the same source files were recorded by the previous
+	 *         execution and the destination file has not changed since
+	 */
+	private boolean isDestFileUpToDate() {
+		File[] destFiles = getDestFiles();
+		for (int i = 0; i < destFiles.length; i++)
+			if (!destFiles[i].exists())
+				return false;
+		if (!getManifest().getRecordedSources().equals(
+				Arrays.asList(sourceFileNames)))
+			return false;
+		for (int i = 0; i < sourceFileNames.length; i++) {
+			if (!getManifest().areOutputsUpToDate(sourceFileNames[i]))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Record the source files in the manifest, all of them produced the
+	 * destination file.
+	 * <p>
+	 * The files loaded by the template other than the source files are
+	 * recorded as dependencies of the destination file, a change of any of
+	 * them is handled as a change of the template.
+	 */
+	private void recordSources() {
+		List outputs = Arrays.asList(getDestFiles());
+		getManifest().forget(outputs);
+		for (int i = 0; i < sourceFileNames.length; i++)
+			getManifest().recordSource(sourceFileNames[i],
+					getSourceFile(sourceFileNames[i]), outputs);
+		getManifest().recordFile(resolvedSrcFile);
+	}
+
+	private List getSourceFileList() {
+		List result = new ArrayList();
+		for (int i = 0; i < sourceFileNames.length; i++)
+			result.add(getSourceFile(sourceFileNames[i]));
+		return result;
+	}
+
 	private boolean doesSrcFileExists() {
 		return (null != getSrcFile() && getSrcFile().exists());
 	}
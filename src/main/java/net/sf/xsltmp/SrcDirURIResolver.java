@@ -3,9 +3,6 @@ package net.sf.xsltmp;
 import java.io.File;
 import java.util.Map;
 
-import javax.xml.transform.Source;
-import javax.xml.transform.TransformerConfigurationException;
-
 import net.sf.xsltmp.util.DefaultURIResolver;
 import net.sf.xsltmp.util.UnArchiverHelper;
 
@@ -57,14 +54,18 @@ public class SrcDirURIResolver extends DefaultURIResolver {
 		return srcDir;
 	}
 
-	public Source resolve(String href, String base)
-			throws TransformerConfigurationException {
+	protected File resolveFile(String href, String base) {
 		if (getLog().isDebugEnabled())
 			getLog().debug("Resolving: " + href + " at srcDir: " + getSrcDir());
 		File result = new File(getSrcDir(), href);
 		if (exists(result))
-			return createSource(result);
-		return super.resolve(href, base);
+			return result;
+		return super.resolveFile(href, base);
+	}
+
+	public String getConfigurationKey() {
+		return "srcDir=" + getSrcDir().getAbsolutePath() + ", "
+				+ super.getConfigurationKey();
 	}
 
 }
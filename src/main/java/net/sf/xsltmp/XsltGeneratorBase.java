@@ -1,25 +1,47 @@
 package net.sf.xsltmp;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
 
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
 
 import net.sf.xsltmp.filter.Filter;
+import net.sf.xsltmp.filter.TranslatingFilter;
+import net.sf.xsltmp.util.BuildManifest;
+import net.sf.xsltmp.util.ChangedOnlyResult;
+import net.sf.xsltmp.util.ChecksumUtils;
 import net.sf.xsltmp.util.DefaultURIResolver;
+import net.sf.xsltmp.util.DocumentCache;
 import net.sf.xsltmp.util.EncodingUtils;
+import net.sf.xsltmp.util.PerformanceReport;
+import net.sf.xsltmp.util.SharedExtractCache;
+import net.sf.xsltmp.util.StatCache;
+import net.sf.xsltmp.util.TemplatesCache;
 import net.sf.xsltmp.util.TimestampUtils;
 import net.sf.xsltmp.util.UnArchiverHelper;
+import net.sf.xsltmp.util.XMLReaderPool;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.archiver.manager.ArchiverManager;
+import org.codehaus.plexus.util.StringUtils;
 
 /**
  * The base class for XSLT Generator. Based on Codehaus xslt-maven-plugin.
@@ -66,6 +88,25 @@ public abstract class XsltGeneratorBase extends AbstractMojo implements
 	 */
 	private boolean force;
 
+	/**
+	 * Decide which files have changed by their checksums instead of their
+	 * timestamps.
+	 * <p>
+	 * When set, each execution keeps a manifest with checksums of the
+	 * templates, the source files and the destination files it used. A source
+	 * file is skipped when neither the templates, the configuration, the
+	 * source file nor its destination files changed since the previous
+	 * execution. The timestamp of the last build (see the initialize and
+	 * finalize goals) is not used.
+	 * <p>
+	 * The checksums are computed by the worker threads, see the threads
+	 * parameter. Files with unchanged last modification time and length are
+	 * not read again.
+	 * 
+	 * @parameter expression="${xsltmp.checksums}" default-value="false"
+	 */
+	private boolean checksums;
+
 	/**
 	 * Read the source files (XSL templates and XML transformation sources)
 	 * using this encoding.
@@ -82,6 +123,21 @@ public abstract class XsltGeneratorBase extends AbstractMojo implements
 	 */
 	private String filter;
 
+	/**
+	 * Chain of filters to use on input files, applied in the listed order
+	 * after the filter given by the filter parameter.
+	 * <p>
+	 * Each filter is referred to either by the name of a
+	 * {@link net.sf.xsltmp.filter.StreamingFilter} discovered on the
+	 * classpath of the plugin, eg. <code>translate</code> for the
+	 * {@link net.sf.xsltmp.filter.TranslatingFilter}, or by the name of its
+	 * class implementing {@link Filter}. All the filters receive the filter
+	 * parameters.
+	 * 
+	 * @parameter
+	 */
+	private List filters;
+
 	/**
 	 * Map of parameters to be passed to the filter.
 	 * <p>
@@ -91,11 +147,161 @@ public abstract class XsltGeneratorBase extends AbstractMojo implements
 	 */
 	private Map filterParameters;
 
+	/**
+	 * Apply the filters also to the XML sources: to the source files of the
+	 * transformations and to the documents they load (eg. by the
+	 * <code>document()</code> function).
+	 * <p>
+	 * By default only the XSL templates are filtered. The sources are
+	 * filtered in front of the parser as they are read, in the source
+	 * encoding, the filtered content is neither stored nor kept in memory.
+	 * 
+	 * @parameter expression="${xsltmp.filterSources}" default-value="false"
+	 */
+	private boolean filterSources;
+
+	/**
+	 * Number of worker threads to perform the transformations.
+	 * <p>
+	 * The XSL template is compiled only once and each worker thread transforms
+	 * the source files with its own transformer created from it. The value of
+	 * 1 performs all the transformations in the build thread, the value of 0
+	 * uses one thread per available processor.
+	 * 
+	 * @parameter expression="${xsltmp.threads}" default-value="1"
+	 */
+	private int threads = 1;
+
+	/**
+	 * Cache the compiled XSL template in memory and share it with other
+	 * executions within the same Maven JVM.
+	 * <p>
+	 * The template is re-used by an execution which resolves it to the same
+	 * file with the same content, with the same source encoding, filter and
+	 * filter parameters. The template is compiled again when any of the
+	 * templates it includes or imports has changed.
+	 * 
+	 * @parameter expression="${xsltmp.templatesCache}" default-value="true"
+	 */
+	private boolean templatesCache = true;
+
+	/**
+	 * Features to set on the XML parsers reading the source files and the
+	 * XSL templates. Each property maps the URI of a SAX feature to true or
+	 * false, eg. name <code>http://xml.org/sax/features/validation</code> and
+	 * value <code>true</code>.
+	 * <p>
+	 * The parsers are namespace aware and re-used for subsequent files, each
+	 * worker thread uses its own parsers.
+	 * 
+	 * @parameter
+	 */
+	private Properties parserFeatures;
+
+	/**
+	 * Write the destination files only when their content changes.
+	 * <p>
+	 * When set, each destination file (including the files created by the
+	 * <code>xsl:result-document</code> command with Saxon) is first written to
+	 * a temporary file, which replaces the destination file only when their
+	 * contents differ. Unchanged destination files keep their last
+	 * modification time, so that they do not trigger further processing, eg.
+	 * compilation of generated sources.
+	 * 
+	 * @parameter expression="${xsltmp.writeChangedOnly}"
+	 *            default-value="false"
+	 */
+	private boolean writeChangedOnly;
+
+	/**
+	 * Read the templates and other files found on the classpath directly from
+	 * the archives, without extracting them.
+	 * <p>
+	 * When set, the files are read from the dependency archives as needed and
+	 * are given <code>jar:</code> URIs, so that the templates included or
+	 * imported by relative URIs are read from the same archive. A path is not
+	 * tried relative to the paths of the files found previously in the
+	 * archives, it must be the full path within the archive. Otherwise the
+	 * files are extracted to the build directory first.
+	 * 
+	 * @parameter expression="${xsltmp.readArchivesDirectly}"
+	 *            default-value="false"
+	 */
+	private boolean readArchivesDirectly;
+
+	/**
+	 * Directory of the files extracted from archives shared by builds, eg.
+	 * <code>${user.home}/.m2/xslt-generator-extracts</code>.
+	 * <p>
+	 * When set, the templates and other files found in the dependency JARs
+	 * are extracted to this directory instead of the build directory of each
+	 * module, by the checksum of the JAR. All the modules and builds using the
+	 * same JAR share the extracted files, a JAR changed under the same name is
+	 * extracted again.
+	 * 
+	 * @parameter expression="${xsltmp.sharedExtractDir}"
+	 */
+	private File sharedExtractDir;
+
+	/**
+	 * Patterns of the documents to keep parsed in memory for all the
+	 * transformations of the execution.
+	 * <p>
+	 * Specifies the documents loaded by the transformations (eg. by the
+	 * <code>document()</code> function) in the comma-separated list of
+	 * patterns of files, relative to the project base directory, eg.
+	 * <code>**&#47;codes.xml</code>. A document is parsed again when its file
+	 * changes. No documents are cached by default.
+	 * 
+	 * @parameter expression="${xsltmp.documentCacheIncludes}"
+	 */
+	private String documentCacheIncludes;
+
+	/**
+	 * Maximum size of the parsed documents kept in memory, in megabytes. The
+	 * least recently used documents are discarded first.
+	 * 
+	 * @parameter expression="${xsltmp.documentCacheSize}" default-value="64"
+	 */
+	private int documentCacheSize = 64;
+
+	/**
+	 * Write the performance report of the execution: a JSON file in
+	 * <code>target/xslt-generator-maven-plugin/reports</code> with the time
+	 * spent in the phases of the execution, the durations of the slowest
+	 * transformations, the hits and misses of the caches and the numbers of
+	 * bytes read and written.
+	 * <p>
+	 * Off by default.
+	 * 
+	 * @parameter expression="${xsltmp.report}" default-value="false"
+	 */
+	private boolean report = false;
+
+	/**
+	 * Number of the slowest transformations listed in the performance report.
+	 * 
+	 * @parameter expression="${xsltmp.reportSlowest}" default-value="10"
+	 */
+	private int reportSlowest = 10;
+
+	private Templates templates = null;
+	private List templateFiles = null;
 	private Transformer transformer = null;
 	private File xslFile = null;
 	protected DefaultURIResolver resolver = null;
 	private UnArchiverHelper helper = null;
 	private File timestamp = null;
+	private long timestampModified = -1;
+	private BuildManifest manifest = null;
+	private XMLReaderPool xmlReaderPool = null;
+	private PerformanceReport performanceReport = null;
+	private DocumentCache documentCache = null;
+	private String[] bundleLocales = null;
+	private boolean bundleLocalesParsed = false;
+	private final Map localeVariants = new HashMap();
+	private final StatCache statCache = new StatCache();
+	private final Map changedFiles = new HashMap();
 
 	// Standard getters and setters for the properties
 
@@ -141,6 +347,14 @@ public abstract class XsltGeneratorBase extends AbstractMojo implements
 		this.force = force;
 	}
 
+	public boolean getChecksums() {
+		return checksums;
+	}
+
+	public void setChecksums(boolean checksums) {
+		this.checksums = checksums;
+	}
+
 	public String getSourceEncoding() {
 		sourceEncoding = ENCODING_UTILS.defaultByPlatformEncoding(
 				sourceEncoding, getLog());
@@ -161,6 +375,36 @@ public abstract class XsltGeneratorBase extends AbstractMojo implements
 		this.filter = filter;
 	}
 
+	public List getFilters() {
+		return filters;
+	}
+
+	public void setFilters(List filters) {
+		this.filters = filters;
+	}
+
+	/**
+	 * Return the filter and the filters to apply, in their order.
+	 * 
+	 * @return Comma-separated names of the filters, null when not filtering
+	 */
+	public String getFilterChain() {
+		StringBuffer result = new StringBuffer();
+		if (null != getFilter())
+			result.append(getFilter().trim());
+		if (null != getFilters())
+			for (Iterator iterator = getFilters().iterator(); iterator
+					.hasNext();) {
+				String name = ((String) iterator.next()).trim();
+				if (name.length() == 0)
+					continue;
+				if (result.length() > 0)
+					result.append(',');
+				result.append(name);
+			}
+		return result.length() == 0 ? null : result.toString();
+	}
+
 	public Map getFilterParameters() {
 		return filterParameters;
 	}
@@ -169,31 +413,298 @@ public abstract class XsltGeneratorBase extends AbstractMojo implements
 		this.filterParameters = filterParameters;
 	}
 
+	public boolean getFilterSources() {
+		return filterSources;
+	}
+
+	public void setFilterSources(boolean filterSources) {
+		this.filterSources = filterSources;
+	}
+
+	/**
+	 * Are the sources read through the filters?
+	 * 
+	 * @return true iff filtering the sources by some filters
+	 */
+	protected boolean isFilteringSources() {
+		return getFilterSources() && null != getFilterChain();
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public boolean getTemplatesCache() {
+		return templatesCache;
+	}
+
+	public void setTemplatesCache(boolean templatesCache) {
+		this.templatesCache = templatesCache;
+	}
+
+	public boolean getWriteChangedOnly() {
+		return writeChangedOnly;
+	}
+
+	public void setWriteChangedOnly(boolean writeChangedOnly) {
+		this.writeChangedOnly = writeChangedOnly;
+	}
+
+	public boolean getReadArchivesDirectly() {
+		return readArchivesDirectly;
+	}
+
+	public void setReadArchivesDirectly(boolean readArchivesDirectly) {
+		this.readArchivesDirectly = readArchivesDirectly;
+	}
+
+	public File getSharedExtractDir() {
+		return sharedExtractDir;
+	}
+
+	public void setSharedExtractDir(File sharedExtractDir) {
+		this.sharedExtractDir = sharedExtractDir;
+	}
+
+	public String getDocumentCacheIncludes() {
+		return documentCacheIncludes;
+	}
+
+	public void setDocumentCacheIncludes(String documentCacheIncludes) {
+		this.documentCacheIncludes = documentCacheIncludes;
+	}
+
+	public int getDocumentCacheSize() {
+		return documentCacheSize;
+	}
+
+	public void setDocumentCacheSize(int documentCacheSize) {
+		this.documentCacheSize = documentCacheSize;
+	}
+
+	public boolean getReport() {
+		return report;
+	}
+
+	public void setReport(boolean report) {
+		this.report = report;
+	}
+
+	public int getReportSlowest() {
+		return reportSlowest;
+	}
+
+	public void setReportSlowest(int reportSlowest) {
+		this.reportSlowest = reportSlowest;
+	}
+
+	public Properties getParserFeatures() {
+		return parserFeatures;
+	}
+
+	public void setParserFeatures(Properties parserFeatures) {
+		this.parserFeatures = parserFeatures;
+	}
+
+	/**
+	 * The compiled XSL template.
+	 * <p>
+	 * Thread-safe, shared by all the transformers of the mojo. Compiled on the
+	 * first request.
+	 * 
+	 * @return Templates
+	 * @throws MojoFailureException
+	 */
+	public synchronized Templates getTemplates() throws MojoFailureException {
+		if (null == templates)
+			createTemplates();
+		return templates;
+	}
+
 	public Transformer getTransformer() throws MojoFailureException {
 		if (null == transformer)
-			createTransformer();
+			transformer = newTransformer();
 		return transformer;
 	}
 
 	public DefaultURIResolver getResolver() {
-		if (null == resolver) {
-			if (getLog().isDebugEnabled())
-				getLog().debug(
-						"Setting up DefaultURIResolver: sourceEncoding="
-								+ getSourceEncoding() + ", filter="
-								+ getFilter() + ", filterParameters="
-								+ getFilterParameters());
-			resolver = new DefaultURIResolver(getLog(), getProject(),
-					getHelper(), getSourceEncoding(), getFilter(),
-					getFilterParameters());
-		}
+		if (null == resolver)
+			resolver = createResolver(getFilterParameters());
 		return resolver;
 	}
 
+	/**
+	 * Create a resolver filtering with the given filter parameters.
+	 * 
+	 * @param filterParameters
+	 *            The filter parameters
+	 * @return DefaultURIResolver
+	 */
+	protected DefaultURIResolver createResolver(Map filterParameters) {
+		if (getLog().isDebugEnabled())
+			getLog().debug(
+					"Setting up DefaultURIResolver: sourceEncoding="
+							+ getSourceEncoding() + ", filter="
+							+ getFilterChain() + ", filterParameters="
+							+ filterParameters);
+		DefaultURIResolver result = new DefaultURIResolver(getLog(),
+				getProject(), getHelper(), getSourceEncoding(),
+				getFilterChain(), filterParameters);
+		setUpResolver(result);
+		return result;
+	}
+
+	/**
+	 * Set up the parsing of the documents by a newly created resolver.
+	 * 
+	 * @param resolver
+	 *            The resolver
+	 */
+	protected void setUpResolver(DefaultURIResolver resolver) {
+		resolver.setXMLReaderPool(getXMLReaderPool());
+		resolver.setReport(getPerformanceReport());
+		resolver.setFilterSources(isFilteringSources());
+		// documents filtered by different filter parameters are not shared
+		resolver.setDocumentCache(isFilteringSources() ? newDocumentCache()
+				: getDocumentCache());
+	}
+
+	/**
+	 * The cache of the documents of this execution, shared by its resolvers.
+	 * 
+	 * @return DocumentCache, null when no documents are cached
+	 */
+	protected synchronized DocumentCache getDocumentCache() {
+		if (null == documentCache)
+			documentCache = newDocumentCache();
+		return documentCache;
+	}
+
+	private DocumentCache newDocumentCache() {
+		if (null == getDocumentCacheIncludes())
+			return null;
+		if (getLog().isDebugEnabled())
+			getLog().debug(
+					"Setting up document cache: documentCacheIncludes="
+							+ getDocumentCacheIncludes()
+							+ ", documentCacheSize=" + getDocumentCacheSize());
+		return new DocumentCache(getLog(), getProject().getBasedir(),
+				getDocumentCacheIncludes(),
+				getDocumentCacheSize() * 1024L * 1024L);
+	}
+
+	/**
+	 * Create the source of a transformation, read through the filters of the
+	 * resolver when filtering the sources.
+	 * 
+	 * @param resolver
+	 *            The resolver filtering the source
+	 * @param srcFile
+	 *            The source file
+	 * @return Source
+	 * @throws TransformerConfigurationException
+	 */
+	protected Source createSource(DefaultURIResolver resolver, File srcFile)
+			throws TransformerConfigurationException {
+		if (isFilteringSources())
+			return resolver.createFilteredSource(srcFile);
+		getPerformanceReport().addBytesRead(srcFile.length());
+		return getXMLReaderPool().createSource(srcFile);
+	}
+
+	/**
+	 * The locales to translate the templates to, listed by the
+	 * <code>bundleLocales</code> filter parameter of the
+	 * {@link TranslatingFilter}.
+	 * <p>
+	 * The template is then compiled once for each locale and each source file
+	 * is transformed by all of them into the destination files of the
+	 * locales.
+	 * 
+	 * @return The locales, null when not translating to multiple locales
+	 * @see #getLocaleVariant(String)
+	 */
+	public synchronized String[] getBundleLocales() {
+		if (!bundleLocalesParsed) {
+			bundleLocales = TranslatingFilter
+					.getBundleLocales(getFilterParameters());
+			bundleLocalesParsed = true;
+		}
+		return bundleLocales;
+	}
+
+	/**
+	 * The variant of this execution translating to a locale.
+	 * 
+	 * @param locale
+	 *            One of the locales to translate to
+	 * @return LocaleVariant
+	 * @see #getBundleLocales()
+	 */
+	public synchronized LocaleVariant getLocaleVariant(String locale) {
+		LocaleVariant variant = (LocaleVariant) localeVariants.get(locale);
+		if (null == variant) {
+			variant = new LocaleVariant(locale);
+			localeVariants.put(locale, variant);
+		}
+		return variant;
+	}
+
+	/**
+	 * Return the file of a locale translated to: the file placed in the
+	 * subdirectory of the locale within the given directory.
+	 * 
+	 * @param dir
+	 *            The directory containing the file
+	 * @param file
+	 *            The file
+	 * @param locale
+	 *            The locale
+	 * @return File
+	 */
+	protected File getLocaleFile(File dir, File file, String locale) {
+		String dirPath = dir.getAbsolutePath() + File.separator;
+		String filePath = file.getAbsolutePath();
+		if (!filePath.startsWith(dirPath))
+			return new File(new File(file.getParentFile(), locale), file
+					.getName());
+		return new File(new File(dir, locale), filePath.substring(dirPath
+				.length()));
+	}
+
+	/**
+	 * The pool of XML parsers of this execution.
+	 * 
+	 * @return XMLReaderPool
+	 */
+	public synchronized XMLReaderPool getXMLReaderPool() {
+		if (null == xmlReaderPool)
+			xmlReaderPool = new XMLReaderPool(getLog(), getParserFeatures());
+		return xmlReaderPool;
+	}
+
+	/**
+	 * The attributes of the source files found when scanning them.
+	 * 
+	 * @return StatCache
+	 */
+	public StatCache getStatCache() {
+		return statCache;
+	}
+
 	public UnArchiverHelper getHelper() {
 		if (null == helper) {
 			helper = new UnArchiverHelper(getLog(), getProject(),
 					getArchiverManager(), EXTRACTS_DIR);
+			helper.setReadDirectly(getReadArchivesDirectly());
+			helper.setReport(getPerformanceReport());
+			if (null != getSharedExtractDir())
+				helper.setSharedExtractCache(new SharedExtractCache(getLog(),
+						getSharedExtractDir(), helper.getArchiveReader()));
 		}
 		return helper;
 	}
@@ -217,36 +728,275 @@ public abstract class XsltGeneratorBase extends AbstractMojo implements
 		return timestamp;
 	}
 
+	/**
+	 * The last modification time of the timestamp file, queried once per
+	 * execution.
+	 * 
+	 * @return long
+	 */
+	protected synchronized long getTimestampModified() {
+		if (timestampModified < 0)
+			timestampModified = getTimestamp().lastModified();
+		return timestampModified;
+	}
+
+	/**
+	 * The manifest of this execution.
+	 * <p>
+	 * Loaded with the records of the previous run of the same execution, ie.
+	 * of an execution with the same key.
+	 * 
+	 * @return BuildManifest
+	 * @see #getExecutionKey()
+	 */
+	public BuildManifest getManifest() {
+		if (null == manifest) {
+			File manifestsDir = new File(getProject().getBuild()
+					.getDirectory(), MANIFESTS_DIR);
+			File file = new File(manifestsDir, getMojoName() + "-"
+					+ CHECKSUM_UTILS.checksum(getExecutionKey())
+					+ ".properties");
+			manifest = new BuildManifest(getLog(), file, getProject()
+					.getBasedir(), getChecksums());
+			manifest.load();
+		}
+		return manifest;
+	}
+
+	/**
+	 * The performance report of this execution, collected during the
+	 * execution.
+	 * 
+	 * @return PerformanceReport
+	 * @see #writePerformanceReport()
+	 */
+	public synchronized PerformanceReport getPerformanceReport() {
+		if (null == performanceReport)
+			performanceReport = new PerformanceReport(getReportSlowest());
+		return performanceReport;
+	}
+
+	/**
+	 * Write the performance report of this execution, when enabled.
+	 * <p>
+	 * The report is stored under the key of the execution with the paths
+	 * relative to the base directory of the project, so that the same
+	 * execution is reported under the same name and key on any checkout of
+	 * the project. It replaces the report of the previous run.
+	 */
+	protected void writePerformanceReport() {
+		if (!getReport())
+			return;
+		String executionKey = relativize(getExecutionKey());
+		File file = new File(new File(getProject().getBuild().getDirectory(),
+				REPORTS_DIR), getMojoName() + "-"
+				+ CHECKSUM_UTILS.checksum(executionKey) + ".json");
+		Map header = new LinkedHashMap();
+		header.put("groupId", getProject().getGroupId());
+		header.put("artifactId", getProject().getArtifactId());
+		header.put("version", getProject().getVersion());
+		header.put("goal", getMojoName());
+		header.put("executionKey", executionKey);
+		header.put("threads", new Integer(getThreads()));
+		try {
+			getPerformanceReport().write(file, header);
+			if (getLog().isDebugEnabled())
+				getLog().debug("Performance report written to " + file);
+		} catch (IOException ioe) {
+			getLog().warn("Cannot write performance report " + file, ioe);
+		}
+	}
+
 	// Helper methods for descendants
 
 	/**
-	 * Create and configure a transformer.
+	 * Replace the absolute paths within the base directory of the project by
+	 * paths relative to it, separated by <code>'/'</code>.
 	 * 
-	 * @throws TransformerConfigurationException
+	 * @param value
+	 *            A path or a text containing paths, eg. the key of the
+	 *            execution
+	 * @return The value with the relative paths
+	 */
+	protected String relativize(String value) {
+		File basedir = getProject().getBasedir();
+		if (null == basedir || null == value)
+			return value;
+		String path = basedir.getAbsolutePath();
+		String result = StringUtils.replace(value, path + File.separator, "");
+		// the base directory itself, not a path sharing its prefix
+		result = result.replaceAll(Pattern.quote(path) + "(?=,|$)", ".");
+		return result.replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Create a new transformer from the compiled XSL template and apply the
+	 * parameters to it.
+	 * <p>
+	 * A transformer must not be used by multiple threads at the same time,
+	 * each worker thread has to create its own.
+	 * 
+	 * @return Transformer
 	 * @throws MojoFailureException
 	 */
-	private void createTransformer() throws MojoFailureException {
+	public Transformer newTransformer() throws MojoFailureException {
+		return newTransformer(getTemplates(), getResolver());
+	}
+
+	private Transformer newTransformer(Templates templates,
+			DefaultURIResolver resolver) throws MojoFailureException {
 		getLog().debug("Creating transformer.");
+		Transformer result;
+		try {
+			result = templates.newTransformer();
+		} catch (TransformerConfigurationException tce) {
+			tce.printStackTrace();
+			throw new MojoFailureException("Cannot process template file: "
+					+ getXslTemplate(), tce);
+		}
+		result.setURIResolver(resolver);
+		applyParameters(result);
+		return result;
+	}
+
+	/**
+	 * Return the result of the transformation into the given destination file.
+	 * <p>
+	 * It has to be passed to {@link #commitResult(Result)} after the
+	 * transformation, or to {@link #discardResult(Result)} when the
+	 * transformation fails.
+	 * 
+	 * @param destFile
+	 * @return Result
+	 * @throws IOException
+	 * @see #getWriteChangedOnly()
+	 */
+	protected Result createResult(File destFile) throws IOException {
+		if (getWriteChangedOnly())
+			return new ChangedOnlyResult(getLog(), destFile);
+		return new StreamResult(destFile);
+	}
+
+	/**
+	 * Finish writing a result of a transformation.
+	 * 
+	 * @param result
+	 *            Result created by {@link #createResult(File)}
+	 * @throws IOException
+	 */
+	protected void commitResult(Result result) throws IOException {
+		if (result instanceof ChangedOnlyResult)
+			((ChangedOnlyResult) result).commit();
+	}
+
+	/**
+	 * Abandon a result of a failed transformation.
+	 * 
+	 * @param result
+	 *            Result created by {@link #createResult(File)}
+	 */
+	protected void discardResult(Result result) {
+		if (result instanceof ChangedOnlyResult)
+			((ChangedOnlyResult) result).discard();
+	}
+
+	/**
+	 * Compile the XSL template, or take it from the templates cache.
+	 * 
+	 * @throws MojoFailureException
+	 */
+	private void createTemplates() throws MojoFailureException {
+		templates = compileTemplates(getResolver());
+	}
+
+	/**
+	 * Compile the XSL template using a resolver, or take it from the templates
+	 * cache. The files of the template are added to the template files of
+	 * this execution.
+	 * 
+	 * @param resolver
+	 *            The resolver
+	 * @return Templates
+	 * @throws MojoFailureException
+	 */
+	private Templates compileTemplates(DefaultURIResolver resolver)
+			throws MojoFailureException {
+		String key = null;
+		if (getTemplatesCache()) {
+			key = getTemplatesKey(resolver);
+			Templates result = TEMPLATES_CACHE.get(key);
+			getPerformanceReport().count(
+					null != result ? "templatesCache.hits"
+							: "templatesCache.misses");
+			if (null != result) {
+				getLog().debug("Using cached template.");
+				addTemplateFiles(TEMPLATES_CACHE.getFiles(key));
+				return result;
+			}
+		}
+		getLog().debug("Compiling template.");
 		TransformerFactory factory = TransformerFactory.newInstance();
-		factory.setURIResolver(getResolver());
+		factory.setURIResolver(resolver);
+		resolver.startRecording();
+		Templates result = null;
+		long start = System.nanoTime();
 		try {
-			transformer = factory.newTransformer(getResolver().resolveAsSource(
-					getXslTemplate()));
+			result = factory.newTemplates(resolver
+					.resolveAsSource(getXslTemplate()));
 		} catch (TransformerConfigurationException tce) {
 			tce.printStackTrace();
 			throw new MojoFailureException("Cannot process template file: "
 					+ getXslTemplate(), tce);
+		} finally {
+			getPerformanceReport().addTime(PerformanceReport.COMPILE, start);
+			List files = resolver.stopRecording();
+			addTemplateFiles(files);
+			if (null != result && null != key)
+				TEMPLATES_CACHE.put(key, result, files);
 		}
-		applyParameters();
+		return result;
 	}
 
+	private synchronized void addTemplateFiles(List files) {
+		if (null == templateFiles)
+			templateFiles = new ArrayList();
+		for (Iterator iterator = files.iterator(); iterator.hasNext();) {
+			Object file = iterator.next();
+			if (!templateFiles.contains(file))
+				templateFiles.add(file);
+		}
+	}
+
+	private static final TemplatesCache TEMPLATES_CACHE = new TemplatesCache();
+
+	protected static final ChecksumUtils CHECKSUM_UTILS = new ChecksumUtils();
+
 	/**
-	 * Apply parameters to the transformer.
+	 * Compose the key of the XSL template in the templates cache.
 	 * 
-	 * @throws TransformerConfigurationException
+	 * @return String
 	 * @throws MojoFailureException
 	 */
-	private void applyParameters() throws MojoFailureException {
+	private String getTemplatesKey(DefaultURIResolver resolver)
+			throws MojoFailureException {
+		try {
+			return getXslFile().getCanonicalPath() + ", checksum="
+					+ CHECKSUM_UTILS.checksum(getXslFile()) + ", "
+					+ resolver.getConfigurationKey();
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			throw new MojoFailureException("Cannot read template file: "
+					+ getXslFile(), ioe);
+		}
+	}
+
+	/**
+	 * Apply parameters to a transformer.
+	 * 
+	 * @param transformer
+	 *            The transformer to apply the parameters to
+	 */
+	private void applyParameters(Transformer transformer) {
 		getLog().debug("Applying parameters.");
 		if (getParameters() != null) {
 			Set keys = getParameters().keySet();
@@ -256,7 +1006,7 @@ public abstract class XsltGeneratorBase extends AbstractMojo implements
 					getLog().debug(
 							"Setting parameter: key=" + key + " value="
 									+ getParameters().get(key));
-				getTransformer().setParameter(key, getParameters().get(key));
+				transformer.setParameter(key, getParameters().get(key));
 			}
 			if (getParameters().isEmpty())
 				getLog().debug("No parameters to set.");
@@ -280,6 +1030,10 @@ public abstract class XsltGeneratorBase extends AbstractMojo implements
 	/**
 	 * Has the file changed from the last run of Maven build or is re-generation
 	 * forced?
+	 * <p>
+	 * When using checksums, the file has changed iff its checksum differs from
+	 * the one recorded in the manifest. A file that no longer exists has
+	 * changed, eg. a deleted dependency or included template.
 	 * 
 	 * @param file
 	 * @return true iff the file has changed from last Maven build or
@@ -288,7 +1042,176 @@ public abstract class XsltGeneratorBase extends AbstractMojo implements
 	protected boolean hasChanged(File file) {
 		if (getForce())
 			return true;
-		return file.lastModified() > getTimestamp().lastModified();
+		if (getChecksums())
+			return getManifest().hasChanged(file);
+		long lastModified = getStatCache().lastModified(file);
+		// a missing file has no modification time
+		if (0 == lastModified && !file.exists())
+			return true;
+		return lastModified > getTimestampModified();
+	}
+
+	/**
+	 * Has any of the files changed from the last run of Maven build or is
+	 * re-generation forced?
+	 * <p>
+	 * The result for each file is remembered for the rest of the execution,
+	 * the files are typically shared by many source files.
+	 * 
+	 * @param files
+	 *            List of Files
+	 * @return true iff any of the files has changed
+	 * @see #hasChanged(File)
+	 */
+	protected boolean haveChanged(List files) {
+		for (Iterator iterator = files.iterator(); iterator.hasNext();) {
+			File file = (File) iterator.next();
+			Boolean changed = (Boolean) changedFiles.get(file);
+			if (null == changed) {
+				changed = Boolean.valueOf(hasChanged(file));
+				changedFiles.put(file, changed);
+			}
+			if (changed.booleanValue()) {
+				if (getLog().isDebugEnabled())
+					getLog().debug("Changed: " + file);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Has the XSL template changed from the last run of Maven build or is
+	 * re-generation forced?
+	 * <p>
+	 * The template has changed when the template itself or any of the
+	 * templates it included or imported in the previous execution changed.
+	 * When using checksums, also a change of the configuration of the
+	 * execution is considered a change of the template.
+	 * 
+	 * @return boolean
+	 */
+	protected boolean hasTemplateChanged() {
+		if (hasChanged(getXslFile()))
+			return true;
+		if (getChecksums()
+				&& getManifest().isConfigurationChanged(getConfiguration()))
+			return true;
+		return haveChanged(getManifest().getTemplateFiles());
+	}
+
+	/**
+	 * Store the manifest of this execution.
+	 * <p>
+	 * Records the template files and the configuration, the source files are
+	 * recorded by the descendants.
+	 */
+	protected void saveManifest() {
+		if (null != templateFiles)
+			getManifest().recordTemplateFiles(templateFiles);
+		else
+			getManifest().keepTemplateFiles();
+		getManifest().setConfiguration(getConfiguration());
+		try {
+			getManifest().save();
+		} catch (IOException ioe) {
+			getLog().warn(
+					"Cannot store build manifest " + getManifest().getFile()
+							+ ": " + ioe);
+		}
+	}
+
+	/**
+	 * Return the key of the execution.
+	 * <p>
+	 * Identifies the execution among all the executions of the plugin in the
+	 * project, the manifest of the execution is stored under this key.
+	 * Descendants should add all the parameters determining which files are
+	 * read and written.
+	 * 
+	 * @return String
+	 */
+	protected String getExecutionKey() {
+		return "xslTemplate=" + getXslTemplate();
+	}
+
+	/**
+	 * Return the configuration of the execution influencing the content of
+	 * the destination files, apart from the content of the templates and the
+	 * source files.
+	 * 
+	 * @return String
+	 */
+	private String getConfiguration() {
+		return "parameters=" + getConfigurationParameters() + ", "
+				+ getResolver().getConfigurationKey();
+	}
+
+	/**
+	 * Return the parameters of the template that form part of the
+	 * configuration of the execution.
+	 * 
+	 * @return Map
+	 */
+	protected Map getConfigurationParameters() {
+		return new TreeMap(getParameters());
+	}
+
+	/**
+	 * The variant of the execution translating to a locale.
+	 * <p>
+	 * Has its own resolver, filtering the templates with the filter
+	 * parameters of the locale, and its own compiled template. The other
+	 * resources of the execution are shared.
+	 */
+	public class LocaleVariant {
+
+		private final String locale;
+		private DefaultURIResolver resolver;
+		private Templates templates;
+
+		private LocaleVariant(String locale) {
+			this.locale = locale;
+		}
+
+		public String getLocale() {
+			return locale;
+		}
+
+		public synchronized DefaultURIResolver getResolver() {
+			if (null == resolver) {
+				resolver = createResolver(TranslatingFilter
+						.getLocaleParameters(getFilterParameters(), locale));
+				resolver.setFilteredContentSubdir(locale);
+			}
+			return resolver;
+		}
+
+		/**
+		 * The XSL template compiled for the locale.
+		 * 
+		 * @return Templates
+		 * @throws MojoFailureException
+		 */
+		public synchronized Templates getTemplates()
+				throws MojoFailureException {
+			if (null == templates)
+				templates = compileTemplates(getResolver());
+			return templates;
+		}
+
+		/**
+		 * Create a new transformer from the XSL template compiled for the
+		 * locale.
+		 * 
+		 * @return Transformer
+		 * @throws MojoFailureException
+		 */
+		public Transformer newTransformer() throws MojoFailureException {
+			return XsltGeneratorBase.this.newTransformer(getTemplates(),
+					getResolver());
+		}
+
 	}
 
 	// Abstract methods to be implemented by concrete descendants
@@ -5,6 +5,11 @@ public interface XsltGeneratorConstants {
 	static final String BASE_DIR = "xslt-generator-maven-plugin";
 	static final String EXTRACTS_DIR = BASE_DIR + "/extracts";
 	static final String FILTERED_DIR = BASE_DIR + "/filtered";
+	static final String MANIFESTS_DIR = BASE_DIR + "/manifests";
+	static final String COLLECTIONS_DIR = BASE_DIR + "/collections";
+	static final String SNAPSHOTS_DIR = BASE_DIR + "/snapshots";
+	static final String BUNDLES_DIR = BASE_DIR + "/bundles";
+	static final String REPORTS_DIR = BASE_DIR + "/reports";
 	static final String DEFAULT_DEST_DIR = "generated-xml/xslt-generator-maven-plugin";
 	static final String DEFAULT_EMPTY_FILENAME = "empty.xml";
 	static final String DEFAULT_EMPTY_FILE_CONTENTS = "<root/>";
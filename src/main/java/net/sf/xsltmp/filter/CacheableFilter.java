@@ -0,0 +1,22 @@
+package net.sf.xsltmp.filter;
+
+/**
+ * Filter whose output can be cached.
+ * <p>
+ * The output of the filter must depend only on its input and on the
+ * configuration and the resources of the filter identified by the cache key.
+ */
+public interface CacheableFilter extends Filter {
+
+	/**
+	 * Return a key identifying the configuration and the resources of the
+	 * filter, eg. a checksum of the loaded resource bundles.
+	 * <p>
+	 * Called after initialization. The cached outputs of the filter are
+	 * discarded when the key changes.
+	 * 
+	 * @return String
+	 */
+	String getCacheKey();
+
+}
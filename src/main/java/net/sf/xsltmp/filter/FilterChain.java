@@ -0,0 +1,94 @@
+package net.sf.xsltmp.filter;
+
+import java.io.Reader;
+import java.util.Map;
+
+import net.sf.xsltmp.util.FileResolver;
+
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Ordered chain of filters, each filtering the output of the previous one.
+ * <p>
+ * The filters are initialized by the creator of the chain. The output of a
+ * {@link StreamingFilter} is read by the next filter while it is produced.
+ */
+public class FilterChain implements StreamingFilter {
+
+	private final Filter[] filters;
+
+	/**
+	 * Create filter chain.
+	 * 
+	 * @param filters
+	 *            The initialized filters, in the order of filtering
+	 */
+	public FilterChain(Filter[] filters) {
+		this.filters = filters;
+	}
+
+	public Filter[] getFilters() {
+		return filters;
+	}
+
+	public String getName() {
+		StringBuffer result = new StringBuffer();
+		for (int i = 0; i < filters.length; i++) {
+			if (i > 0)
+				result.append(',');
+			if (filters[i] instanceof StreamingFilter)
+				result.append(((StreamingFilter) filters[i]).getName());
+			else
+				result.append(filters[i].getClass().getName());
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Is each of the filters thread-safe?
+	 */
+	public boolean isThreadSafe() {
+		for (int i = 0; i < filters.length; i++)
+			if (!(filters[i] instanceof StreamingFilter)
+					|| !((StreamingFilter) filters[i]).isThreadSafe())
+				return false;
+		return true;
+	}
+
+	/**
+	 * Return the types and the cache keys of the filters, in their order.
+	 */
+	public String getCacheKey() {
+		StringBuffer result = new StringBuffer();
+		for (int i = 0; i < filters.length; i++) {
+			if (i > 0)
+				result.append(", ");
+			result.append('[').append(filters[i].getClass().getName());
+			if (filters[i] instanceof CacheableFilter)
+				result.append(": ").append(
+						((CacheableFilter) filters[i]).getCacheKey());
+			result.append(']');
+		}
+		return result.toString();
+	}
+
+	public void setMavenProject(MavenProject project) {
+	}
+
+	public void setFileResolver(FileResolver fileResolver) {
+	}
+
+	public void setFilterParameters(Map filterParameters) {
+	}
+
+	public void init() {
+	}
+
+	public Reader filter(Reader reader, String name) throws Exception {
+		Reader result = reader;
+		for (int i = 0; i < filters.length; i++)
+			result = filters[i].filter(result, name);
+		return result;
+	}
+
+}
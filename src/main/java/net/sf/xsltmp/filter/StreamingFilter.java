@@ -0,0 +1,36 @@
+package net.sf.xsltmp.filter;
+
+/**
+ * Filter that can be chained with other filters, see {@link FilterChain}.
+ * <p>
+ * The Reader returned by {@link #filter(java.io.Reader, String)} must filter
+ * the input while it is read, without reading the whole input first, so that
+ * a chain of filters keeps no full copy of the input per filter.
+ * <p>
+ * The filters found on the classpath of the plugin are discovered by the
+ * {@link java.util.ServiceLoader}: list the implementation class in the
+ * <code>META-INF/services/net.sf.xsltmp.filter.StreamingFilter</code> file
+ * and refer to the filter by its name in the configuration.
+ */
+public interface StreamingFilter extends CacheableFilter {
+
+	/**
+	 * Return the name of the filter, by which it is referred to in the
+	 * configuration, eg. <code>translate</code>.
+	 * 
+	 * @return String
+	 */
+	String getName();
+
+	/**
+	 * Can the filter filter multiple inputs at the same time, by multiple
+	 * threads?
+	 * <p>
+	 * The inputs are passed to a filter which is not thread-safe one after
+	 * another.
+	 * 
+	 * @return boolean
+	 */
+	boolean isThreadSafe();
+
+}
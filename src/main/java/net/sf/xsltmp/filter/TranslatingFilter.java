@@ -2,24 +2,36 @@ package net.sf.xsltmp.filter;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
 
 import net.sf.xsltmp.util.BundleLoader;
+import net.sf.xsltmp.util.ChecksumUtils;
 import net.sf.xsltmp.util.EncodingUtils;
 import net.sf.xsltmp.util.FileResolver;
-import net.sf.xsltmp.util.StreamTranslator;
+import net.sf.xsltmp.util.TranslatingReader;
 
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.StringUtils;
 
 /**
  * Filter that performs translation of input files.
  * <p>
  * Adapted from Apache Ant translate task.
  */
-public class TranslatingFilter implements Filter {
+public class TranslatingFilter implements StreamingFilter {
+
+	/**
+	 * Name of the filter parameter listing the locales to translate to.
+	 * 
+	 * @see #getBundleLocales(Map)
+	 */
+	public static final String BUNDLE_LOCALES = "bundleLocales";
 
 	/**
 	 * Starting token to identify keys.
@@ -117,11 +129,83 @@ public class TranslatingFilter implements Filter {
 				bundleEncoding, fileResolver, resourceMap).loadBundle();
 	}
 
+	public String getName() {
+		return "translate";
+	}
+
+	/**
+	 * The resources are not modified after initialization and each input is
+	 * translated by its own reader.
+	 */
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	/**
+	 * Return the tokens and the checksum of the loaded resources, so that the
+	 * cached translations are discarded when any bundle file changes.
+	 */
+	public String getCacheKey() {
+		return "startToken=" + startToken + ", endToken=" + endToken
+				+ ", resources="
+				+ new ChecksumUtils().checksum(new TreeMap(resourceMap).toString());
+	}
+
+	/**
+	 * Return the locales listed by the bundleLocales filter parameter.
+	 * <p>
+	 * The locales are separated by commas, each locale is a language,
+	 * optionally followed by a country and a variant separated by
+	 * underscores, eg. <code>en, de_AT, fr_CA</code>.
+	 * 
+	 * @param filterParameters
+	 *            The filter parameters
+	 * @return The locales in the listed order, null when not listed
+	 */
+	public static String[] getBundleLocales(Map filterParameters) {
+		if (null == filterParameters
+				|| null == filterParameters.get(BUNDLE_LOCALES))
+			return null;
+		String[] locales = StringUtils.split((String) filterParameters
+				.get(BUNDLE_LOCALES), ",");
+		List result = new ArrayList();
+		for (int i = 0; i < locales.length; i++) {
+			String locale = locales[i].trim();
+			if (locale.length() > 0 && !result.contains(locale))
+				result.add(locale);
+		}
+		if (result.isEmpty())
+			return null;
+		return (String[]) result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * Return the filter parameters translating to one of the locales.
+	 * <p>
+	 * The bundleLocales parameter is replaced by the bundleLanguage,
+	 * bundleCountry and bundleVariant parameters of the locale.
+	 * 
+	 * @param filterParameters
+	 *            The filter parameters listing the locales
+	 * @param locale
+	 *            The locale, eg. <code>de_AT</code>
+	 * @return Map
+	 */
+	public static Map getLocaleParameters(Map filterParameters, String locale) {
+		Map result = new HashMap(filterParameters);
+		result.remove(BUNDLE_LOCALES);
+		String[] parts = locale.split("_", 3);
+		result.put("bundleLanguage", parts[0]);
+		result.put("bundleCountry", parts.length > 1 ? parts[1] : "");
+		result.put("bundleVariant", parts.length > 2 ? parts[2] : "");
+		return result;
+	}
+
 	public Reader filter(Reader reader, String name) throws IOException {
 		if (log.isDebugEnabled())
 			log.debug("Filtering file: " + name);
-		return new StreamTranslator(startToken, endToken, resourceMap, log)
-				.translate(reader);
+		return new TranslatingReader(reader, startToken, endToken,
+				resourceMap, log);
 	}
 
 }
@@ -0,0 +1,109 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+/**
+ * A file within an archive, read directly from the archive.
+ * <p>
+ * Has the path the file would be extracted to, but is not extracted. Exists
+ * as long as the archive contains it, has the last modification time of the
+ * archive. Its URI is a <code>jar:</code> URI of the entry within the
+ * archive, so that relative URIs are resolved within the archive.
+ */
+public class ArchiveEntryFile extends File {
+
+	private static final long serialVersionUID = 1L;
+
+	private final transient ArchiveReader reader;
+	private final File archive;
+	private final String entryName;
+	private final long size;
+
+	/**
+	 * Create archive entry file.
+	 *
+	 * @param reader
+	 *            The reader of the archive
+	 * @param extractDir
+	 *            The directory the archive would be extracted to
+	 * @param archive
+	 *            The archive
+	 * @param entryName
+	 *            The name of the entry within the archive
+	 * @param size
+	 *            The size of the entry, -1 when unknown
+	 */
+	public ArchiveEntryFile(ArchiveReader reader, File extractDir,
+			File archive, String entryName, long size) {
+		super(extractDir, entryName);
+		this.reader = reader;
+		this.archive = archive;
+		this.entryName = entryName;
+		this.size = size;
+	}
+
+	public File getArchive() {
+		return archive;
+	}
+
+	public String getEntryName() {
+		return entryName;
+	}
+
+	/**
+	 * Open the entry for reading.
+	 *
+	 * @return InputStream
+	 * @throws IOException
+	 */
+	public InputStream openStream() throws IOException {
+		return reader.openStream(this);
+	}
+
+	/**
+	 * Open a file for reading, reading archive entry files from their archives.
+	 *
+	 * @param file
+	 *            The file
+	 * @return InputStream
+	 * @throws IOException
+	 */
+	public static InputStream open(File file) throws IOException {
+		if (file instanceof ArchiveEntryFile)
+			return ((ArchiveEntryFile) file).openStream();
+		return new FileInputStream(file);
+	}
+
+	public boolean exists() {
+		if (null == reader)
+			return archive.isFile();
+		return reader.contains(archive, entryName);
+	}
+
+	public boolean isFile() {
+		return exists();
+	}
+
+	public boolean isDirectory() {
+		return false;
+	}
+
+	public long lastModified() {
+		return archive.lastModified();
+	}
+
+	public long length() {
+		return size < 0 ? 0 : size;
+	}
+
+	public URI toURI() {
+		return URI.create(ArchiveReader.JAR_PREFIX + archive.toURI()
+				+ ArchiveReader.ENTRY_SEPARATOR
+				+ ArchiveReader.encode(entryName));
+	}
+
+}
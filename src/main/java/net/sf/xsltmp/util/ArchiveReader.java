@@ -0,0 +1,326 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Reads files directly from archives, without extracting them.
+ * <p>
+ * The files are represented by {@link ArchiveEntryFile}s with
+ * <code>jar:</code> URIs, see {@link #resolve(String, String)} for resolving
+ * relative URIs within an archive.
+ * <p>
+ * The opened archives are kept open and shared by all executions of the
+ * plugin within a single JVM, an archive is opened again when its last
+ * modification time or its length changes. At most {@link #MAX_ARCHIVES} are
+ * kept open, the least recently used ones are closed first.
+ * <p>
+ * An archive in use, eg. by a stream not closed yet, is counted by
+ * {@link #acquire(File)} and {@link #release(OpenArchive)}. When it is
+ * replaced in the open archives, it is only closed by its last release, so
+ * that the other threads can finish reading from it.
+ * <p>
+ * Thread-safe.
+ */
+public class ArchiveReader {
+
+	public static final String JAR_PREFIX = "jar:";
+	public static final String ENTRY_SEPARATOR = "!/";
+	public static final int MAX_ARCHIVES = 64;
+
+	private static final Map ARCHIVES = new LinkedHashMap(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			if (size() <= MAX_ARCHIVES)
+				return false;
+			((OpenArchive) eldest.getValue()).retire();
+			return true;
+		}
+	};
+
+	/**
+	 * Maven log.
+	 */
+	private final Log log;
+
+	/**
+	 * The directory of the repository of extracted files.
+	 */
+	private final File commonExtractDir;
+
+	/**
+	 * Create archive reader.
+	 *
+	 * @param log
+	 *            Maven log
+	 * @param commonExtractDir
+	 *            The directory of the repository of extracted files, to derive
+	 *            the paths of the archive entry files
+	 */
+	public ArchiveReader(Log log, File commonExtractDir) {
+		this.log = log;
+		this.commonExtractDir = commonExtractDir;
+	}
+
+	/**
+	 * Get a file from an archive.
+	 *
+	 * @param archive
+	 *            The archive file
+	 * @param filePath
+	 *            Relative path to the file within the archive
+	 * @return The archive entry file, null when not in the archive
+	 */
+	public File getFile(File archive, String filePath) {
+		String entryName = ClasspathIndex.normalize(filePath);
+		if (null == entryName)
+			return null;
+		OpenArchive open = acquire(archive);
+		ZipEntry entry;
+		try {
+			if (null == open.zip)
+				return null;
+			entry = open.zip.getEntry(entryName);
+		} finally {
+			release(open);
+		}
+		if (null == entry || entry.isDirectory())
+			return null;
+		if (log.isDebugEnabled())
+			log.debug("Reading: " + entryName + " from archive: " + archive);
+		return new ArchiveEntryFile(this, new File(commonExtractDir, archive
+				.getName()), archive, entryName, entry.getSize());
+	}
+
+	/**
+	 * Resolve a URI relative to a <code>jar:</code> URI.
+	 *
+	 * @param href
+	 *            The URI to resolve, relative or a <code>jar:</code> URI
+	 * @param base
+	 *            The <code>jar:</code> base URI
+	 * @return The archive entry file, null when not in the archive or the
+	 *         URIs are not <code>jar:</code> URIs of an archive file
+	 */
+	public File resolve(String href, String base) {
+		boolean relative = !href.startsWith(JAR_PREFIX);
+		String uri = relative ? base : href;
+		if (null == uri || !uri.startsWith(JAR_PREFIX))
+			return null;
+		int separator = uri.indexOf(ENTRY_SEPARATOR);
+		if (separator < 0)
+			return null;
+		try {
+			File archive = new File(new URI(uri.substring(JAR_PREFIX.length(),
+					separator)));
+			String entryName = new URI(uri.substring(separator
+					+ ENTRY_SEPARATOR.length())).getPath();
+			if (relative) {
+				URI hrefURI = new URI(href);
+				if (hrefURI.isAbsolute())
+					return null;
+				String dir = entryName.substring(0,
+						entryName.lastIndexOf('/') + 1);
+				entryName = dir + hrefURI.getPath();
+			}
+			return getFile(archive, entryName);
+		} catch (URISyntaxException e) {
+			log.warn("Unable to parse URI: " + uri);
+		} catch (IllegalArgumentException e) {
+			log.warn("Unable to parse URI: " + uri);
+		}
+		return null;
+	}
+
+	/**
+	 * Open a stream of a file in an archive. The archive is kept open until
+	 * the stream is closed.
+	 */
+	InputStream openStream(ArchiveEntryFile file) throws IOException {
+		final OpenArchive open = acquire(file.getArchive());
+		boolean opened = false;
+		try {
+			ZipEntry entry = null == open.zip ? null : open.zip.getEntry(file
+					.getEntryName());
+			if (null == entry)
+				throw new IOException("Cannot read " + file.getEntryName()
+						+ " from archive " + file.getArchive());
+			InputStream result = new FilterInputStream(open.zip
+					.getInputStream(entry)) {
+				private boolean closed = false;
+
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						synchronized (this) {
+							if (!closed)
+								release(open);
+							closed = true;
+						}
+					}
+				}
+			};
+			opened = true;
+			return result;
+		} finally {
+			if (!opened)
+				release(open);
+		}
+	}
+
+	/**
+	 * Does an archive contain a file?
+	 *
+	 * @param archive
+	 *            The archive file
+	 * @param entryName
+	 *            The name of the entry within the archive
+	 * @return true iff the archive can be read and has the entry as a file
+	 */
+	boolean contains(File archive, String entryName) {
+		if (!archive.isFile())
+			return false;
+		OpenArchive open = acquire(archive);
+		try {
+			if (null == open.zip)
+				return false;
+			ZipEntry entry = open.zip.getEntry(entryName);
+			return null != entry && !entry.isDirectory();
+		} finally {
+			release(open);
+		}
+	}
+
+	/**
+	 * Is the archive readable?
+	 *
+	 * @param archive
+	 *            The archive file
+	 * @return true iff the archive can be opened
+	 */
+	boolean isReadable(File archive) {
+		OpenArchive open = acquire(archive);
+		try {
+			return null != open.zip;
+		} finally {
+			release(open);
+		}
+	}
+
+	/**
+	 * Acquire an open archive, opening it when not open or changed. It is not
+	 * closed until released.
+	 *
+	 * @param archive
+	 *            The archive file
+	 * @return The open archive, its {@link OpenArchive#getZipFile()} is null
+	 *         when the archive cannot be read; to be released by
+	 *         {@link #release(OpenArchive)}
+	 */
+	OpenArchive acquire(File archive) {
+		synchronized (ARCHIVES) {
+			OpenArchive open = (OpenArchive) ARCHIVES.get(archive);
+			if (null == open || open.lastModified != archive.lastModified()
+					|| open.length != archive.length()) {
+				if (null != open)
+					open.retire();
+				open = new OpenArchive();
+				open.lastModified = archive.lastModified();
+				open.length = archive.length();
+				try {
+					open.zip = new ZipFile(archive);
+				} catch (IOException ioe) {
+					log.warn("Cannot read archive: " + archive + "\t" + ioe);
+				}
+				ARCHIVES.put(archive, open);
+			}
+			open.users++;
+			return open;
+		}
+	}
+
+	/**
+	 * Release an acquired archive, closing it when replaced and no more
+	 * used.
+	 *
+	 * @param open
+	 *            The archive returned by {@link #acquire(File)}
+	 */
+	void release(OpenArchive open) {
+		synchronized (ARCHIVES) {
+			open.users--;
+			if (open.retired && 0 == open.users)
+				open.close();
+		}
+	}
+
+	/**
+	 * Encode an entry name as a relative URI.
+	 *
+	 * @param entryName
+	 * @return String
+	 */
+	static String encode(String entryName) {
+		try {
+			return new URI(null, null, entryName, null).getRawPath();
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Invalid entry name: "
+					+ entryName);
+		}
+	}
+
+	/**
+	 * An opened archive, guarded by the lock of the open archives.
+	 */
+	static class OpenArchive {
+		private long lastModified;
+		private long length;
+		/**
+		 * The opened archive, null when it cannot be read.
+		 */
+		private ZipFile zip;
+
+		/**
+		 * Number of the acquisitions not released yet.
+		 */
+		private int users = 0;
+
+		/**
+		 * Replaced in the open archives, to be closed by the last release.
+		 */
+		private boolean retired = false;
+
+		ZipFile getZipFile() {
+			return zip;
+		}
+
+		private void retire() {
+			retired = true;
+			if (0 == users)
+				close();
+		}
+
+		private void close() {
+			if (null == zip)
+				return;
+			try {
+				zip.close();
+			} catch (IOException ioe) {
+				// not used any more
+			}
+		}
+	}
+
+}
@@ -0,0 +1,533 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Manifest of an execution of the generator, decides which files have changed
+ * since the previous execution.
+ * <p>
+ * Records the files used by an execution: the templates, the source files,
+ * the destination files produced from each source file and the files each
+ * source file depends on, ie. all the other files read while transforming it.
+ * <p>
+ * When using checksums, records also the checksums of these files. A file has
+ * changed when its current checksum differs from the one recorded by the
+ * previous execution.
+ * <p>
+ * Along with the checksum, the last modification time and the length of each
+ * file are recorded. A file with both of them unchanged is not read again, its
+ * recorded checksum is used instead.
+ * <p>
+ * Files within the project base directory are recorded relative to it, so
+ * that the manifest stays valid when the project is moved, eg. restored from
+ * a cache of a CI server to a different location.
+ * <p>
+ * Thread-safe for computing checksums, the records are expected to be updated
+ * by a single thread.
+ */
+public class BuildManifest {
+
+	public static final String SEPARATOR = "|";
+
+	private static final String CONFIGURATION = "configuration";
+	private static final String TEMPLATE = "template";
+	private static final String FILE_PREFIX = "file.";
+	private static final String SOURCE_PREFIX = "source.";
+	private static final String DEPENDENCIES_PREFIX = "dependencies.";
+
+	private static final ChecksumUtils CHECKSUM_UTILS = new ChecksumUtils();
+
+	/**
+	 * Maven log.
+	 */
+	private final Log log;
+
+	/**
+	 * The file the manifest is stored in.
+	 */
+	private final File file;
+
+	/**
+	 * The project base directory.
+	 */
+	private final File basedir;
+
+	/**
+	 * Record checksums of the files?
+	 */
+	private final boolean checksums;
+
+	/**
+	 * Records of the previous execution.
+	 */
+	private final Properties previous = new Properties();
+
+	/**
+	 * Records of the current execution.
+	 */
+	private final Properties current = new Properties();
+
+	/**
+	 * Current records of files, computed during the current execution.
+	 */
+	private final Map fileRecords = Collections.synchronizedMap(new HashMap());
+
+	/**
+	 * Create build manifest.
+	 *
+	 * @param log
+	 *            Maven log
+	 * @param file
+	 *            The file the manifest is stored in
+	 * @param basedir
+	 *            The project base directory
+	 * @param checksums
+	 *            Record checksums of the files
+	 */
+	public BuildManifest(Log log, File file, File basedir, boolean checksums) {
+		this.log = log;
+		this.file = file;
+		this.basedir = basedir;
+		this.checksums = checksums;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Load the records of the previous execution.
+	 */
+	public void load() {
+		if (!file.exists()) {
+			if (log.isDebugEnabled())
+				log.debug("No build manifest at " + file);
+			return;
+		}
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				previous.load(in);
+			} finally {
+				in.close();
+			}
+			if (log.isDebugEnabled())
+				log.debug("Loaded build manifest " + file);
+		} catch (IOException ioe) {
+			log.warn("Cannot read build manifest " + file
+					+ ", all files are considered changed: " + ioe);
+			previous.clear();
+		}
+	}
+
+	/**
+	 * Store the records of the current execution.
+	 *
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+		file.getParentFile().mkdirs();
+		OutputStream out = new FileOutputStream(file);
+		try {
+			current.store(out, "xslt-generator-maven-plugin build manifest");
+		} finally {
+			out.close();
+		}
+		if (log.isDebugEnabled())
+			log.debug("Saved build manifest " + file);
+	}
+
+	// Configuration and templates
+
+	/**
+	 * Has the configuration of the execution changed?
+	 *
+	 * @param configuration
+	 *            Current configuration
+	 * @return true iff it differs from the configuration of the previous
+	 *         execution
+	 */
+	public boolean isConfigurationChanged(String configuration) {
+		return !configuration.equals(previous.getProperty(CONFIGURATION));
+	}
+
+	public void setConfiguration(String configuration) {
+		current.setProperty(CONFIGURATION, configuration);
+	}
+
+	/**
+	 * Return the template files recorded by the previous execution.
+	 *
+	 * @return List of Files
+	 */
+	public List getTemplateFiles() {
+		return toFiles(previous.getProperty(TEMPLATE));
+	}
+
+	/**
+	 * Record the template files: the template and all the templates it
+	 * includes or imports.
+	 *
+	 * @param files
+	 *            List of Files
+	 */
+	public void recordTemplateFiles(List files) {
+		current.setProperty(TEMPLATE, toKeys(files));
+		recordFiles(files);
+	}
+
+	/**
+	 * Keep the record of template files of the previous execution.
+	 */
+	public void keepTemplateFiles() {
+		String keys = previous.getProperty(TEMPLATE);
+		if (null != keys) {
+			current.setProperty(TEMPLATE, keys);
+			recordFiles(toFiles(keys));
+		}
+	}
+
+	// Source files
+
+	/**
+	 * Was the source file recorded by the previous execution?
+	 *
+	 * @param sourceFileName
+	 *            Name of the source file
+	 * @return boolean
+	 */
+	public boolean isRecordedSource(String sourceFileName) {
+		return null != previous.getProperty(SOURCE_PREFIX + sourceFileName);
+	}
+
+	/**
+	 * Return names of the source files recorded by the previous execution.
+	 *
+	 * @return List of Strings
+	 */
+	public List getRecordedSources() {
+		List result = new ArrayList();
+		for (Iterator iterator = previous.keySet().iterator(); iterator
+				.hasNext();) {
+			String key = (String) iterator.next();
+			if (key.startsWith(SOURCE_PREFIX))
+				result.add(key.substring(SOURCE_PREFIX.length()));
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	/**
+	 * Return the destination files produced from a source file by the
+	 * previous execution.
+	 *
+	 * @param sourceFileName
+	 *            Name of the source file
+	 * @return List of Files
+	 */
+	public List getOutputs(String sourceFileName) {
+		return toFiles(previous.getProperty(SOURCE_PREFIX + sourceFileName));
+	}
+
+	/**
+	 * Are the destination files produced from a source file by the previous
+	 * execution unchanged?
+	 *
+	 * @param sourceFileName
+	 *            Name of the source file
+	 * @return true iff all the destination files exist and have not changed
+	 */
+	public boolean areOutputsUpToDate(String sourceFileName) {
+		for (Iterator iterator = getOutputs(sourceFileName).iterator(); iterator
+				.hasNext();) {
+			if (hasChanged((File) iterator.next()))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Return the obsolete destination files: produced by the previous
+	 * execution, but not by the current one.
+	 * <p>
+	 * These are the destination files of the source files which no longer
+	 * exist and the destination files no longer produced from the existing
+	 * source files.
+	 *
+	 * @return Sorted list of Files
+	 */
+	public List getObsoleteOutputs() {
+		Set obsolete = new TreeSet(getAllOutputs(previous));
+		obsolete.removeAll(getAllOutputs(current));
+		return new ArrayList(obsolete);
+	}
+
+	private Set getAllOutputs(Properties records) {
+		Set result = new HashSet();
+		for (Iterator iterator = records.keySet().iterator(); iterator
+				.hasNext();) {
+			String key = (String) iterator.next();
+			if (key.startsWith(SOURCE_PREFIX))
+				result.addAll(toFiles(records.getProperty(key)));
+		}
+		return result;
+	}
+
+	/**
+	 * Record a source file and the destination files produced from it.
+	 * <p>
+	 * Destination files written during the current execution must be
+	 * forgotten first, see {@link #forget(List)}. The dependencies of the
+	 * source file are recorded separately.
+	 *
+	 * @param sourceFileName
+	 *            Name of the source file
+	 * @param srcFile
+	 *            The source file
+	 * @param outputs
+	 *            List of the destination Files
+	 */
+	public void recordSource(String sourceFileName, File srcFile, List outputs) {
+		current.setProperty(SOURCE_PREFIX + sourceFileName, toKeys(outputs));
+		recordFile(srcFile);
+		recordFiles(outputs);
+	}
+
+	/**
+	 * Keep the record of a source file of the previous execution.
+	 *
+	 * @param sourceFileName
+	 *            Name of the source file
+	 * @param srcFile
+	 *            The source file
+	 */
+	public void keepSource(String sourceFileName, File srcFile) {
+		String outputs = previous.getProperty(SOURCE_PREFIX + sourceFileName);
+		if (null == outputs)
+			return;
+		current.setProperty(SOURCE_PREFIX + sourceFileName, outputs);
+		recordFile(srcFile);
+		recordFiles(toFiles(outputs));
+		keepDependencies(sourceFileName);
+	}
+
+	// Dependencies
+
+	/**
+	 * Return the files a source file depended on in the previous execution.
+	 *
+	 * @param name
+	 *            Name of the source file
+	 * @return List of Files
+	 */
+	public List getDependencies(String name) {
+		return toFiles(previous.getProperty(DEPENDENCIES_PREFIX + name));
+	}
+
+	/**
+	 * Record the files a source file depends on.
+	 *
+	 * @param name
+	 *            Name of the source file
+	 * @param files
+	 *            List of Files
+	 */
+	public void recordDependencies(String name, List files) {
+		if (files.isEmpty())
+			return;
+		current.setProperty(DEPENDENCIES_PREFIX + name, toKeys(files));
+		recordFiles(files);
+	}
+
+	/**
+	 * Keep the record of dependencies of a source file of the previous
+	 * execution.
+	 *
+	 * @param name
+	 *            Name of the source file
+	 */
+	public void keepDependencies(String name) {
+		String keys = previous.getProperty(DEPENDENCIES_PREFIX + name);
+		if (null != keys) {
+			current.setProperty(DEPENDENCIES_PREFIX + name, keys);
+			recordFiles(toFiles(keys));
+		}
+	}
+
+	// Files
+
+	/**
+	 * Has the file changed since the previous execution?
+	 *
+	 * @param file
+	 *            The file
+	 * @return true iff the file does not exist, was not recorded or its
+	 *         checksum differs from the recorded one
+	 */
+	public boolean hasChanged(File file) {
+		String[] record = getRecord(file);
+		if (null == record)
+			return true;
+		String[] previousRecord = split(previous.getProperty(FILE_PREFIX
+				+ toKey(file)));
+		return null == previousRecord || !previousRecord[0].equals(record[0]);
+	}
+
+	/**
+	 * Record the current state of a file.
+	 *
+	 * @param file
+	 *            The file
+	 */
+	public void recordFile(File file) {
+		if (!checksums)
+			return;
+		String[] record = getRecord(file);
+		if (null != record)
+			current.setProperty(FILE_PREFIX + toKey(file), join(record));
+	}
+
+	/**
+	 * Forget the current state of files, computed earlier during the current
+	 * execution. Needed when the files have been written since.
+	 *
+	 * @param files
+	 *            List of Files
+	 */
+	public void forget(List files) {
+		for (Iterator iterator = files.iterator(); iterator.hasNext();)
+			fileRecords.remove(iterator.next());
+	}
+
+	private void recordFiles(List files) {
+		for (Iterator iterator = files.iterator(); iterator.hasNext();)
+			recordFile((File) iterator.next());
+	}
+
+	/**
+	 * Compute the checksums of files in advance, in parallel.
+	 *
+	 * @param files
+	 *            Collection of Files
+	 * @param pool
+	 *            Worker pool to compute the checksums
+	 * @throws Exception
+	 */
+	public void computeChecksums(Collection files, WorkerPool pool)
+			throws Exception {
+		for (Iterator iterator = files.iterator(); iterator.hasNext();) {
+			final File file = (File) iterator.next();
+			pool.submit(new Callable() {
+				public Object call() {
+					return getRecord(file);
+				}
+			});
+		}
+		pool.join();
+	}
+
+	/**
+	 * Get the current record of a file: checksum, last modification time and
+	 * length.
+	 *
+	 * @param file
+	 *            The file
+	 * @return The record or null when the file does not exist or cannot be
+	 *         read
+	 */
+	private String[] getRecord(File file) {
+		String[] record = (String[]) fileRecords.get(file);
+		if (null != record)
+			return record;
+		if (!file.isFile())
+			return null;
+		String lastModified = String.valueOf(file.lastModified());
+		String length = String.valueOf(file.length());
+		String[] previousRecord = split(previous.getProperty(FILE_PREFIX
+				+ toKey(file)));
+		String checksum;
+		if (null != previousRecord && previousRecord[1].equals(lastModified)
+				&& previousRecord[2].equals(length)) {
+			checksum = previousRecord[0];
+		} else {
+			try {
+				checksum = CHECKSUM_UTILS.checksum(file);
+			} catch (IOException ioe) {
+				log.warn("Cannot compute checksum of " + file + ": " + ioe);
+				return null;
+			}
+		}
+		record = new String[] { checksum, lastModified, length };
+		fileRecords.put(file, record);
+		return record;
+	}
+
+	// Conversions
+
+	private String toKey(File file) {
+		String path = file.getAbsolutePath();
+		String base = basedir.getAbsolutePath() + File.separator;
+		if (path.startsWith(base))
+			path = path.substring(base.length());
+		return path.replace('\\', '/');
+	}
+
+	private File toFile(String key) {
+		File result = new File(key);
+		if (!result.isAbsolute())
+			result = new File(basedir, key);
+		return result;
+	}
+
+	private String toKeys(List files) {
+		StringBuilder b = new StringBuilder();
+		for (Iterator iterator = files.iterator(); iterator.hasNext();) {
+			b.append(toKey((File) iterator.next()));
+			if (iterator.hasNext())
+				b.append(SEPARATOR);
+		}
+		return b.toString();
+	}
+
+	private List toFiles(String keys) {
+		List result = new ArrayList();
+		if (null != keys) {
+			String[] split = StringUtils.split(keys, SEPARATOR);
+			for (int i = 0; i < split.length; i++)
+				result.add(toFile(split[i]));
+		}
+		return result;
+	}
+
+	private String join(String[] record) {
+		return record[0] + SEPARATOR + record[1] + SEPARATOR + record[2];
+	}
+
+	private String[] split(String record) {
+		if (null == record)
+			return null;
+		String[] result = StringUtils.split(record, SEPARATOR);
+		return result.length == 3 ? result : null;
+	}
+
+}
@@ -2,17 +2,43 @@ package net.sf.xsltmp.util;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
+import net.sf.xsltmp.XsltGeneratorConstants;
+
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
 import org.apache.maven.plugin.logging.Log;
 
 /**
  * Loads resources from a bundle.
+ * <p>
+ * The resources merged from the bundle files of the locale are kept for the
+ * lifetime of the JVM and stored in the build directory, by the bundle, the
+ * locale, the encoding, the project base directory and the compile classpath.
+ * They are re-used without looking up the bundle files again, as long as the
+ * loaded bundle files have the same checksums and none of the bundle files
+ * not found has been created in the project base directory or in a classpath
+ * directory. A changed classpath archive changes the key.
+ * <p>
+ * At most {@link #MAX_BUNDLES} merged bundles are kept in memory, the least
+ * recently used ones are dropped first. The stored file of a bundle is named
+ * by the key without the classpath, so that it is replaced when the classpath
+ * changes.
  */
 public class BundleLoader {
 
@@ -84,18 +110,169 @@ public class BundleLoader {
 		this.resourceMap = resourceMap;
 	}
 
+	public static final int MAX_BUNDLES = 64;
+
+	/**
+	 * Merged resources loaded within the JVM, MergedBundles by key.
+	 */
+	private static final Map MERGED_BUNDLES = new LinkedHashMap(16, 0.75f,
+			true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > MAX_BUNDLES;
+		}
+	};
+
+	private static final ChecksumUtils CHECKSUM_UTILS = new ChecksumUtils();
+
+	private static final String RESOURCE_PREFIX = "resource.";
+	private static final String FILE_PREFIX = "file.";
+	private static final String MISSING_PREFIX = "missing.";
+	private static final String KEY = "key";
+
 	private boolean loaded = false;
 
+	/**
+	 * The bundle being loaded.
+	 */
+	private MergedBundle merged;
+
+	/**
+	 * Paths of the bundle files looked up.
+	 */
+	private final Set processed = new HashSet();
+
 	/**
 	 * Load the bundle.
 	 */
 	public void loadBundle() {
+		String name = getName();
+		String key = name + ", classpath=" + getClasspathChecksum();
+		File file = new File(new File(fileResolver.getProject().getBuild()
+				.getDirectory(), XsltGeneratorConstants.BUNDLES_DIR),
+				CHECKSUM_UTILS.checksum(name) + ".properties");
+		MergedBundle cached = getMerged(key, file);
+		if (null != cached) {
+			if (log.isDebugEnabled())
+				log.debug("Using merged bundle: " + key);
+			copyNonExistingEntries(cached.resources);
+			return;
+		}
+		merged = new MergedBundle();
 		loadResourceMaps(new Locale(bundleLanguage, bundleCountry,
 				bundleVariant));
 		loadResourceMaps(Locale.getDefault());
 		if (!loaded)
 			throw new IllegalArgumentException("Bundle cannot be loaded "
 					+ bundle);
+		synchronized (MERGED_BUNDLES) {
+			MERGED_BUNDLES.put(key, merged);
+		}
+		merged.store(file, key, log);
+		copyNonExistingEntries(merged.resources);
+	}
+
+	/**
+	 * Return the merged resources loaded previously, either within the JVM or
+	 * by a previous build.
+	 * 
+	 * @return MergedBundle, null when not loaded or outdated
+	 */
+	private MergedBundle getMerged(String key, File file) {
+		MergedBundle result;
+		synchronized (MERGED_BUNDLES) {
+			result = (MergedBundle) MERGED_BUNDLES.get(key);
+		}
+		if (null == result)
+			result = MergedBundle.load(file, key, log);
+		if (null == result || !isUpToDate(result))
+			return null;
+		synchronized (MERGED_BUNDLES) {
+			MERGED_BUNDLES.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Compose the key of the merged resources, except the classpath.
+	 */
+	private String getName() {
+		return "bundle=" + bundle + ", locale="
+				+ new Locale(bundleLanguage, bundleCountry, bundleVariant)
+				+ ", defaultLocale=" + Locale.getDefault() + ", encoding="
+				+ bundleEncoding + ", basedir="
+				+ fileResolver.getProject().getBasedir();
+	}
+
+	/**
+	 * Compute the checksum of the classpath, with the last modification times
+	 * and the lengths of its archives.
+	 */
+	private String getClasspathChecksum() {
+		StringBuffer classpath = new StringBuffer();
+		try {
+			List elements = fileResolver.getProject()
+					.getCompileClasspathElements();
+			for (Iterator iterator = elements.iterator(); iterator.hasNext();) {
+				File element = new File((String) iterator.next());
+				classpath.append(element.getAbsolutePath());
+				if (element.isFile())
+					classpath.append('@').append(element.lastModified())
+							.append('/').append(element.length());
+				classpath.append(File.pathSeparatorChar);
+			}
+		} catch (DependencyResolutionRequiredException e) {
+			// resolved from the base directory only
+		}
+		return CHECKSUM_UTILS.checksum(classpath.toString());
+	}
+
+	/**
+	 * Are the merged resources up-to-date with the bundle files?
+	 */
+	private boolean isUpToDate(MergedBundle bundle) {
+		for (Iterator iterator = bundle.files.iterator(); iterator.hasNext();) {
+			BundleFile file = (BundleFile) iterator.next();
+			if (!file.isUpToDate()) {
+				if (log.isDebugEnabled())
+					log.debug("Bundle file changed: " + file.file);
+				return false;
+			}
+		}
+		for (Iterator iterator = bundle.missing.iterator(); iterator.hasNext();) {
+			String name = (String) iterator.next();
+			if (existsOutsideArchives(name)) {
+				if (log.isDebugEnabled())
+					log.debug("Bundle file created: " + name);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Does a file exist at the path, in the project base directory or in a
+	 * classpath directory?
+	 */
+	private boolean existsOutsideArchives(String filePath) {
+		if (new File(filePath).exists()
+				|| new File(fileResolver.getProject().getBasedir(), filePath)
+						.exists())
+			return true;
+		try {
+			List elements = fileResolver.getProject()
+					.getCompileClasspathElements();
+			for (Iterator iterator = elements.iterator(); iterator.hasNext();) {
+				File element = new File((String) iterator.next());
+				if (element.isDirectory()
+						&& new File(element, filePath).exists())
+					return true;
+			}
+		} catch (DependencyResolutionRequiredException e) {
+			// not resolved from the classpath
+		}
+		return false;
 	}
 
 	private void loadResourceMaps(Locale locale) {
@@ -112,22 +289,32 @@ public class BundleLoader {
 	}
 
 	private void processBundle(String bundleFile) {
-		File propsFile = fileResolver.resolve(bundleFile + ".properties");
+		String filePath = bundleFile + ".properties";
+		// the same name follows from empty locale parts or the default locale
+		if (!processed.add(filePath))
+			return;
+		File propsFile = fileResolver.resolve(filePath);
 		try {
 			Properties properties = new Properties();
-			properties.load(new InputStreamReader(
-					new FileInputStream(propsFile), bundleEncoding));
-			copyNonExistingEntries(properties);
+			Reader reader = new InputStreamReader(ArchiveEntryFile
+					.open(propsFile), bundleEncoding);
+			try {
+				properties.load(reader);
+			} finally {
+				reader.close();
+			}
+			merged.add(propsFile, properties);
 			loaded = true;
 			if (log.isDebugEnabled())
 				log.debug("Loaded properties: " + propsFile);
 		} catch (IOException e) {
+			merged.missing.add(filePath);
 			if (log.isDebugEnabled())
 				log.debug("Cannot load properties: " + propsFile);
 		}
 	}
 
-	private void copyNonExistingEntries(Properties properties) {
+	private void copyNonExistingEntries(Map properties) {
 		for (Iterator iterator = properties.keySet().iterator(); iterator
 				.hasNext();) {
 			String key = (String) iterator.next();
@@ -136,4 +323,166 @@ public class BundleLoader {
 		}
 	}
 
+	/**
+	 * Resources merged from the bundle files of a locale.
+	 */
+	private static class MergedBundle {
+		private final Map resources = new HashMap();
+		/**
+		 * The loaded bundle files, BundleFiles.
+		 */
+		private final List files = new ArrayList();
+		/**
+		 * Paths of the bundle files not found.
+		 */
+		private final List missing = new ArrayList();
+
+		private void add(File file, Properties properties) throws IOException {
+			for (Iterator iterator = properties.keySet().iterator(); iterator
+					.hasNext();) {
+				String key = (String) iterator.next();
+				if (!resources.containsKey(key))
+					resources.put(key, properties.get(key));
+			}
+			files.add(BundleFile.create(file));
+		}
+
+		/**
+		 * Load the merged resources stored by a previous build.
+		 * 
+		 * @return MergedBundle, null when not stored or stored for another key
+		 */
+		private static MergedBundle load(File file, String bundleKey, Log log) {
+			if (!file.exists())
+				return null;
+			Properties properties = new Properties();
+			try {
+				InputStream in = new FileInputStream(file);
+				try {
+					properties.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException ioe) {
+				log.warn("Cannot read merged bundle " + file + ": " + ioe);
+				return null;
+			}
+			if (!bundleKey.equals(properties.getProperty(KEY))) {
+				if (log.isDebugEnabled())
+					log.debug("Merged bundle stored for another classpath: "
+							+ file);
+				return null;
+			}
+			MergedBundle result = new MergedBundle();
+			for (Iterator iterator = properties.keySet().iterator(); iterator
+					.hasNext();) {
+				String key = (String) iterator.next();
+				if (key.startsWith(RESOURCE_PREFIX))
+					result.resources.put(key.substring(RESOURCE_PREFIX
+							.length()), properties.get(key));
+			}
+			for (int i = 0; properties.containsKey(FILE_PREFIX + i); i++) {
+				String[] values = properties.getProperty(FILE_PREFIX + i)
+						.split("\\|", 4);
+				result.files.add(new BundleFile(new File(values[3]), Long
+						.parseLong(values[0]), Long.parseLong(values[1]),
+						values[2].length() == 0 ? null : values[2]));
+			}
+			for (int i = 0; properties.containsKey(MISSING_PREFIX + i); i++)
+				result.missing.add(properties.getProperty(MISSING_PREFIX + i));
+			return result;
+		}
+
+		/**
+		 * Store the merged resources, replacing the resources stored for
+		 * another classpath.
+		 */
+		private void store(File file, String bundleKey, Log log) {
+			Properties properties = new Properties();
+			properties.setProperty(KEY, bundleKey);
+			for (Iterator iterator = resources.keySet().iterator(); iterator
+					.hasNext();) {
+				String key = (String) iterator.next();
+				properties.put(RESOURCE_PREFIX + key, resources.get(key));
+			}
+			for (int i = 0; i < files.size(); i++) {
+				BundleFile bundleFile = (BundleFile) files.get(i);
+				properties.setProperty(FILE_PREFIX + i, bundleFile.lastModified
+						+ "|" + bundleFile.length + "|"
+						+ (null == bundleFile.checksum ? "" : bundleFile.checksum)
+						+ "|" + bundleFile.file.getAbsolutePath());
+			}
+			for (int i = 0; i < missing.size(); i++)
+				properties.setProperty(MISSING_PREFIX + i, (String) missing
+						.get(i));
+			try {
+				file.getParentFile().mkdirs();
+				File tempFile = File.createTempFile("." + file.getName() + "-",
+						".tmp", file.getParentFile());
+				try {
+					OutputStream out = new FileOutputStream(tempFile);
+					try {
+						properties.store(out,
+								"xslt-generator-maven-plugin merged bundle");
+					} finally {
+						out.close();
+					}
+					FileReplacer.replace(tempFile, file);
+				} finally {
+					tempFile.delete();
+				}
+			} catch (IOException ioe) {
+				log.warn("Cannot store merged bundle " + file + ": " + ioe);
+			}
+		}
+	}
+
+	/**
+	 * A loaded bundle file, or the archive it was read from.
+	 */
+	private static class BundleFile {
+		private final File file;
+		private final long lastModified;
+		private final long length;
+		/**
+		 * Checksum of the content, null for an archive.
+		 */
+		private final String checksum;
+
+		private BundleFile(File file, long lastModified, long length,
+				String checksum) {
+			this.file = file;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.checksum = checksum;
+		}
+
+		private static BundleFile create(File file) throws IOException {
+			if (file instanceof ArchiveEntryFile) {
+				File archive = ((ArchiveEntryFile) file).getArchive();
+				return new BundleFile(archive, archive.lastModified(), archive
+						.length(), null);
+			}
+			return new BundleFile(file, file.lastModified(), file.length(),
+					CHECKSUM_UTILS.checksum(file));
+		}
+
+		/**
+		 * Has the file the same content? Its checksum is computed only when
+		 * the file was modified.
+		 */
+		private boolean isUpToDate() {
+			if (lastModified == file.lastModified()
+					&& length == file.length())
+				return true;
+			if (null == checksum || !file.exists())
+				return false;
+			try {
+				return checksum.equals(CHECKSUM_UTILS.checksum(file));
+			} catch (IOException ioe) {
+				return false;
+			}
+		}
+	}
+
 }
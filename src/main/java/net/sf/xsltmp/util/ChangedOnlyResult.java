@@ -0,0 +1,132 @@
+package net.sf.xsltmp.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Result replacing the destination file only when its content changes.
+ * <p>
+ * The output is written to a temporary file next to the destination file.
+ * When committed, the temporary file is compared with the destination file.
+ * If their contents are the same, the temporary file is deleted and the
+ * destination file is left untouched, keeping its last modification time.
+ * Otherwise the temporary file replaces the destination file, atomically
+ * where supported, so that the destination file is never seen half-written
+ * nor missing, see {@link FileReplacer}.
+ * <p>
+ * The system ID of the result is the destination file, so that relative URIs
+ * are resolved against it.
+ */
+public class ChangedOnlyResult extends StreamResult {
+
+	private final Log log;
+	private final File destFile;
+	private final File tempFile;
+	private final OutputStream out;
+
+	/**
+	 * Create result for a destination file.
+	 * <p>
+	 * The directory of the destination file must exist.
+	 *
+	 * @param log
+	 *            Maven log
+	 * @param destFile
+	 *            The destination file
+	 * @throws IOException
+	 *             When the temporary file cannot be created
+	 */
+	public ChangedOnlyResult(Log log, File destFile) throws IOException {
+		this.log = log;
+		this.destFile = destFile;
+		tempFile = File.createTempFile("." + destFile.getName() + "-",
+				".tmp", destFile.getParentFile());
+		out = new BufferedOutputStream(new FileOutputStream(tempFile));
+		setOutputStream(out);
+		setSystemId(destFile);
+	}
+
+	public File getDestFile() {
+		return destFile;
+	}
+
+	/**
+	 * Finish writing and replace the destination file if its content changed.
+	 *
+	 * @return true iff the destination file was replaced
+	 * @throws IOException
+	 */
+	public boolean commit() throws IOException {
+		try {
+			out.close();
+			if (destFile.exists() && isSameContent(tempFile, destFile)) {
+				if (log.isDebugEnabled())
+					log.debug("Destination file unchanged: " + destFile);
+				return false;
+			}
+			FileReplacer.replace(tempFile, destFile);
+			return true;
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Abandon the output, leaving the destination file untouched.
+	 */
+	public void discard() {
+		try {
+			out.close();
+		} catch (IOException ioe) {
+			// deleted anyway
+		}
+		tempFile.delete();
+	}
+
+	private boolean isSameContent(File file1, File file2) throws IOException {
+		if (file1.length() != file2.length())
+			return false;
+		InputStream in1 = new FileInputStream(file1);
+		try {
+			InputStream in2 = new FileInputStream(file2);
+			try {
+				byte[] buffer1 = new byte[8192];
+				byte[] buffer2 = new byte[8192];
+				int read;
+				while ((read = read(in1, buffer1)) > 0) {
+					if (read != read(in2, buffer2))
+						return false;
+					for (int i = 0; i < read; i++)
+						if (buffer1[i] != buffer2[i])
+							return false;
+				}
+				return read(in2, buffer2) <= 0;
+			} finally {
+				in2.close();
+			}
+		} finally {
+			in1.close();
+		}
+	}
+
+	private int read(InputStream in, byte[] buffer) throws IOException {
+		int total = 0;
+		while (total < buffer.length) {
+			int read = in.read(buffer, total, buffer.length - total);
+			if (read < 0)
+				break;
+			total += read;
+		}
+		return total;
+	}
+
+}
@@ -0,0 +1,90 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Utility methods for computing checksums of contents.
+ */
+public class ChecksumUtils {
+
+	private static final String ALGORITHM = "SHA-1";
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Compute the checksum of the content of a file.
+	 *
+	 * @param file
+	 *            The file
+	 * @return Hexadecimal checksum of the file content
+	 * @throws IOException
+	 *             On errors reading the file
+	 */
+	public String checksum(File file) throws IOException {
+		InputStream in = ArchiveEntryFile.open(file);
+		try {
+			return checksum(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Compute the checksum of the content of a stream.
+	 * <p>
+	 * Reads the stream till its end, does not close it.
+	 *
+	 * @param in
+	 *            The stream
+	 * @return Hexadecimal checksum of the stream content
+	 * @throws IOException
+	 *             On errors reading the stream
+	 */
+	public String checksum(InputStream in) throws IOException {
+		MessageDigest digest = newDigest();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) >= 0)
+			digest.update(buffer, 0, read);
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Compute the checksum of a string.
+	 *
+	 * @param value
+	 *            The string
+	 * @return Hexadecimal checksum of the string encoded in UTF-8
+	 */
+	public String checksum(String value) {
+		try {
+			return toHex(newDigest().digest(value.getBytes("UTF-8")));
+		} catch (UnsupportedEncodingException uee) {
+			throw new IllegalStateException("UTF-8 not supported");
+		}
+	}
+
+	private MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException nsae) {
+			throw new IllegalStateException("Checksum algorithm not available: "
+					+ ALGORITHM);
+		}
+	}
+
+	private String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+			chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+		}
+		return new String(chars);
+	}
+
+}
@@ -0,0 +1,302 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Index of the files on a classpath, by their paths.
+ * <p>
+ * The entries of the archives on the classpath are read from their central
+ * directories once and indexed, so that the archive containing a file is
+ * found without trying to extract the file from each archive. The directories
+ * on the classpath are not indexed, their contents may change during the
+ * build, eg. by the compiler. A file is looked for in the directories
+ * preceding the first archive containing it, keeping the classpath order.
+ * <p>
+ * The index is rebuilt when the classpath changes. The entries of the archives
+ * are shared by all executions of the plugin within a single JVM and re-read
+ * when the last modification time or the length of an archive changes.
+ * Archives which cannot be read as ZIP files are not indexed, they are
+ * searched in the classpath order like the directories.
+ * <p>
+ * Thread-safe.
+ */
+public class ClasspathIndex {
+
+	public static final int MAX_ARCHIVES = 1024;
+
+	/**
+	 * Entries of the archives by archive, shared by the executions.
+	 */
+	private static final Map ARCHIVES = new LinkedHashMap(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > MAX_ARCHIVES;
+		}
+	};
+
+	/**
+	 * Maven log.
+	 */
+	private final Log log;
+
+	/**
+	 * The indexed classpath elements, Strings.
+	 */
+	private List elements = null;
+
+	/**
+	 * The archive Files, by the classpath element index.
+	 */
+	private File[] archives;
+
+	/**
+	 * The sets of entry paths, by the classpath element index, null for the
+	 * elements not indexed.
+	 */
+	private Set[] entries;
+
+	/**
+	 * The index of the first indexed archive containing a file, Integer by
+	 * path.
+	 */
+	private final Map firstArchives = new HashMap();
+
+	/**
+	 * Create classpath index.
+	 *
+	 * @param log
+	 *            Maven log
+	 */
+	public ClasspathIndex(Log log) {
+		this.log = log;
+	}
+
+	/**
+	 * Index a classpath, unless already indexed.
+	 *
+	 * @param classpathElements
+	 *            List of the paths of the classpath elements
+	 */
+	public synchronized void update(List classpathElements) {
+		if (classpathElements.equals(elements))
+			return;
+		elements = new ArrayList(classpathElements);
+		archives = new File[elements.size()];
+		entries = new Set[elements.size()];
+		firstArchives.clear();
+		int count = 0;
+		for (int i = 0; i < elements.size(); i++) {
+			File element = new File((String) elements.get(i));
+			if (!element.isFile())
+				continue;
+			archives[i] = element;
+			entries[i] = getEntries(element);
+			if (null == entries[i])
+				continue;
+			count++;
+			Integer index = new Integer(i);
+			for (Iterator iterator = entries[i].iterator(); iterator.hasNext();) {
+				Object path = iterator.next();
+				if (!firstArchives.containsKey(path))
+					firstArchives.put(path, index);
+			}
+		}
+		if (log.isDebugEnabled())
+			log.debug("Indexed " + firstArchives.size() + " files of " + count
+					+ " archives on classpath of " + elements.size()
+					+ " elements");
+	}
+
+	/**
+	 * Find the classpath element containing a file.
+	 * <p>
+	 * Unindexed elements (the directories and the archives which cannot be
+	 * read) are passed to the prober in the classpath order until the first
+	 * indexed archive containing the file, which is passed last.
+	 * <p>
+	 * The prober is called without holding the lock of the index, so that
+	 * the threads extracting files from the archives do not wait for each
+	 * other.
+	 *
+	 * @param filePath
+	 *            The path of the file relative to the classpath
+	 * @param prober
+	 *            Gets the file from the classpath elements
+	 * @return The File found by the prober or null when not found
+	 */
+	public File find(String filePath, Prober prober) {
+		List candidates = getCandidates(filePath);
+		for (Iterator iterator = candidates.iterator(); iterator.hasNext();) {
+			File result = prober.probe((File) iterator.next(), filePath);
+			if (null != result)
+				return result;
+		}
+		return null;
+	}
+
+	/**
+	 * Return the classpath elements possibly containing a file: the
+	 * unindexed elements preceding the first indexed archive containing the
+	 * file, then that archive.
+	 *
+	 * @return List of Files in the classpath order
+	 */
+	private synchronized List getCandidates(String filePath) {
+		List result = new ArrayList();
+		if (null == elements)
+			return result;
+		String path = normalize(filePath);
+		Integer first = null == path ? null : (Integer) firstArchives.get(path);
+		int limit = null == first ? elements.size() : first.intValue();
+		for (int i = 0; i < limit; i++) {
+			if (null != entries[i])
+				continue;
+			result.add(null == archives[i] ? new File((String) elements
+					.get(i)) : archives[i]);
+		}
+		if (null != first)
+			result.add(archives[limit]);
+		return result;
+	}
+
+	/**
+	 * Does an indexed archive contain a file?
+	 *
+	 * @param archive
+	 *            The archive
+	 * @param filePath
+	 *            The path of the file within the archive
+	 * @return true iff the archive is indexed and contains the file
+	 */
+	public synchronized boolean contains(File archive, String filePath) {
+		String path = normalize(filePath);
+		for (int i = 0; null != path && null != archives
+				&& i < archives.length; i++)
+			if (archive.equals(archives[i]))
+				return null != entries[i] && entries[i].contains(path);
+		return false;
+	}
+
+	/**
+	 * Return the indexed archives in the classpath order.
+	 *
+	 * @return List of Files
+	 */
+	public synchronized List getArchives() {
+		List result = new ArrayList();
+		for (int i = 0; null != archives && i < archives.length; i++)
+			if (null != entries[i])
+				result.add(archives[i]);
+		return result;
+	}
+
+	/**
+	 * Gets a file from a classpath element.
+	 */
+	public interface Prober {
+
+		/**
+		 * Look for a file in a classpath element.
+		 *
+		 * @param element
+		 *            The directory or the archive
+		 * @param filePath
+		 *            The path of the file relative to the element
+		 * @return The File when found, null otherwise
+		 */
+		File probe(File element, String filePath);
+
+	}
+
+	private Set getEntries(File archive) {
+		synchronized (ARCHIVES) {
+			ArchiveEntries cached = (ArchiveEntries) ARCHIVES.get(archive);
+			if (null != cached && cached.lastModified == archive.lastModified()
+					&& cached.length == archive.length())
+				return cached.paths;
+			ArchiveEntries read = readEntries(archive);
+			ARCHIVES.put(archive, read);
+			return read.paths;
+		}
+	}
+
+	private ArchiveEntries readEntries(File archive) {
+		ArchiveEntries result = new ArchiveEntries();
+		result.lastModified = archive.lastModified();
+		result.length = archive.length();
+		try {
+			ZipFile zip = new ZipFile(archive);
+			try {
+				Set paths = new HashSet();
+				for (Enumeration e = zip.entries(); e.hasMoreElements();) {
+					ZipEntry entry = (ZipEntry) e.nextElement();
+					if (!entry.isDirectory())
+						paths.add(normalize(entry.getName()));
+				}
+				result.paths = paths;
+			} finally {
+				zip.close();
+			}
+		} catch (IOException ioe) {
+			if (log.isDebugEnabled())
+				log.debug("Archive not indexed: " + archive + ": " + ioe);
+		}
+		return result;
+	}
+
+	/**
+	 * Normalize a relative path: '/' separators, no leading separators, no
+	 * "." and ".." segments.
+	 *
+	 * @param filePath
+	 *            The path
+	 * @return The normalized path, null when it leads out of the root
+	 */
+	static String normalize(String filePath) {
+		String[] segments = filePath.replace('\\', '/').split("/");
+		List result = new ArrayList(segments.length);
+		for (int i = 0; i < segments.length; i++) {
+			if (0 == segments[i].length() || ".".equals(segments[i]))
+				continue;
+			if ("..".equals(segments[i])) {
+				if (result.isEmpty())
+					return null;
+				result.remove(result.size() - 1);
+			} else {
+				result.add(segments[i]);
+			}
+		}
+		StringBuffer b = new StringBuffer();
+		for (Iterator iterator = result.iterator(); iterator.hasNext();) {
+			b.append(iterator.next());
+			if (iterator.hasNext())
+				b.append('/');
+		}
+		return b.toString();
+	}
+
+	private static class ArchiveEntries {
+		private long lastModified;
+		private long length;
+		/**
+		 * Normalized paths of the files, null when the archive cannot be read.
+		 */
+		private Set paths;
+	}
+
+}
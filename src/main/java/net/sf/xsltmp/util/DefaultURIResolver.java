@@ -1,14 +1,22 @@
 package net.sf.xsltmp.util;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.TransformerConfigurationException;
@@ -16,10 +24,16 @@ import javax.xml.transform.URIResolver;
 import javax.xml.transform.stream.StreamSource;
 
 import net.sf.xsltmp.XsltGeneratorConstants;
+import net.sf.xsltmp.filter.CacheableFilter;
 import net.sf.xsltmp.filter.Filter;
+import net.sf.xsltmp.filter.FilterChain;
+import net.sf.xsltmp.filter.StreamingFilter;
 
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
+import org.xml.sax.InputSource;
 
 /**
  * URIResolver that resolves either from the received base URI, as an absolute
@@ -29,6 +43,10 @@ import org.apache.maven.project.MavenProject;
  * <p>
  * See {@link FileResolver} for description of the absolute path, basedir and
  * classpath resolution.
+ * <p>
+ * The resolved files are remembered for the lifetime of the resolver, ie. the
+ * execution, by the resolved URI and the base URI. So are the URIs not
+ * resolved, which are the costliest to resolve.
  */
 public class DefaultURIResolver extends FileResolver implements URIResolver,
 		XsltGeneratorConstants {
@@ -51,7 +69,54 @@ public class DefaultURIResolver extends FileResolver implements URIResolver,
 	 */
 	private final Map filterParameters;
 
-	private final FileCache filteredContent;
+	private FileCache filteredContent;
+
+	/**
+	 * Filter also the XML sources, not only the XSL templates?
+	 */
+	private boolean filterSources;
+
+	/**
+	 * Pool of the parsers of the resolved sources, null to leave parsing to
+	 * the XSLT engine.
+	 */
+	private XMLReaderPool xmlReaderPool;
+
+	/**
+	 * Documents parsed ahead, null when not parsing ahead.
+	 */
+	private DocumentPrefetcher prefetcher;
+
+	/**
+	 * The file and the source parsed ahead offered for its next resolution
+	 * by the current thread, see {@link #offer(File, Source)}.
+	 */
+	private final ThreadLocal offered = new ThreadLocal();
+
+	/**
+	 * Cache of the parsed documents, null when not caching.
+	 */
+	private DocumentCache documentCache;
+
+	/**
+	 * Report of the execution, null when not reporting.
+	 */
+	private PerformanceReport report;
+
+	private static final String KEY_SEPARATOR = "\n";
+
+	/**
+	 * Marks the URIs not resolved in the resolution cache.
+	 */
+	private static final Object NOT_FOUND = new Object();
+
+	/**
+	 * Resolved files or NOT_FOUND, by the base URI and the resolved URI.
+	 */
+	private final Map resolutions = new ConcurrentHashMap();
+
+	private final AtomicInteger resolutionHits = new AtomicInteger();
+	private final AtomicInteger resolutionMisses = new AtomicInteger();
 
 	/**
 	 * Constructor.
@@ -65,7 +130,8 @@ public class DefaultURIResolver extends FileResolver implements URIResolver,
 	 * @param sourceEncoding
 	 *            Source encoding
 	 * @param filter
-	 *            Source files filter
+	 *            Source files filter, or a comma-separated chain of filters,
+	 *            see {@link #createFilter(String)}
 	 * @param filterParameters
 	 *            Filter parameters
 	 */
@@ -76,39 +142,229 @@ public class DefaultURIResolver extends FileResolver implements URIResolver,
 		this.sourceEncoding = sourceEncoding;
 		this.filterType = filter;
 		this.filterParameters = filterParameters;
+		setFilteredContentSubdir(null);
+	}
+
+	/**
+	 * Store the filtered templates in a subdirectory of the directory of the
+	 * filtered templates, eg. for each locale translated to.
+	 * 
+	 * @param subdir
+	 *            Name of the subdirectory, null to store them directly in the
+	 *            directory
+	 */
+	public void setFilteredContentSubdir(String subdir) {
 		File buildBase = new File(getProject().getBuild().getDirectory());
 		File filteredBase = new File(buildBase, FILTERED_DIR);
-		filteredContent = new FileCache(log, buildBase, filteredBase,
+		if (null != subdir)
+			filteredBase = new File(filteredBase, subdir);
+		filteredContent = new FileCache(getLog(), buildBase, filteredBase,
 				sourceEncoding);
 	}
 
+	public boolean isFilterSources() {
+		return filterSources;
+	}
+
+	/**
+	 * Filter also the XML sources, ie. the files which are not XSL templates,
+	 * while they are parsed.
+	 * <p>
+	 * Unlike the templates, the filtered sources are neither stored nor kept
+	 * in memory, the filter is applied in front of the parser as the source
+	 * is read.
+	 * 
+	 * @param filterSources
+	 *            true to filter the sources
+	 */
+	public void setFilterSources(boolean filterSources) {
+		this.filterSources = filterSources;
+	}
+
+	public XMLReaderPool getXMLReaderPool() {
+		return xmlReaderPool;
+	}
+
+	public void setXMLReaderPool(XMLReaderPool xmlReaderPool) {
+		this.xmlReaderPool = xmlReaderPool;
+	}
+
+	public DocumentPrefetcher getPrefetcher() {
+		return prefetcher;
+	}
+
+	public void setPrefetcher(DocumentPrefetcher prefetcher) {
+		this.prefetcher = prefetcher;
+	}
+
+	/**
+	 * Offer the source of a file parsed ahead, to be returned by the next
+	 * resolution of the file by the current thread.
+	 * <p>
+	 * Serves the documents of the collections parsed ahead, see
+	 * {@link SourceCollection}. The offer is withdrawn by the next resolution
+	 * of any file by the current thread.
+	 * 
+	 * @param file
+	 *            The file
+	 * @param source
+	 *            Its source parsed ahead
+	 */
+	public void offer(File file, Source source) {
+		offered.set(new Object[] { file.getAbsoluteFile(), source });
+	}
+
+	public DocumentCache getDocumentCache() {
+		return documentCache;
+	}
+
+	public void setDocumentCache(DocumentCache documentCache) {
+		this.documentCache = documentCache;
+	}
+
+	public PerformanceReport getReport() {
+		return report;
+	}
+
+	public void setReport(PerformanceReport report) {
+		this.report = report;
+	}
+
 	public Source resolve(String href, String base)
 			throws TransformerConfigurationException {
+		String key = base + KEY_SEPARATOR + href;
+		Object cached = resolutions.get(key);
+		File result;
+		if (null != cached) {
+			resolutionHits.incrementAndGet();
+			if (null != report)
+				report.count("resolver.hits");
+			if (getLog().isDebugEnabled())
+				getLog().debug(
+						"Resolved: " + href + " at base: " + base
+								+ " (cached)");
+			result = NOT_FOUND == cached ? null : (File) cached;
+		} else {
+			resolutionMisses.incrementAndGet();
+			long start = System.nanoTime();
+			result = resolveFile(href, base);
+			resolutions.put(key, null == result ? NOT_FOUND : result);
+			if (null != report) {
+				report.count("resolver.misses");
+				report.addTime(PerformanceReport.RESOLVE, start);
+			}
+		}
+		return null == result ? null : createResolvedSource(result);
+	}
+
+	/**
+	 * Resolve a URI to a file.
+	 * 
+	 * @param href
+	 *            The URI to resolve
+	 * @param base
+	 *            The base URI
+	 * @return The existing file or null when not found
+	 */
+	protected File resolveFile(String href, String base) {
 		if (getLog().isDebugEnabled())
 			getLog().debug("Resolving: " + href + " at base: " + base);
 		// first try to resolve href from received base
 		File result = null;
 		try {
-			File baseFile = new File(new URI(base));
-			result = new File(baseFile.getParentFile(), href);
+			if (href.startsWith(ArchiveReader.JAR_PREFIX)
+					|| (null != base && base.startsWith(ArchiveReader.JAR_PREFIX))) {
+				// file read directly from an archive
+				result = getHelper().getArchiveReader().resolve(href, base);
+			} else if (href.startsWith("file:")) {
+				// absolute file URI, eg. from a collection catalog
+				result = new File(new URI(href));
+			} else {
+				File baseFile = new File(new URI(base));
+				result = new File(baseFile.getParentFile(), href);
+			}
 		} catch (URISyntaxException e) {
 			getLog().warn("Unable to parse URI: " + base);
+		} catch (IllegalArgumentException e) {
+			getLog().warn("Unable to parse URI: " + base);
 		}
 		if (!exists(result))
 			// then try to resolve otherwise
 			result = resolve(href);
-		if (result.exists()) {
-			return createSource(result);
+		return result.exists() ? result : null;
+	}
+
+	/**
+	 * Log the numbers of the resolutions served from the cache and resolved,
+	 * and the statistics of the document cache.
+	 */
+	public void logStatistics() {
+		if (getLog().isDebugEnabled())
+			getLog().debug(
+					"URI resolutions served from cache: "
+							+ resolutionHits.get() + ", resolved: "
+							+ resolutionMisses.get());
+		if (null != documentCache)
+			documentCache.logStatistics();
+	}
+
+	/**
+	 * Create the source of a resolved file, taking it from the documents
+	 * parsed ahead or the document cache when available.
+	 * 
+	 * @param file
+	 * @return Source
+	 * @throws TransformerConfigurationException
+	 */
+	protected Source createResolvedSource(File file)
+			throws TransformerConfigurationException {
+		Object[] offer = (Object[]) offered.get();
+		if (null != offer) {
+			offered.set(null);
+			if (offer[0].equals(file.getAbsoluteFile()))
+				return served(file, (Source) offer[1]);
 		}
-		return null;
+		if (null != prefetcher) {
+			Source source = prefetcher.take(file);
+			if (null != source)
+				return served(file, source);
+		}
+		if (null != documentCache && documentCache.accepts(file)) {
+			record(file);
+			try {
+				return documentCache.get(file, this);
+			} catch (TransformerConfigurationException tce) {
+				throw tce;
+			} catch (Exception e) {
+				e.printStackTrace();
+				throw new TransformerConfigurationException(
+						"Cannot parse document: " + file, e);
+			}
+		}
+		return createSource(file);
+	}
+
+	private Source served(File file, Source source) {
+		if (null != report)
+			report.count("prefetcher.hits");
+		record(file);
+		return source;
 	}
 
 	protected Source createSource(File file)
 			throws TransformerConfigurationException {
+		record(file);
+		if (null != report)
+			report.addBytesRead(file.length());
 		try {
-			Reader reader = new InputStreamReader(new FileInputStream(file),
+			Reader reader = new InputStreamReader(ArchiveEntryFile.open(file),
 					sourceEncoding);
 			reader = wrapInFilter(reader, file);
+			if (null != xmlReaderPool) {
+				InputSource input = new InputSource(reader);
+				input.setSystemId(file.toURI().toString());
+				return xmlReaderPool.createSource(input);
+			}
 			StreamSource source = new StreamSource(reader);
 			source.setSystemId(file);
 			return source;
@@ -120,20 +376,38 @@ public class DefaultURIResolver extends FileResolver implements URIResolver,
 			uee.printStackTrace();
 			throw new TransformerConfigurationException(
 					"Unsupported source encoding: " + sourceEncoding, uee);
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			throw new TransformerConfigurationException("Cannot read file: "
+					+ file, ioe);
 		}
 	}
 
 	private Filter filter;
 
+	/**
+	 * Key identifying the filtering, to validate the cached filtered contents.
+	 */
+	private String filterCacheKey;
+
 	private Reader wrapInFilter(Reader reader, File file)
 			throws TransformerConfigurationException {
 		if (null != filterType) {
 			if (isTemplate(file)) {
-				Reader cached = filteredContent.retrieve(file);
-				if (null != cached)
+				String key = getFilterCacheKey();
+				Reader cached = filteredContent.retrieve(file, key);
+				if (null != report)
+					report.count(null != cached ? "filterCache.hits"
+							: "filterCache.misses");
+				if (null != cached) {
+					IOUtil.close(reader);
 					return cached;
-				reader = performFiltering(reader, file);
-				filteredContent.store(reader, file);
+				}
+				String content = performFiltering(reader, file);
+				filteredContent.store(file, key, content);
+				return new StringReader(content);
+			} else if (filterSources) {
+				return filterSource(reader, file);
 			} else {
 				if (getLog().isDebugEnabled())
 					getLog().debug("File not filtered, not a template: " + file);
@@ -142,31 +416,225 @@ public class DefaultURIResolver extends FileResolver implements URIResolver,
 		return reader;
 	}
 
+	/**
+	 * Filter a source file while it is read, unless the filter is not
+	 * thread-safe: then the file is filtered at once, one file at a time.
+	 */
+	private Reader filterSource(Reader reader, File file)
+			throws TransformerConfigurationException {
+		Filter filter = getFilter();
+		if (!isThreadSafe(filter))
+			return new StringReader(performFiltering(reader, file));
+		try {
+			if (getLog().isDebugEnabled())
+				getLog().debug("Applying filter to source: " + filterType);
+			return filter.filter(reader, file.getPath());
+		} catch (Exception e) {
+			IOUtil.close(reader);
+			e.printStackTrace();
+			throw new TransformerConfigurationException(
+					"Cannot process filter: " + filterType, e);
+		}
+	}
+
 	private boolean isTemplate(File file) {
 		return file.getName().endsWith(".xsl");
 	}
 
-	private Reader performFiltering(Reader reader, File file)
+	// synchronized as the resolver is shared by the worker threads
+	private synchronized Filter getFilter()
 			throws TransformerConfigurationException {
-		try {
-			if (null == filter) {
-				if (getLog().isDebugEnabled())
-					getLog().debug("Initializing filter: " + filterType);
-				filter = (Filter) Class.forName(filterType).newInstance();
-				filter.setMavenProject(getProject());
-				filter.setFileResolver(this);
-				filter.setFilterParameters(filterParameters);
-				filter.init();
+		if (null == filter) {
+			String[] types = StringUtils.split(filterType, ",");
+			if (1 == types.length) {
+				filter = createFilter(types[0].trim());
+			} else {
+				Filter[] filters = new Filter[types.length];
+				for (int i = 0; i < types.length; i++)
+					filters[i] = createFilter(types[i].trim());
+				filter = new FilterChain(filters);
 			}
+		}
+		return filter;
+	}
+
+	/**
+	 * Create and initialize a filter.
+	 * <p>
+	 * The filter is referred to either by the name of a
+	 * {@link StreamingFilter} discovered on the classpath of the plugin, or by
+	 * the name of its class.
+	 * 
+	 * @param type
+	 *            The name of the filter
+	 * @return Filter
+	 * @throws TransformerConfigurationException
+	 */
+	private Filter createFilter(String type)
+			throws TransformerConfigurationException {
+		try {
+			if (getLog().isDebugEnabled())
+				getLog().debug("Initializing filter: " + type);
+			Filter result = findStreamingFilter(type);
+			if (null == result)
+				result = (Filter) Class.forName(type).newInstance();
+			result.setMavenProject(getProject());
+			result.setFileResolver(this);
+			result.setFilterParameters(filterParameters);
+			result.init();
+			return result;
+		} catch (Exception e) {
+			e.printStackTrace();
+			throw new TransformerConfigurationException(
+					"Cannot process filter: " + type, e);
+		}
+	}
+
+	/**
+	 * Find a {@link StreamingFilter} by its name among the ones discovered by
+	 * the ServiceLoader.
+	 * 
+	 * @return A new instance of the filter, null when not found
+	 */
+	private Filter findStreamingFilter(String name) {
+		Iterator iterator = ServiceLoader.load(StreamingFilter.class,
+				StreamingFilter.class.getClassLoader()).iterator();
+		while (iterator.hasNext()) {
+			StreamingFilter candidate = (StreamingFilter) iterator.next();
+			if (name.equals(candidate.getName()))
+				return candidate;
+		}
+		return null;
+	}
+
+	/**
+	 * Return the key of the filtering: the filter type, the filter parameters
+	 * and the cache key of a {@link CacheableFilter}.
+	 */
+	private synchronized String getFilterCacheKey()
+			throws TransformerConfigurationException {
+		if (null == filterCacheKey) {
+			Filter filter = getFilter();
+			StringBuffer key = new StringBuffer();
+			key.append("filter=").append(filterType);
+			key.append(", filterParameters=").append(
+					null == filterParameters ? null : new TreeMap(
+							filterParameters));
+			if (filter instanceof CacheableFilter)
+				key.append(", ").append(((CacheableFilter) filter).getCacheKey());
+			filterCacheKey = key.toString();
+		}
+		return filterCacheKey;
+	}
+
+	/**
+	 * Filter a file, one file at a time unless the filter is thread-safe.
+	 */
+	private String performFiltering(Reader reader, File file)
+			throws TransformerConfigurationException {
+		Filter filter = getFilter();
+		if (isThreadSafe(filter))
+			return performFiltering(filter, reader, file);
+		synchronized (filter) {
+			return performFiltering(filter, reader, file);
+		}
+	}
+
+	private String performFiltering(Filter filter, Reader reader, File file)
+			throws TransformerConfigurationException {
+		long start = System.nanoTime();
+		try {
 			if (getLog().isDebugEnabled())
 				getLog().debug("Applying filter: " + filterType);
-			reader = filter.filter(reader, file.getPath());
+			return IOUtil.toString(filter.filter(reader, file.getPath()));
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw new TransformerConfigurationException(
 					"Cannot process filter: " + filterType, e);
+		} finally {
+			IOUtil.close(reader);
+			if (null != report)
+				report.addTime(PerformanceReport.FILTER, start);
+		}
+	}
+
+	private boolean isThreadSafe(Filter filter) {
+		return filter instanceof StreamingFilter
+				&& ((StreamingFilter) filter).isThreadSafe();
+	}
+
+	/**
+	 * Files resolved by the current thread since recording started, null when
+	 * not recording.
+	 */
+	private final ThreadLocal recorded = new ThreadLocal();
+
+	/**
+	 * Start recording the files resolved as sources by the current thread.
+	 */
+	public void startRecording() {
+		recorded.set(new ArrayList());
+	}
+
+	/**
+	 * Stop recording the files resolved by the current thread.
+	 * 
+	 * @return List of Files resolved since the recording started, in the
+	 *         order of resolution, without duplicates
+	 */
+	public List stopRecording() {
+		List result = (List) recorded.get();
+		recorded.set(null);
+		return null == result ? new ArrayList() : result;
+	}
+
+	private void record(File file) {
+		if (file instanceof ArchiveEntryFile)
+			// depends on the whole archive
+			file = ((ArchiveEntryFile) file).getArchive();
+		List list = (List) recorded.get();
+		if (null != list && !list.contains(file))
+			list.add(file);
+	}
+
+	/**
+	 * Return a key identifying the configuration of the resolver.
+	 * <p>
+	 * Two resolvers with the same key resolve and filter the same path to the
+	 * same content.
+	 * 
+	 * @return String
+	 */
+	public String getConfigurationKey() {
+		return "sourceEncoding=" + sourceEncoding + ", filter=" + filterType
+				+ ", filterParameters="
+				+ (null == filterParameters ? null : new TreeMap(
+						filterParameters))
+				+ (filterSources ? ", filterSources=true" : "")
+				+ (null == xmlReaderPool ? "" : ", "
+						+ xmlReaderPool.getConfigurationKey());
+	}
+
+	/**
+	 * Create the source of a transformation, reading the file through the
+	 * filter when filtering the sources.
+	 * <p>
+	 * The file is not recorded as a resolved file.
+	 * 
+	 * @param file
+	 *            The source file
+	 * @return Source
+	 * @throws TransformerConfigurationException
+	 */
+	public Source createFilteredSource(File file)
+			throws TransformerConfigurationException {
+		List list = (List) recorded.get();
+		recorded.set(null);
+		try {
+			return createSource(file);
+		} finally {
+			recorded.set(list);
 		}
-		return reader;
 	}
 
 	public Source resolveAsSource(String filePath)
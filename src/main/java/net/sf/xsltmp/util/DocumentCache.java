@@ -0,0 +1,185 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.SelectorUtils;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Cache of parsed documents, shared by the transformations of an execution.
+ * <p>
+ * Keeps the documents loaded by the transformations (eg. by the
+ * <code>document()</code> function) as {@link SAXBuffer}s, so that a document
+ * used by many transformations is parsed once. Only the files matching the
+ * include patterns are cached. The patterns are matched against the path of
+ * the file relative to the project base directory, or its absolute path when
+ * outside of it.
+ * <p>
+ * A cached document is served as long as the last modification time and the
+ * length of its file are unchanged. The documents take at most the given
+ * amount of memory, the least recently used ones are evicted first.
+ * <p>
+ * Thread-safe.
+ */
+public class DocumentCache {
+
+	/**
+	 * Maven log.
+	 */
+	private final Log log;
+
+	/**
+	 * The project base directory.
+	 */
+	private final File basedir;
+
+	/**
+	 * Patterns of the files to cache.
+	 */
+	private final String[] includes;
+
+	/**
+	 * Maximum size of the cached documents, in bytes.
+	 */
+	private final long maxSize;
+
+	/**
+	 * Cached documents by File, in the order of use.
+	 */
+	private final Map documents = new LinkedHashMap(16, 0.75f, true);
+
+	private long size = 0;
+	private int hits = 0;
+	private int misses = 0;
+	private int evictions = 0;
+
+	/**
+	 * Create document cache.
+	 *
+	 * @param log
+	 *            Maven log
+	 * @param basedir
+	 *            The project base directory
+	 * @param includes
+	 *            Comma-separated patterns of the files to cache
+	 * @param maxSize
+	 *            Maximum size of the cached documents, in bytes
+	 */
+	public DocumentCache(Log log, File basedir, String includes, long maxSize) {
+		this.log = log;
+		this.basedir = basedir;
+		String[] patterns = StringUtils.split(includes, ",");
+		for (int i = 0; i < patterns.length; i++)
+			patterns[i] = patterns[i].trim().replace('/', File.separatorChar)
+					.replace('\\', File.separatorChar);
+		this.includes = patterns;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Is the file cached?
+	 *
+	 * @param file
+	 *            The file
+	 * @return true iff the file matches the include patterns
+	 */
+	public boolean accepts(File file) {
+		String path = getPath(file);
+		for (int i = 0; i < includes.length; i++)
+			if (SelectorUtils.matchPath(includes[i], path))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Get the source of a document, parsing and caching it when not cached.
+	 *
+	 * @param file
+	 *            The file of the document
+	 * @param resolver
+	 *            The resolver creating the source to parse
+	 * @return Source replaying the parsed document
+	 * @throws Exception
+	 *             When the document cannot be parsed
+	 */
+	public Source get(File file, DefaultURIResolver resolver) throws Exception {
+		long lastModified = file.lastModified();
+		long length = file.length();
+		String systemId = file.toURI().toString();
+		synchronized (this) {
+			Document document = (Document) documents.get(file);
+			if (null != document && document.lastModified == lastModified
+					&& document.length == length) {
+				hits++;
+				count(resolver, "documentCache.hits");
+				return document.buffer.createSource(systemId);
+			}
+			misses++;
+		}
+		count(resolver, "documentCache.misses");
+		Source source = resolver.createSource(file);
+		if (!(source instanceof SAXSource))
+			return source;
+		SAXBuffer buffer = new SAXBuffer();
+		buffer.parse((SAXSource) source);
+		put(file, new Document(buffer, lastModified, length));
+		return buffer.createSource(systemId);
+	}
+
+	/**
+	 * Log the numbers of the documents served from the cache and parsed.
+	 */
+	public synchronized void logStatistics() {
+		if (log.isDebugEnabled())
+			log.debug("Cached documents served: " + hits + ", parsed: "
+					+ misses + ", evicted: " + evictions + ", cached: "
+					+ documents.size() + " of " + size + " bytes");
+	}
+
+	private void count(DefaultURIResolver resolver, String counter) {
+		if (null != resolver.getReport())
+			resolver.getReport().count(counter);
+	}
+
+	private synchronized void put(File file, Document document) {
+		if (document.buffer.getSize() > maxSize)
+			return;
+		Document previous = (Document) documents.put(file, document);
+		if (null != previous)
+			size -= previous.buffer.getSize();
+		size += document.buffer.getSize();
+		for (Iterator iterator = documents.values().iterator(); size > maxSize
+				&& iterator.hasNext();) {
+			Document eldest = (Document) iterator.next();
+			iterator.remove();
+			size -= eldest.buffer.getSize();
+			evictions++;
+		}
+	}
+
+	private String getPath(File file) {
+		String path = file.getAbsolutePath();
+		String base = basedir.getAbsolutePath() + File.separator;
+		return path.startsWith(base) ? path.substring(base.length()) : path;
+	}
+
+	private static class Document {
+		private final SAXBuffer buffer;
+		private final long lastModified;
+		private final long length;
+
+		public Document(SAXBuffer buffer, long lastModified, long length) {
+			this.buffer = buffer;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+	}
+
+}
@@ -0,0 +1,170 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Parses a known sequence of documents ahead of the transformation.
+ * <p>
+ * While the transformation reads the documents one by one in the expected
+ * order, the worker threads parse the following documents into
+ * {@link SAXBuffer}s. Only a window of documents following the last
+ * requested one is parsed ahead, which bounds the memory used. Each parsed
+ * document is handed out once, then forgotten.
+ * <p>
+ * Nothing is parsed until the first document of the sequence is requested,
+ * so that no document is parsed in vain when the transformation does not
+ * load the documents, eg. a template reading the collection of the source
+ * files rather than loading them by the <code>document()</code> function.
+ * <p>
+ * A document requested out of the order, requested again or failed to parse
+ * is not served, the caller parses it as usual.
+ */
+public class DocumentPrefetcher {
+
+	private final Log log;
+	private final DefaultURIResolver resolver;
+	private final WorkerPool pool;
+	private final List files;
+	private final int window;
+
+	/**
+	 * Indexes of the files in the sequence, by normalized URI.
+	 */
+	private final Map indexes = new HashMap();
+
+	/**
+	 * Futures of the SAXBuffers being parsed or parsed and not requested yet,
+	 * by index.
+	 */
+	private final Map pending = new HashMap();
+
+	/**
+	 * Index of the next file to parse.
+	 */
+	private int next = 0;
+
+	private int hits = 0;
+	private int misses = 0;
+
+	/**
+	 * Create prefetcher.
+	 *
+	 * @param log
+	 *            Maven log
+	 * @param resolver
+	 *            The resolver creating the sources of the files
+	 * @param pool
+	 *            Parallel worker pool parsing the files
+	 * @param files
+	 *            List of Files in the expected order of the requests
+	 * @param window
+	 *            Maximum number of documents parsed ahead
+	 */
+	public DocumentPrefetcher(Log log, DefaultURIResolver resolver,
+			WorkerPool pool, List files, int window) {
+		this.log = log;
+		this.resolver = resolver;
+		this.pool = pool;
+		this.files = files;
+		this.window = Math.max(1, window);
+		int i = 0;
+		for (Iterator iterator = files.iterator(); iterator.hasNext(); i++)
+			indexes.put(getKey((File) iterator.next()), new Integer(i));
+	}
+
+	/**
+	 * Take the parsed document of a file.
+	 *
+	 * @param file
+	 *            The file
+	 * @return Source replaying the parsed document, null when the file is
+	 *         not served
+	 */
+	public synchronized Source take(File file) {
+		Integer index = (Integer) indexes.get(getKey(file));
+		if (null == index)
+			return null;
+		int requested = index.intValue();
+		// the documents skipped by the transformation are not needed
+		for (Iterator iterator = pending.keySet().iterator(); iterator
+				.hasNext();) {
+			Integer key = (Integer) iterator.next();
+			if (key.intValue() < requested) {
+				((Future) pending.get(key)).cancel(false);
+				iterator.remove();
+			}
+		}
+		next = Math.max(next, requested);
+		while (next < files.size() && next <= requested + window)
+			schedule(next++);
+		Future future = (Future) pending.remove(index);
+		if (null == future) {
+			misses++;
+			count("prefetcher.misses");
+			return null;
+		}
+		try {
+			SAXBuffer buffer = (SAXBuffer) future.get();
+			hits++;
+			return buffer.createSource(file.toURI().toString());
+		} catch (ExecutionException ee) {
+			if (log.isDebugEnabled())
+				log.debug("Prefetching failed, parsing again: " + file + ": "
+						+ ee.getCause());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		misses++;
+		count("prefetcher.misses");
+		return null;
+	}
+
+	/**
+	 * Stop parsing and forget the parsed documents.
+	 */
+	public synchronized void stop() {
+		for (Iterator iterator = pending.values().iterator(); iterator
+				.hasNext();)
+			((Future) iterator.next()).cancel(false);
+		pending.clear();
+		if (log.isDebugEnabled())
+			log.debug("Prefetched documents served: " + hits
+					+ ", parsed again: " + misses);
+	}
+
+	private void count(String counter) {
+		if (null != resolver.getReport())
+			resolver.getReport().count(counter);
+	}
+
+	private URI getKey(File file) {
+		return file.getAbsoluteFile().toURI().normalize();
+	}
+
+	private void schedule(int index) {
+		final File file = (File) files.get(index);
+		pending.put(new Integer(index), pool.schedule(new Callable() {
+			public Object call() throws Exception {
+				Source source = resolver.createSource(file);
+				SAXBuffer buffer = new SAXBuffer();
+				buffer.parse((SAXSource) source);
+				count("prefetcher.parsed");
+				return buffer;
+			}
+		}));
+	}
+
+}
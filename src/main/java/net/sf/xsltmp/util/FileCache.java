@@ -1,21 +1,36 @@
 package net.sf.xsltmp.util;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.maven.plugin.logging.Log;
 import org.codehaus.plexus.util.FileUtils;
-import org.codehaus.plexus.util.IOUtil;
 
 /**
  * Stores processed contents of files in a file cache to prevent duplicate
  * processing.
+ * <p>
+ * The processed content is stored along with a key identifying the
+ * processing, eg. the configuration of a filter and the checksum of its
+ * resources, and with the checksum of the source file. It is retrieved only
+ * when both the key and the checksum match, so that a changed source file or
+ * a changed processing is never served an outdated content.
+ * <p>
+ * The retrieved contents are kept in memory in front of the stored files, as
+ * long as the last modification time and the length of the source file do
+ * not change.
  */
 public class FileCache {
 
+	private static final String KEY_SUFFIX = ".key";
+	private static final String KEY_ENCODING = "UTF-8";
+
+	private static final ChecksumUtils CHECKSUM_UTILS = new ChecksumUtils();
+
 	/**
 	 * Maven log.
 	 */
@@ -25,9 +40,14 @@ public class FileCache {
 	private final File storeAt;
 	private final String encoding;
 
+	/**
+	 * Contents kept in memory, by source file.
+	 */
+	private final Map contents = new HashMap();
+
 	/**
 	 * Create file cache.
-	 * 
+	 *
 	 * @param log
 	 *            Maven log
 	 * @param rebaseTo
@@ -46,22 +66,26 @@ public class FileCache {
 
 	/**
 	 * Store the processed content of the source file in the cache.
-	 * 
-	 * @param contentReader
-	 *            Reader of the processed content
+	 *
 	 * @param sourceFile
 	 *            The source file (that was processed)
+	 * @param key
+	 *            Key identifying the processing
+	 * @param content
+	 *            The processed content
 	 */
-	public void store(Reader contentReader, File sourceFile) {
+	public synchronized void store(File sourceFile, String key, String content) {
 		try {
+			String fullKey = getFullKey(sourceFile, key);
+			contents.put(sourceFile, new Content(sourceFile, fullKey, content));
 			File stored = getStored(sourceFile);
 			if (null != stored) {
 				if (log.isDebugEnabled())
 					log.debug("Storing content in file cache at " + stored);
 				stored.getParentFile().mkdirs();
-				String content = IOUtil.toString(contentReader);
 				FileUtils.fileWrite(stored.getPath(), encoding, content);
-				contentReader.reset();
+				FileUtils.fileWrite(stored.getPath() + KEY_SUFFIX,
+						KEY_ENCODING, fullKey);
 			} else {
 				if (log.isDebugEnabled())
 					log.debug("File cannot be rebased, content not stored "
@@ -74,19 +98,41 @@ public class FileCache {
 
 	/**
 	 * Retrieve the processed content of a file.
-	 * 
+	 *
 	 * @param sourceFile
 	 *            The file whose processed content to retrieve
-	 * @return A Reader for the processed content of the file
+	 * @param key
+	 *            Key identifying the processing
+	 * @return A new Reader for the processed content of the file, null when
+	 *         not cached or outdated
 	 */
-	public Reader retrieve(File sourceFile) {
+	public synchronized Reader retrieve(File sourceFile, String key) {
+		Content content = (Content) contents.get(sourceFile);
+		if (null != content && content.isUpToDate(sourceFile, key)) {
+			if (log.isDebugEnabled())
+				log.debug("Retrieving content in memory cache for "
+						+ sourceFile);
+			return new StringReader(content.content);
+		}
+		contents.remove(sourceFile);
 		try {
 			File stored = getStored(sourceFile);
-			if (null != stored && stored.exists()) {
+			File storedKey = null == stored ? null : new File(stored.getPath()
+					+ KEY_SUFFIX);
+			if (null != stored && stored.exists() && storedKey.exists()) {
+				String fullKey = getFullKey(sourceFile, key);
+				if (!fullKey.equals(FileUtils.fileRead(storedKey,
+						KEY_ENCODING))) {
+					if (log.isDebugEnabled())
+						log.debug("Outdated content in file cache at " + stored);
+					return null;
+				}
 				if (log.isDebugEnabled())
 					log.debug("Retrieving content in file cache at " + stored);
-				return new InputStreamReader(new FileInputStream(stored),
-						encoding);
+				content = new Content(sourceFile, fullKey, FileUtils.fileRead(
+						stored, encoding));
+				contents.put(sourceFile, content);
+				return new StringReader(content.content);
 			}
 		} catch (IOException ioe) {
 			log.error("Cannot retrieve content for file " + sourceFile, ioe);
@@ -94,6 +140,10 @@ public class FileCache {
 		return null;
 	}
 
+	private String getFullKey(File sourceFile, String key) throws IOException {
+		return "checksum=" + CHECKSUM_UTILS.checksum(sourceFile) + ", " + key;
+	}
+
 	private File getStored(File sourceFile) throws IOException {
 		String rebase = rebaseTo.getCanonicalPath();
 		String filePath = sourceFile.getCanonicalPath();
@@ -104,4 +154,32 @@ public class FileCache {
 		}
 		return null;
 	}
+
+	/**
+	 * Processed content kept in memory.
+	 */
+	private static class Content {
+		private final long lastModified;
+		private final long length;
+		private final String fullKey;
+		private final String content;
+
+		public Content(File sourceFile, String fullKey, String content) {
+			this.lastModified = sourceFile.lastModified();
+			this.length = sourceFile.length();
+			this.fullKey = fullKey;
+			this.content = content;
+		}
+
+		/**
+		 * Is it the content of the unchanged source file processed the same
+		 * way?
+		 */
+		public boolean isUpToDate(File sourceFile, String key) {
+			return lastModified == sourceFile.lastModified()
+					&& length == sourceFile.length()
+					&& fullKey.endsWith(", " + key);
+		}
+	}
+
 }
@@ -0,0 +1,55 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replaces files by temporary files written next to them, so that a replaced
+ * file is never missing nor seen half-written.
+ * <p>
+ * When the runtime provides <code>java.nio.file</code>, the temporary file is
+ * moved over the file atomically. Otherwise it is renamed to the file; where
+ * a file cannot be renamed over an existing one, the existing file is renamed
+ * aside first and restored when the temporary file cannot be renamed.
+ */
+class FileReplacer {
+
+	/**
+	 * Move the files by <code>java.nio.file</code>?
+	 */
+	private static final boolean NIO = NioDirectoryLister.isAvailable();
+
+	/**
+	 * Replace a file.
+	 *
+	 * @param tempFile
+	 *            The temporary file with the new content, in the directory of
+	 *            the file
+	 * @param file
+	 *            The file to replace, need not exist
+	 * @throws IOException
+	 *             The file cannot be replaced, it is left untouched
+	 */
+	static void replace(File tempFile, File file) throws IOException {
+		if (NIO) {
+			NioFileMover.move(tempFile, file);
+			return;
+		}
+		if (tempFile.renameTo(file))
+			return;
+		if (!file.exists())
+			throw new IOException("Cannot rename " + tempFile + " to " + file);
+		// cannot rename over an existing file on some platforms
+		File aside = File.createTempFile("." + file.getName() + "-", ".old",
+				file.getParentFile());
+		aside.delete();
+		if (!file.renameTo(aside))
+			throw new IOException("Cannot replace " + file);
+		if (!tempFile.renameTo(file)) {
+			aside.renameTo(file);
+			throw new IOException("Cannot rename " + tempFile + " to " + file);
+		}
+		aside.delete();
+	}
+
+}
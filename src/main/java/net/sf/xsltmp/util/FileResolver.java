@@ -19,7 +19,13 @@ import org.apache.maven.project.MavenProject;
  * Then iterates over all compile classpath elements and tries to relate the
  * path to each one of them. If the classpath element is not a directory, but an
  * archive file, tries to extract the requested file from the archive. See
- * {@link UnArchiverHelper} for details on how extract is performed.
+ * {@link UnArchiverHelper} for details on how extract is performed. The
+ * archives are looked up in a {@link ClasspathIndex}, only the archive
+ * containing the file is extracted from.
+ * <p>
+ * Unless the files are read directly from the archives, a path not found in
+ * the classpath is finally tried relative to the paths within the archives
+ * where files were found previously.
  */
 public class FileResolver {
 
@@ -38,6 +44,11 @@ public class FileResolver {
 	 */
 	private final UnArchiverHelper helper;
 
+	/**
+	 * Index of the files on the compile classpath.
+	 */
+	private final ClasspathIndex classpathIndex;
+
 	/**
 	 * Constructor.
 	 * 
@@ -52,6 +63,7 @@ public class FileResolver {
 		this.log = log;
 		this.project = project;
 		this.helper = helper;
+		this.classpathIndex = new ClasspathIndex(log);
 	}
 
 	public Log getLog() {
@@ -66,6 +78,10 @@ public class FileResolver {
 		return helper;
 	}
 
+	public ClasspathIndex getClasspathIndex() {
+		return classpathIndex;
+	}
+
 	/**
 	 * Get a file path as a File.
 	 * 
@@ -89,18 +105,12 @@ public class FileResolver {
 		// then in classpath
 		try {
 			List classpaths = getProject().getCompileClasspathElements();
-			for (Iterator iterator = classpaths.iterator(); iterator.hasNext();) {
-				File classpath = new File((String) iterator.next());
-				if (classpath.isFile()) {
-					// get from dependency archive file
-					result = getHelper().getFile(classpath, filePath);
-				} else {
-					// get from classpath directory
-					result = new File(classpath, filePath);
-				}
-				if (exists(result))
-					return result;
-			}
+			getClasspathIndex().update(classpaths);
+			File found = getClasspathIndex().find(filePath, prober);
+			if (null == found && !getHelper().isReadDirectly())
+				found = resolveInValidSubdirs(filePath);
+			if (null != found)
+				return found;
 		} catch (DependencyResolutionRequiredException e) {
 			getLog().warn(
 					"Dependencies must be resolved first, could not locate "
@@ -110,6 +120,48 @@ public class FileResolver {
 		return result;
 	}
 
+	/**
+	 * Gets a file from a classpath element, extracting it from an archive.
+	 */
+	private final ClasspathIndex.Prober prober = new ClasspathIndex.Prober() {
+		public File probe(File element, String filePath) {
+			File result;
+			if (element.isFile()) {
+				// get from dependency archive file
+				result = getHelper().getFile(element, filePath);
+			} else {
+				// get from classpath directory
+				result = new File(element, filePath);
+			}
+			return exists(result) ? result : null;
+		}
+	};
+
+	/**
+	 * Get a file relative to the paths within the archives where files were
+	 * found previously.
+	 * 
+	 * @param filePath
+	 *            The relative path of the file
+	 * @return The File or null when not found
+	 */
+	private File resolveInValidSubdirs(String filePath) {
+		for (Iterator iterator = getClasspathIndex().getArchives().iterator(); iterator
+				.hasNext();) {
+			File archive = (File) iterator.next();
+			for (Iterator it = getHelper().getValidSubdirs(archive).iterator(); it
+					.hasNext();) {
+				String path = new File((String) it.next(), filePath).getPath();
+				if (getClasspathIndex().contains(archive, path)) {
+					File result = getHelper().getFile(archive, path);
+					if (exists(result))
+						return result;
+				}
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Check existence of a file. Returns true iff the file exists.
 	 * 
@@ -0,0 +1,93 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Lists a directory with <code>java.nio.file</code>, reading the type, the
+ * last modification time and the length of each entry in the same pass.
+ * <p>
+ * Loaded only when the runtime provides <code>java.nio.file</code>, see
+ * {@link #isAvailable()}.
+ */
+class NioDirectoryLister {
+
+	private static final LinkOption[] FOLLOW_LINKS = new LinkOption[0];
+
+	/**
+	 * Is <code>java.nio.file</code> available in this runtime?
+	 *
+	 * @return true iff this class can be used
+	 */
+	static boolean isAvailable() {
+		try {
+			Class.forName("java.nio.file.Files");
+			return true;
+		} catch (ClassNotFoundException cnfe) {
+			return false;
+		} catch (LinkageError le) {
+			return false;
+		}
+	}
+
+	/**
+	 * List a directory.
+	 * <p>
+	 * The links are followed, as by {@link File#isDirectory()}. An entry whose
+	 * attributes cannot be read, eg. a broken link, is listed as a file with
+	 * null attributes.
+	 *
+	 * @param dir
+	 *            The directory
+	 * @param dirs
+	 *            List to add the names of the subdirectories to
+	 * @param files
+	 *            List to add the names of the files to
+	 * @param stats
+	 *            List to add the last modification time and the length of
+	 *            each file to, as <code>long[2]</code>, in the order of the
+	 *            files
+	 * @throws IOException
+	 *             The directory cannot be listed
+	 */
+	static void list(File dir, List dirs, List files, List stats)
+			throws IOException {
+		DirectoryStream stream = Files.newDirectoryStream(dir.toPath());
+		try {
+			for (Iterator i = stream.iterator(); i.hasNext();) {
+				Path child = (Path) i.next();
+				String name = child.getFileName().toString();
+				BasicFileAttributes attributes;
+				try {
+					attributes = (BasicFileAttributes) Files.readAttributes(
+							child, BasicFileAttributes.class, FOLLOW_LINKS);
+				} catch (IOException ioe) {
+					files.add(name);
+					stats.add(null);
+					continue;
+				}
+				if (attributes.isDirectory()) {
+					dirs.add(name);
+				} else {
+					files.add(name);
+					stats.add(new long[] {
+							attributes.lastModifiedTime().toMillis(),
+							attributes.size() });
+				}
+			}
+		} catch (DirectoryIteratorException die) {
+			throw die.getCause();
+		} finally {
+			stream.close();
+		}
+	}
+
+}
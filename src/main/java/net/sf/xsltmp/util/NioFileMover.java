@@ -0,0 +1,43 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.CopyOption;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Moves files with <code>java.nio.file</code>.
+ * <p>
+ * Loaded only when the runtime provides <code>java.nio.file</code>, see
+ * {@link NioDirectoryLister#isAvailable()}.
+ */
+class NioFileMover {
+
+	private static final CopyOption[] ATOMIC = new CopyOption[] {
+			StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE };
+
+	private static final CopyOption[] REPLACE = new CopyOption[] { StandardCopyOption.REPLACE_EXISTING };
+
+	/**
+	 * Move a file, replacing the target atomically when the file system
+	 * supports it.
+	 *
+	 * @param source
+	 *            The file to move
+	 * @param target
+	 *            The file to replace
+	 * @throws IOException
+	 *             The file cannot be moved
+	 */
+	static void move(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), ATOMIC);
+		} catch (AtomicMoveNotSupportedException amnse) {
+			Files.move(source.toPath(), target.toPath(), REPLACE);
+		}
+	}
+
+}
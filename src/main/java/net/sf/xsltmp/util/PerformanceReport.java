@@ -0,0 +1,341 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Performance report of an execution, written as a JSON file.
+ * <p>
+ * Collects the time spent in the phases of the execution, the durations of
+ * the transformations of the source files, the numbers of hits and misses of
+ * the caches and the numbers of bytes read and written. The times of the
+ * phases are summed over the worker threads and some of the phases nest, eg.
+ * compiling a template includes resolving and filtering its files, so they do
+ * not add up to the wall time of the execution.
+ * <p>
+ * Only the slowest transformations are listed individually, the others are
+ * summed up, so that the report of an execution of any size stays small.
+ * <p>
+ * Thread-safe.
+ */
+public class PerformanceReport {
+
+	/**
+	 * Version of the format of the report, increased on incompatible changes.
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	public static final String SCAN = "scan";
+	public static final String RESOLVE = "resolve";
+	public static final String FILTER = "filter";
+	public static final String COMPILE = "compile";
+	public static final String TRANSFORM = "transform";
+	public static final String WRITE = "write";
+
+	private static final String[] PHASES = { SCAN, RESOLVE, FILTER, COMPILE,
+			TRANSFORM, WRITE };
+
+	private static final String ENCODING = "UTF-8";
+
+	private final long startTime = System.currentTimeMillis();
+	private final long startNanos = System.nanoTime();
+
+	/**
+	 * Number of the slowest transformations to list.
+	 */
+	private final int slowestCount;
+
+	/**
+	 * Time spent in the phases, AtomicLong nanoseconds by phase.
+	 */
+	private final Map phases = new ConcurrentHashMap();
+
+	/**
+	 * Counters, AtomicLong by name of the form
+	 * <code>&lt;cache&gt;.&lt;event&gt;</code>.
+	 */
+	private final Map counters = new ConcurrentHashMap();
+
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
+
+	private long transforms = 0;
+	private long transformNanos = 0;
+
+	/**
+	 * The slowest transformations, the fastest of them first.
+	 */
+	private final PriorityQueue slowest = new PriorityQueue(11,
+			new Comparator() {
+				public int compare(Object o1, Object o2) {
+					long n1 = ((Transform) o1).nanos;
+					long n2 = ((Transform) o2).nanos;
+					return n1 < n2 ? -1 : n1 == n2 ? 0 : 1;
+				}
+			});
+
+	/**
+	 * Create performance report.
+	 *
+	 * @param slowestCount
+	 *            Number of the slowest transformations to list
+	 */
+	public PerformanceReport(int slowestCount) {
+		this.slowestCount = slowestCount;
+		for (int i = 0; i < PHASES.length; i++)
+			phases.put(PHASES[i], new AtomicLong());
+	}
+
+	/**
+	 * Add the time spent in a phase.
+	 *
+	 * @param phase
+	 *            One of the phases, eg. {@link #RESOLVE}
+	 * @param startNanos
+	 *            The start of the phase, by {@link System#nanoTime()}
+	 */
+	public void addTime(String phase, long startNanos) {
+		((AtomicLong) phases.get(phase)).addAndGet(System.nanoTime()
+				- startNanos);
+	}
+
+	/**
+	 * Increase a counter by one.
+	 *
+	 * @param counter
+	 *            Name of the counter, eg. <code>templatesCache.hits</code>
+	 */
+	public void count(String counter) {
+		count(counter, 1);
+	}
+
+	/**
+	 * Increase a counter.
+	 *
+	 * @param counter
+	 *            Name of the counter, eg. <code>templatesCache.hits</code>
+	 * @param delta
+	 *            The increase
+	 */
+	public void count(String counter, long delta) {
+		AtomicLong value = (AtomicLong) counters.get(counter);
+		if (null == value) {
+			synchronized (counters) {
+				value = (AtomicLong) counters.get(counter);
+				if (null == value) {
+					value = new AtomicLong();
+					counters.put(counter, value);
+				}
+			}
+		}
+		value.addAndGet(delta);
+	}
+
+	/**
+	 * Return the value of a counter.
+	 *
+	 * @param counter
+	 *            Name of the counter, eg. <code>templatesCache.hits</code>
+	 * @return The value, 0 when never increased
+	 */
+	public long getCounter(String counter) {
+		AtomicLong value = (AtomicLong) counters.get(counter);
+		return null == value ? 0 : value.get();
+	}
+
+	public void addBytesRead(long bytes) {
+		bytesRead.addAndGet(bytes);
+	}
+
+	public void addBytesWritten(long bytes) {
+		bytesWritten.addAndGet(bytes);
+	}
+
+	/**
+	 * Record the transformation of a source file. Its time is added to the
+	 * transform phase.
+	 *
+	 * @param sourceFileName
+	 *            Name of the source file
+	 * @param startNanos
+	 *            The start of the transformation, by {@link System#nanoTime()}
+	 */
+	public void recordTransform(String sourceFileName, long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		((AtomicLong) phases.get(TRANSFORM)).addAndGet(nanos);
+		synchronized (slowest) {
+			transforms++;
+			transformNanos += nanos;
+			if (slowestCount <= 0)
+				return;
+			if (slowest.size() < slowestCount)
+				slowest.add(new Transform(sourceFileName, nanos));
+			else if (((Transform) slowest.peek()).nanos < nanos) {
+				slowest.poll();
+				slowest.add(new Transform(sourceFileName, nanos));
+			}
+		}
+	}
+
+	/**
+	 * Write the report to a file.
+	 *
+	 * @param file
+	 *            The file
+	 * @param header
+	 *            Values identifying the execution, written first, String or
+	 *            Number by name
+	 * @throws IOException
+	 */
+	public void write(File file, Map header) throws IOException {
+		file.getParentFile().mkdirs();
+		FileUtils.fileWrite(file.getPath(), ENCODING, toJson(header));
+	}
+
+	/**
+	 * Return the report in JSON.
+	 *
+	 * @param header
+	 *            Values identifying the execution, written first, String or
+	 *            Number by name
+	 * @return String
+	 */
+	public String toJson(Map header) {
+		StringBuffer json = new StringBuffer();
+		json.append("{\n");
+		json.append("  \"formatVersion\": ").append(FORMAT_VERSION).append(
+				",\n");
+		for (Iterator iterator = header.entrySet().iterator(); iterator
+				.hasNext();) {
+			Map.Entry entry = (Map.Entry) iterator.next();
+			json.append("  ").append(quote((String) entry.getKey())).append(
+					": ").append(value(entry.getValue())).append(",\n");
+		}
+		json.append("  \"startTime\": ").append(quote(formatTime(startTime)))
+				.append(",\n");
+		json.append("  \"wallMillis\": ").append(
+				millis(System.nanoTime() - startNanos)).append(",\n");
+		json.append("  \"phaseMillis\": {");
+		for (int i = 0; i < PHASES.length; i++) {
+			json.append(i > 0 ? ", " : " ").append(quote(PHASES[i])).append(
+					": ").append(
+					millis(((AtomicLong) phases.get(PHASES[i])).get()));
+		}
+		json.append(" },\n");
+		List slowestTransforms;
+		synchronized (slowest) {
+			json.append("  \"transforms\": { \"count\": ").append(transforms)
+					.append(", \"totalMillis\": ")
+					.append(millis(transformNanos)).append(
+							", \"meanMillis\": ").append(
+							millis(transforms == 0 ? 0 : transformNanos
+									/ transforms)).append(" },\n");
+			slowestTransforms = new ArrayList(slowest);
+		}
+		Collections.sort(slowestTransforms, Collections
+				.reverseOrder(slowest.comparator()));
+		json.append("  \"slowestTransforms\": [");
+		for (int i = 0; i < slowestTransforms.size(); i++) {
+			Transform transform = (Transform) slowestTransforms.get(i);
+			json.append(i > 0 ? "," : "").append("\n    { \"file\": ")
+					.append(quote(transform.sourceFileName)).append(
+							", \"millis\": ").append(millis(transform.nanos))
+					.append(" }");
+		}
+		json.append(slowestTransforms.isEmpty() ? "],\n" : "\n  ],\n");
+		json.append("  \"counters\": {");
+		String group = null;
+		for (Iterator iterator = new TreeMap(counters).entrySet().iterator(); iterator
+				.hasNext();) {
+			Map.Entry entry = (Map.Entry) iterator.next();
+			String name = (String) entry.getKey();
+			int separator = name.indexOf('.');
+			String cache = separator < 0 ? name : name.substring(0, separator);
+			String event = name.substring(separator + 1);
+			if (!cache.equals(group)) {
+				json.append(null == group ? "\n" : " },\n");
+				json.append("    ").append(quote(cache)).append(": { ");
+				group = cache;
+			} else {
+				json.append(", ");
+			}
+			json.append(quote(event)).append(": ").append(
+					((AtomicLong) entry.getValue()).get());
+		}
+		json.append(null == group ? "},\n" : " }\n  },\n");
+		json.append("  \"bytes\": { \"read\": ").append(bytesRead.get())
+				.append(", \"written\": ").append(bytesWritten.get()).append(
+						" }\n");
+		json.append("}\n");
+		return json.toString();
+	}
+
+	private static String millis(long nanos) {
+		return String.valueOf(nanos / 1000000L);
+	}
+
+	private static String formatTime(long time) {
+		SimpleDateFormat format = new SimpleDateFormat(
+				"yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(new Date(time));
+	}
+
+	private static String value(Object value) {
+		if (value instanceof Number || value instanceof Boolean)
+			return value.toString();
+		return null == value ? "null" : quote(value.toString());
+	}
+
+	/**
+	 * Quote a string as a JSON string.
+	 */
+	private static String quote(String s) {
+		StringBuffer result = new StringBuffer(s.length() + 2);
+		result.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				result.append('\\').append(c);
+			else if (c == '\n')
+				result.append("\\n");
+			else if (c == '\r')
+				result.append("\\r");
+			else if (c == '\t')
+				result.append("\\t");
+			else if (c < 0x20) {
+				String hex = Integer.toHexString(c);
+				result.append("\\u0000".substring(0, 6 - hex.length()))
+						.append(hex);
+			} else
+				result.append(c);
+		}
+		return result.append('"').toString();
+	}
+
+	private static class Transform {
+		private final String sourceFileName;
+		private final long nanos;
+
+		public Transform(String sourceFileName, long nanos) {
+			this.sourceFileName = sourceFileName;
+			this.nanos = nanos;
+		}
+	}
+
+}
@@ -0,0 +1,258 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Captures the files written by the <code>xsl:result-document</code> command.
+ * <p>
+ * Hooks into the XSLT engine as its output URI resolver, which is called to
+ * open each result document. The hook is specific to the engine, Saxon is
+ * supported (versions 9.1 and later). It is installed by reflection, so that
+ * the plugin does not depend on a particular engine. With other engines
+ * nothing is captured.
+ * <p>
+ * The result documents are written to files the same way Saxon does by
+ * default, ie. their URIs are resolved against the URI of the principal
+ * output of the transformation.
+ * <p>
+ * Capturing is done per thread, each worker thread captures the files of its
+ * own transformations.
+ * <p>
+ * Optionally, the result documents replace their files only when their
+ * content changes, see {@link ChangedOnlyResult}.
+ */
+public class ResultDocumentCapture {
+
+	/**
+	 * Maven log.
+	 */
+	private final Log log;
+
+	/**
+	 * Replace the files only when their content changes.
+	 */
+	private final boolean writeChangedOnly;
+
+	/**
+	 * Files written by the current thread since capturing started, null when
+	 * not capturing.
+	 */
+	private final ThreadLocal captured = new ThreadLocal();
+
+	/**
+	 * Results opened by the current thread and not closed yet.
+	 */
+	private final ThreadLocal open = new ThreadLocal();
+
+	/**
+	 * Create result document capture.
+	 *
+	 * @param log
+	 *            Maven log
+	 * @param writeChangedOnly
+	 *            Replace the files only when their content changes
+	 */
+	public ResultDocumentCapture(Log log, boolean writeChangedOnly) {
+		this.log = log;
+		this.writeChangedOnly = writeChangedOnly;
+	}
+
+	/**
+	 * Install the capture into a transformer.
+	 *
+	 * @param transformer
+	 *            The transformer
+	 * @return true iff the engine of the transformer is supported
+	 */
+	public boolean install(Transformer transformer) {
+		try {
+			Object target = transformer;
+			Method setter = findSetter(target);
+			if (null == setter) {
+				// Saxon 9.9 and later wrap the controller
+				Method getter = transformer.getClass().getMethod(
+						"getUnderlyingController", new Class[0]);
+				target = getter.invoke(transformer, new Object[0]);
+				setter = findSetter(target);
+			}
+			if (null == setter) {
+				log.debug("Result documents not captured, no output URI resolver on "
+						+ transformer.getClass().getName());
+				return false;
+			}
+			Class type = setter.getParameterTypes()[0];
+			Object resolver = Proxy.newProxyInstance(type.getClassLoader(),
+					new Class[] { type }, new Handler());
+			setter.invoke(target, new Object[] { resolver });
+			return true;
+		} catch (Exception e) {
+			if (log.isDebugEnabled())
+				log.debug("Result documents not captured by "
+						+ transformer.getClass().getName() + ": " + e);
+			return false;
+		}
+	}
+
+	private Method findSetter(Object target) {
+		Method[] methods = target.getClass().getMethods();
+		for (int i = 0; i < methods.length; i++) {
+			if ("setOutputURIResolver".equals(methods[i].getName())
+					&& 1 == methods[i].getParameterTypes().length
+					&& methods[i].getParameterTypes()[0].isInterface())
+				return methods[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Start capturing the result documents written by the current thread.
+	 */
+	public void start() {
+		captured.set(new ArrayList());
+	}
+
+	/**
+	 * Stop capturing the result documents written by the current thread.
+	 * <p>
+	 * The results left open by a failed transformation are discarded.
+	 *
+	 * @return List of Files written since capturing started
+	 */
+	public List stop() {
+		List results = (List) open.get();
+		if (null != results) {
+			for (Iterator iterator = results.iterator(); iterator.hasNext();)
+				((ChangedOnlyResult) iterator.next()).discard();
+			open.set(null);
+		}
+		List result = (List) captured.get();
+		captured.set(null);
+		return null == result ? new ArrayList() : result;
+	}
+
+	/**
+	 * Open a result document.
+	 *
+	 * @param href
+	 *            URI of the result document
+	 * @param base
+	 *            Base output URI
+	 * @return Result
+	 * @throws TransformerException
+	 */
+	protected Result resolve(String href, String base)
+			throws TransformerException {
+		File file;
+		try {
+			URI uri = new URI(href);
+			if (!uri.isAbsolute()) {
+				if (null == base)
+					throw new TransformerException(
+							"Cannot resolve result document without base output URI: "
+									+ href);
+				uri = new URI(base).resolve(uri);
+			}
+			file = new File(uri);
+		} catch (URISyntaxException use) {
+			throw new TransformerException("Invalid result document URI: "
+					+ href, use);
+		} catch (IllegalArgumentException iae) {
+			throw new TransformerException(
+					"Result document URI is not a file: " + href, iae);
+		}
+		if (log.isDebugEnabled())
+			log.debug("Writing result document: " + file);
+		List list = (List) captured.get();
+		if (null != list && !list.contains(file))
+			list.add(file);
+		file.getParentFile().mkdirs();
+		try {
+			if (writeChangedOnly) {
+				ChangedOnlyResult result = new ChangedOnlyResult(log, file);
+				List results = (List) open.get();
+				if (null == results) {
+					results = new ArrayList();
+					open.set(results);
+				}
+				results.add(result);
+				return result;
+			}
+			StreamResult result = new StreamResult(new FileOutputStream(file));
+			result.setSystemId(file);
+			return result;
+		} catch (IOException ioe) {
+			throw new TransformerException("Cannot write result document: "
+					+ file, ioe);
+		}
+	}
+
+	/**
+	 * Close a result document.
+	 *
+	 * @param result
+	 *            Result returned by {@link #resolve(String, String)}
+	 * @throws TransformerException
+	 */
+	protected void close(Result result) throws TransformerException {
+		try {
+			if (result instanceof ChangedOnlyResult) {
+				List results = (List) open.get();
+				if (null != results)
+					results.remove(result);
+				((ChangedOnlyResult) result).commit();
+				return;
+			}
+			OutputStream out = ((StreamResult) result).getOutputStream();
+			out.close();
+		} catch (IOException ioe) {
+			throw new TransformerException("Cannot close result document: "
+					+ result.getSystemId(), ioe);
+		}
+	}
+
+	/**
+	 * Implements the output URI resolver interface of the engine.
+	 */
+	private class Handler implements InvocationHandler {
+
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			String name = method.getName();
+			if ("resolve".equals(name))
+				return resolve((String) args[0], (String) args[1]);
+			if ("close".equals(name)) {
+				close((Result) args[0]);
+				return null;
+			}
+			if ("newInstance".equals(name))
+				return proxy;
+			if ("equals".equals(name))
+				return Boolean.valueOf(proxy == args[0]);
+			if ("hashCode".equals(name))
+				return new Integer(System.identityHashCode(proxy));
+			if ("toString".equals(name))
+				return "ResultDocumentCapture";
+			throw new UnsupportedOperationException(name);
+		}
+
+	}
+
+}
@@ -0,0 +1,476 @@
+package net.sf.xsltmp.util;
+
+import java.io.IOException;
+
+import javax.xml.transform.sax.SAXSource;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Compact in-memory recording of a parsed XML document as SAX events.
+ * <p>
+ * Filled by a parser as its content and lexical handler, then replayed any
+ * number of times, also concurrently, by the XMLReader of
+ * {@link #createSource(String)}. Replaying the events is much cheaper than
+ * parsing the document again.
+ * <p>
+ * The events are recorded with namespaces reported as prefix mappings, ie.
+ * by a namespace aware parser without the namespace-prefixes feature. The
+ * DTD events are not recorded except the lexical ones.
+ */
+public class SAXBuffer implements ContentHandler, LexicalHandler {
+
+	private static final String NAMESPACES = "http://xml.org/sax/features/namespaces";
+	private static final String NAMESPACE_PREFIXES = "http://xml.org/sax/features/namespace-prefixes";
+	private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+	private static final byte START_DOCUMENT = 1;
+	private static final byte END_DOCUMENT = 2;
+	private static final byte START_PREFIX_MAPPING = 3;
+	private static final byte END_PREFIX_MAPPING = 4;
+	private static final byte START_ELEMENT = 5;
+	private static final byte END_ELEMENT = 6;
+	private static final byte CHARACTERS = 7;
+	private static final byte IGNORABLE_WHITESPACE = 8;
+	private static final byte PROCESSING_INSTRUCTION = 9;
+	private static final byte SKIPPED_ENTITY = 10;
+	private static final byte COMMENT = 11;
+	private static final byte START_CDATA = 12;
+	private static final byte END_CDATA = 13;
+	private static final byte START_DTD = 14;
+	private static final byte END_DTD = 15;
+	private static final byte START_ENTITY = 16;
+	private static final byte END_ENTITY = 17;
+
+	private static final Attributes NO_ATTRIBUTES = new AttributesImpl();
+
+	/**
+	 * Types of the events.
+	 */
+	private byte[] events = new byte[256];
+	private int eventCount = 0;
+
+	/**
+	 * String and Attributes arguments of the events.
+	 */
+	private Object[] objects = new Object[256];
+	private int objectCount = 0;
+
+	/**
+	 * Characters of the events, referenced by offset and length.
+	 */
+	private char[] chars = new char[1024];
+	private int charCount = 0;
+
+	/**
+	 * Offsets and lengths of the characters of the events.
+	 */
+	private int[] ints = new int[256];
+	private int intCount = 0;
+
+	/**
+	 * Return the approximate size of the recorded events in memory.
+	 *
+	 * @return Size in bytes
+	 */
+	public long getSize() {
+		return eventCount + 8L * objectCount + 4L * intCount + 2L * charCount;
+	}
+
+	/**
+	 * Release the memory not needed by the recorded events.
+	 */
+	public void trim() {
+		byte[] newEvents = new byte[eventCount];
+		System.arraycopy(events, 0, newEvents, 0, eventCount);
+		events = newEvents;
+		Object[] newObjects = new Object[objectCount];
+		System.arraycopy(objects, 0, newObjects, 0, objectCount);
+		objects = newObjects;
+		char[] newChars = new char[charCount];
+		System.arraycopy(chars, 0, newChars, 0, charCount);
+		chars = newChars;
+		int[] newInts = new int[intCount];
+		System.arraycopy(ints, 0, newInts, 0, intCount);
+		ints = newInts;
+	}
+
+	/**
+	 * Record the events of parsing a source.
+	 *
+	 * @param source
+	 *            The source, with its XMLReader set
+	 * @throws IOException
+	 * @throws SAXException
+	 */
+	public void parse(SAXSource source) throws IOException, SAXException {
+		XMLReader reader = source.getXMLReader();
+		if (null == reader)
+			throw new SAXException("No XML parser for: "
+					+ source.getSystemId());
+		reader.setContentHandler(this);
+		try {
+			reader.setProperty(LEXICAL_HANDLER, this);
+		} catch (SAXException se) {
+			// comments and CDATA sections not recorded
+		}
+		reader.parse(source.getInputSource());
+		trim();
+	}
+
+	/**
+	 * Create a source replaying the recorded events.
+	 *
+	 * @param systemId
+	 *            System ID of the document
+	 * @return SAXSource
+	 */
+	public SAXSource createSource(String systemId) {
+		InputSource input = new InputSource(systemId);
+		SAXSource source = new SAXSource(new Reader(), input);
+		source.setSystemId(systemId);
+		return source;
+	}
+
+	/**
+	 * Send the recorded events to handlers.
+	 *
+	 * @param handler
+	 *            The content handler
+	 * @param lexicalHandler
+	 *            The lexical handler, may be null
+	 * @param locator
+	 *            The locator passed to the content handler, may be null
+	 * @throws SAXException
+	 */
+	public void replay(ContentHandler handler, LexicalHandler lexicalHandler,
+			Locator locator) throws SAXException {
+		if (null != locator)
+			handler.setDocumentLocator(locator);
+		int o = 0;
+		int n = 0;
+		for (int e = 0; e < eventCount; e++) {
+			switch (events[e]) {
+			case START_DOCUMENT:
+				handler.startDocument();
+				break;
+			case END_DOCUMENT:
+				handler.endDocument();
+				break;
+			case START_PREFIX_MAPPING:
+				handler.startPrefixMapping((String) objects[o],
+						(String) objects[o + 1]);
+				o += 2;
+				break;
+			case END_PREFIX_MAPPING:
+				handler.endPrefixMapping((String) objects[o++]);
+				break;
+			case START_ELEMENT:
+				handler.startElement((String) objects[o],
+						(String) objects[o + 1], (String) objects[o + 2],
+						(Attributes) objects[o + 3]);
+				o += 4;
+				break;
+			case END_ELEMENT:
+				handler.endElement((String) objects[o],
+						(String) objects[o + 1], (String) objects[o + 2]);
+				o += 3;
+				break;
+			case CHARACTERS:
+				handler.characters(chars, ints[n], ints[n + 1]);
+				n += 2;
+				break;
+			case IGNORABLE_WHITESPACE:
+				handler.ignorableWhitespace(chars, ints[n], ints[n + 1]);
+				n += 2;
+				break;
+			case PROCESSING_INSTRUCTION:
+				handler.processingInstruction((String) objects[o],
+						(String) objects[o + 1]);
+				o += 2;
+				break;
+			case SKIPPED_ENTITY:
+				handler.skippedEntity((String) objects[o++]);
+				break;
+			case COMMENT:
+				if (null != lexicalHandler)
+					lexicalHandler.comment(chars, ints[n], ints[n + 1]);
+				n += 2;
+				break;
+			case START_CDATA:
+				if (null != lexicalHandler)
+					lexicalHandler.startCDATA();
+				break;
+			case END_CDATA:
+				if (null != lexicalHandler)
+					lexicalHandler.endCDATA();
+				break;
+			case START_DTD:
+				if (null != lexicalHandler)
+					lexicalHandler.startDTD((String) objects[o],
+							(String) objects[o + 1], (String) objects[o + 2]);
+				o += 3;
+				break;
+			case END_DTD:
+				if (null != lexicalHandler)
+					lexicalHandler.endDTD();
+				break;
+			case START_ENTITY:
+				if (null != lexicalHandler)
+					lexicalHandler.startEntity((String) objects[o]);
+				o++;
+				break;
+			case END_ENTITY:
+				if (null != lexicalHandler)
+					lexicalHandler.endEntity((String) objects[o]);
+				o++;
+				break;
+			}
+		}
+	}
+
+	// Recording
+
+	private void addEvent(byte event) {
+		if (eventCount == events.length) {
+			byte[] newEvents = new byte[events.length * 2 + 16];
+			System.arraycopy(events, 0, newEvents, 0, eventCount);
+			events = newEvents;
+		}
+		events[eventCount++] = event;
+	}
+
+	private void addObject(Object object) {
+		if (objectCount == objects.length) {
+			Object[] newObjects = new Object[objects.length * 2 + 16];
+			System.arraycopy(objects, 0, newObjects, 0, objectCount);
+			objects = newObjects;
+		}
+		objects[objectCount++] = object;
+	}
+
+	private void addChars(char[] ch, int start, int length) {
+		if (charCount + length > chars.length) {
+			char[] newChars = new char[Math.max(chars.length * 2, charCount
+					+ length)];
+			System.arraycopy(chars, 0, newChars, 0, charCount);
+			chars = newChars;
+		}
+		System.arraycopy(ch, start, chars, charCount, length);
+		if (intCount + 2 > ints.length) {
+			int[] newInts = new int[ints.length * 2 + 16];
+			System.arraycopy(ints, 0, newInts, 0, intCount);
+			ints = newInts;
+		}
+		ints[intCount++] = charCount;
+		ints[intCount++] = length;
+		charCount += length;
+	}
+
+	public void setDocumentLocator(Locator locator) {
+	}
+
+	public void startDocument() {
+		addEvent(START_DOCUMENT);
+	}
+
+	public void endDocument() {
+		addEvent(END_DOCUMENT);
+	}
+
+	public void startPrefixMapping(String prefix, String uri) {
+		addEvent(START_PREFIX_MAPPING);
+		addObject(prefix);
+		addObject(uri);
+	}
+
+	public void endPrefixMapping(String prefix) {
+		addEvent(END_PREFIX_MAPPING);
+		addObject(prefix);
+	}
+
+	public void startElement(String uri, String localName, String qName,
+			Attributes atts) {
+		addEvent(START_ELEMENT);
+		addObject(uri);
+		addObject(localName);
+		addObject(qName);
+		addObject(0 == atts.getLength() ? NO_ATTRIBUTES : new AttributesImpl(
+				atts));
+	}
+
+	public void endElement(String uri, String localName, String qName) {
+		addEvent(END_ELEMENT);
+		addObject(uri);
+		addObject(localName);
+		addObject(qName);
+	}
+
+	public void characters(char[] ch, int start, int length) {
+		addEvent(CHARACTERS);
+		addChars(ch, start, length);
+	}
+
+	public void ignorableWhitespace(char[] ch, int start, int length) {
+		addEvent(IGNORABLE_WHITESPACE);
+		addChars(ch, start, length);
+	}
+
+	public void processingInstruction(String target, String data) {
+		addEvent(PROCESSING_INSTRUCTION);
+		addObject(target);
+		addObject(data);
+	}
+
+	public void skippedEntity(String name) {
+		addEvent(SKIPPED_ENTITY);
+		addObject(name);
+	}
+
+	public void comment(char[] ch, int start, int length) {
+		addEvent(COMMENT);
+		addChars(ch, start, length);
+	}
+
+	public void startCDATA() {
+		addEvent(START_CDATA);
+	}
+
+	public void endCDATA() {
+		addEvent(END_CDATA);
+	}
+
+	public void startDTD(String name, String publicId, String systemId) {
+		addEvent(START_DTD);
+		addObject(name);
+		addObject(publicId);
+		addObject(systemId);
+	}
+
+	public void endDTD() {
+		addEvent(END_DTD);
+	}
+
+	public void startEntity(String name) {
+		addEvent(START_ENTITY);
+		addObject(name);
+	}
+
+	public void endEntity(String name) {
+		addEvent(END_ENTITY);
+		addObject(name);
+	}
+
+	/**
+	 * XMLReader replaying the recorded events instead of parsing.
+	 */
+	private class Reader implements XMLReader, Locator {
+
+		private ContentHandler contentHandler;
+		private LexicalHandler lexicalHandler;
+		private DTDHandler dtdHandler;
+		private EntityResolver entityResolver;
+		private ErrorHandler errorHandler;
+		private String systemId;
+
+		public boolean getFeature(String name)
+				throws SAXNotRecognizedException {
+			if (NAMESPACES.equals(name))
+				return true;
+			if (NAMESPACE_PREFIXES.equals(name))
+				return false;
+			throw new SAXNotRecognizedException(name);
+		}
+
+		public void setFeature(String name, boolean value)
+				throws SAXNotRecognizedException, SAXNotSupportedException {
+			if (getFeature(name) != value)
+				throw new SAXNotSupportedException(name);
+		}
+
+		public Object getProperty(String name)
+				throws SAXNotRecognizedException {
+			if (LEXICAL_HANDLER.equals(name))
+				return lexicalHandler;
+			throw new SAXNotRecognizedException(name);
+		}
+
+		public void setProperty(String name, Object value)
+				throws SAXNotRecognizedException {
+			if (!LEXICAL_HANDLER.equals(name))
+				throw new SAXNotRecognizedException(name);
+			lexicalHandler = (LexicalHandler) value;
+		}
+
+		public void setEntityResolver(EntityResolver resolver) {
+			entityResolver = resolver;
+		}
+
+		public EntityResolver getEntityResolver() {
+			return entityResolver;
+		}
+
+		public void setDTDHandler(DTDHandler handler) {
+			dtdHandler = handler;
+		}
+
+		public DTDHandler getDTDHandler() {
+			return dtdHandler;
+		}
+
+		public void setContentHandler(ContentHandler handler) {
+			contentHandler = handler;
+		}
+
+		public ContentHandler getContentHandler() {
+			return contentHandler;
+		}
+
+		public void setErrorHandler(ErrorHandler handler) {
+			errorHandler = handler;
+		}
+
+		public ErrorHandler getErrorHandler() {
+			return errorHandler;
+		}
+
+		public void parse(InputSource input) throws IOException, SAXException {
+			systemId = input.getSystemId();
+			replay(contentHandler, lexicalHandler, this);
+		}
+
+		public void parse(String systemId) throws IOException, SAXException {
+			parse(new InputSource(systemId));
+		}
+
+		public String getPublicId() {
+			return null;
+		}
+
+		public String getSystemId() {
+			return systemId;
+		}
+
+		public int getLineNumber() {
+			return -1;
+		}
+
+		public int getColumnNumber() {
+			return -1;
+		}
+
+	}
+
+}
@@ -0,0 +1,194 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Snapshot of the directory listings of a scan of a directory tree, re-used by
+ * the next scan.
+ * <p>
+ * Records the last modification time of each listed directory along with the
+ * names of its subdirectories and files. Adding, deleting or renaming an entry
+ * of a directory changes its last modification time, so a directory with the
+ * time unchanged since the previous scan has the same entries and need not be
+ * listed again.
+ * <p>
+ * A directory modified shortly before it was listed is not recorded, as a
+ * further change within the resolution of the file system timestamps would
+ * go unnoticed.
+ * <p>
+ * Thread-safe.
+ */
+public class ScanSnapshot {
+
+	/**
+	 * Directories modified within this time before they are listed are not
+	 * recorded, in milliseconds.
+	 */
+	private static final long RESOLUTION = 2000;
+
+	private static final String SEPARATOR = "/";
+	private static final String MODIFIED_PREFIX = "modified.";
+	private static final String DIRS_PREFIX = "dirs.";
+	private static final String FILES_PREFIX = "files.";
+
+	/**
+	 * Maven log.
+	 */
+	private final Log log;
+
+	/**
+	 * The file the snapshot is stored in.
+	 */
+	private final File file;
+
+	/**
+	 * Records of the previous scan.
+	 */
+	private final Properties previous = new Properties();
+
+	/**
+	 * Records of the current scan.
+	 */
+	private final Properties current = new Properties();
+
+	private int reused = 0;
+	private int listed = 0;
+
+	/**
+	 * Create scan snapshot.
+	 *
+	 * @param log
+	 *            Maven log
+	 * @param file
+	 *            The file the snapshot is stored in
+	 */
+	public ScanSnapshot(Log log, File file) {
+		this.log = log;
+		this.file = file;
+	}
+
+	/**
+	 * Load the records of the previous scan.
+	 */
+	public void load() {
+		if (!file.exists())
+			return;
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				previous.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException ioe) {
+			log.warn("Cannot read scan snapshot " + file
+					+ ", all directories are listed: " + ioe);
+			previous.clear();
+		}
+	}
+
+	/**
+	 * Store the records of the current scan, if they differ from the previous
+	 * ones.
+	 */
+	public void save() {
+		if (log.isDebugEnabled())
+			log.debug("Directories listed: " + getListed()
+					+ ", taken from scan snapshot: " + getReused());
+		if (current.equals(previous))
+			return;
+		try {
+			file.getParentFile().mkdirs();
+			OutputStream out = new FileOutputStream(file);
+			try {
+				current.store(out, "xslt-generator-maven-plugin scan snapshot");
+			} finally {
+				out.close();
+			}
+		} catch (IOException ioe) {
+			log.warn("Cannot store scan snapshot " + file + ": " + ioe);
+		}
+	}
+
+	/**
+	 * Return the entries of a directory recorded by the previous scan.
+	 *
+	 * @param path
+	 *            The path of the directory relative to the scanned directory
+	 * @param lastModified
+	 *            The current last modification time of the directory
+	 * @return The names of the subdirectories and the names of the files, null
+	 *         when the directory is not recorded or has changed
+	 */
+	public String[][] getEntries(String path, long lastModified) {
+		if (!String.valueOf(lastModified).equals(
+				previous.getProperty(MODIFIED_PREFIX + path)))
+			return null;
+		String[] dirs = split(previous.getProperty(DIRS_PREFIX + path));
+		String[] files = split(previous.getProperty(FILES_PREFIX + path));
+		record(path, lastModified, dirs, files);
+		synchronized (this) {
+			reused++;
+		}
+		return new String[][] { dirs, files };
+	}
+
+	/**
+	 * Record the entries of a listed directory.
+	 *
+	 * @param path
+	 *            The path of the directory relative to the scanned directory
+	 * @param lastModified
+	 *            The last modification time of the directory before it was
+	 *            listed
+	 * @param listedAt
+	 *            The time the directory was listed
+	 * @param dirs
+	 *            The names of its subdirectories
+	 * @param files
+	 *            The names of its files
+	 */
+	public void record(String path, long lastModified, long listedAt,
+			String[] dirs, String[] files) {
+		synchronized (this) {
+			listed++;
+		}
+		if (0 == lastModified || lastModified > listedAt - RESOLUTION)
+			return;
+		record(path, lastModified, dirs, files);
+	}
+
+	private void record(String path, long lastModified, String[] dirs,
+			String[] files) {
+		current.setProperty(MODIFIED_PREFIX + path, String
+				.valueOf(lastModified));
+		current.setProperty(DIRS_PREFIX + path, StringUtils.join(dirs,
+				SEPARATOR));
+		current.setProperty(FILES_PREFIX + path, StringUtils.join(files,
+				SEPARATOR));
+	}
+
+	public synchronized int getReused() {
+		return reused;
+	}
+
+	public synchronized int getListed() {
+		return listed;
+	}
+
+	private String[] split(String names) {
+		if (null == names || 0 == names.length())
+			return new String[0];
+		return StringUtils.split(names, SEPARATOR);
+	}
+
+}
@@ -0,0 +1,251 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Repository of files extracted from archives, shared by builds.
+ * <p>
+ * The files are stored by the checksum of the content of the archive and by
+ * their path within the archive, eg. in a directory under the user home. All
+ * the modules of all the builds using the same archive share the extracted
+ * files. An archive changed under the same name (eg. a SNAPSHOT dependency)
+ * has a different checksum, so its old extracted files are never served.
+ * <p>
+ * Each file is written to a temporary file first and then moved, so that an
+ * extracted file which exists is complete, see {@link FileReplacer}. Its
+ * length is compared with the size recorded in the archive before serving it.
+ * Concurrent builds extracting from the same archive are serialized by a lock
+ * file next to the directory of the archive, named by the checksum with
+ * <code>.lock</code>; the threads extracting from different archives do not
+ * wait for each other.
+ * <p>
+ * The checksums of the archives are computed once per JVM, they are computed
+ * again when the last modification time or the length of an archive changes.
+ * <p>
+ * Only ZIP archives (eg. JARs) are handled, the other archives are left to
+ * the per-module extraction.
+ * <p>
+ * Thread-safe.
+ */
+public class SharedExtractCache {
+
+	private static final String LOCK_SUFFIX = ".lock";
+
+	/**
+	 * Milliseconds to wait before trying again to lock a lock file held by
+	 * another process.
+	 */
+	private static final long LOCK_RETRY_DELAY = 10;
+
+	private static final ChecksumUtils CHECKSUM_UTILS = new ChecksumUtils();
+
+	/**
+	 * Checksums of the archives, String[] {lastModified, length, checksum} by
+	 * archive File.
+	 */
+	private static final Map CHECKSUMS = new HashMap();
+
+	/**
+	 * Locks serializing the writers within the JVM, Object by directory of the
+	 * archive.
+	 */
+	private static final Map LOCKS = new HashMap();
+
+	/**
+	 * Maven log.
+	 */
+	private final Log log;
+
+	/**
+	 * The directory of the repository.
+	 */
+	private final File dir;
+
+	/**
+	 * Reader of the archives.
+	 */
+	private final ArchiveReader reader;
+
+	/**
+	 * Create shared extract cache.
+	 *
+	 * @param log
+	 *            Maven log
+	 * @param dir
+	 *            The directory of the repository
+	 * @param reader
+	 *            Reader of the archives
+	 */
+	public SharedExtractCache(Log log, File dir, ArchiveReader reader) {
+		this.log = log;
+		this.dir = dir;
+		this.reader = reader;
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	/**
+	 * Return the directory of the files extracted from an archive.
+	 *
+	 * @param archive
+	 *            The archive file
+	 * @return The directory, null when the archive is not handled
+	 */
+	public File getExtractDir(File archive) {
+		if (!reader.isReadable(archive))
+			return null;
+		try {
+			return new File(dir, getChecksum(archive));
+		} catch (IOException ioe) {
+			log.warn("Cannot read archive: " + archive + "\t" + ioe);
+			return null;
+		}
+	}
+
+	/**
+	 * Extract a file from an archive, unless already extracted.
+	 *
+	 * @param archive
+	 *            The archive file
+	 * @param filePath
+	 *            Relative path to the file within the archive
+	 * @return The extracted file, null when not in the archive or the archive
+	 *         is not handled
+	 */
+	public File extract(File archive, String filePath) {
+		File extractDir = getExtractDir(archive);
+		String entryName = ClasspathIndex.normalize(filePath);
+		if (null == extractDir || null == entryName)
+			return null;
+		ArchiveReader.OpenArchive open = reader.acquire(archive);
+		try {
+			ZipFile zip = open.getZipFile();
+			ZipEntry entry = null == zip ? null : zip.getEntry(entryName);
+			if (null == entry || entry.isDirectory())
+				return null;
+			File file = new File(extractDir, entryName);
+			if (isExtracted(file, entry))
+				return file;
+			// serialize the writers within the JVM and across processes
+			synchronized (getLock(extractDir)) {
+				dir.mkdirs();
+				RandomAccessFile lockFile = new RandomAccessFile(new File(dir,
+						extractDir.getName() + LOCK_SUFFIX), "rw");
+				try {
+					FileLock lock = lock(lockFile.getChannel());
+					try {
+						if (!isExtracted(file, entry))
+							write(zip, entry, file);
+					} finally {
+						lock.release();
+					}
+				} finally {
+					lockFile.close();
+				}
+			}
+			return file;
+		} catch (IOException ioe) {
+			log.warn("Error unpacking file: " + archive + "\t" + ioe);
+			return null;
+		} finally {
+			reader.release(open);
+		}
+	}
+
+	private static Object getLock(File extractDir) {
+		synchronized (LOCKS) {
+			Object lock = LOCKS.get(extractDir);
+			if (null == lock) {
+				lock = new Object();
+				LOCKS.put(extractDir, lock);
+			}
+			return lock;
+		}
+	}
+
+	/**
+	 * Lock a lock file, waiting until no other process holds it.
+	 * <p>
+	 * The lock is polled rather than waited for: the system may report a
+	 * deadlock when two processes each wait for a lock held by the other
+	 * process, though by different threads.
+	 */
+	private static FileLock lock(FileChannel channel) throws IOException {
+		while (true) {
+			FileLock lock = channel.tryLock();
+			if (null != lock)
+				return lock;
+			try {
+				Thread.sleep(LOCK_RETRY_DELAY);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while locking");
+			}
+		}
+	}
+
+	private boolean isExtracted(File file, ZipEntry entry) {
+		return file.exists()
+				&& (entry.getSize() < 0 || file.length() == entry.getSize());
+	}
+
+	private void write(ZipFile zip, ZipEntry entry, File file)
+			throws IOException {
+		if (log.isDebugEnabled())
+			log.debug("Extracting: " + entry.getName() + " from: "
+					+ zip.getName() + " to: " + file);
+		file.getParentFile().mkdirs();
+		File tempFile = File.createTempFile("." + file.getName() + "-",
+				".tmp", file.getParentFile());
+		try {
+			InputStream in = zip.getInputStream(entry);
+			try {
+				OutputStream out = new FileOutputStream(tempFile);
+				try {
+					byte[] buffer = new byte[8192];
+					int read;
+					while ((read = in.read(buffer)) >= 0)
+						out.write(buffer, 0, read);
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+			FileReplacer.replace(tempFile, file);
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	private String getChecksum(File archive) throws IOException {
+		synchronized (CHECKSUMS) {
+			String[] cached = (String[]) CHECKSUMS.get(archive);
+			String lastModified = String.valueOf(archive.lastModified());
+			String length = String.valueOf(archive.length());
+			if (null != cached && cached[0].equals(lastModified)
+					&& cached[1].equals(length))
+				return cached[2];
+			String checksum = CHECKSUM_UTILS.checksum(archive);
+			CHECKSUMS.put(archive, new String[] { lastModified, length,
+					checksum });
+			return checksum;
+		}
+	}
+
+}
@@ -0,0 +1,531 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Serves a collection of source files to the template, parsed ahead by the
+ * worker threads.
+ * <p>
+ * Hooks into the XSLT engine as its collection resolver, which is called by
+ * the <code>collection()</code> function. The collection is identified by
+ * the URI of its catalog file, other collections are resolved by the
+ * resolver of the engine. The hook is specific to the engine, Saxon is
+ * supported: its collection finder (versions 9.7 and later) and its
+ * collection URI resolver (older versions). It is installed by reflection,
+ * so that the plugin does not depend on a particular engine. With other
+ * engines the engine reads the catalog itself.
+ * <p>
+ * The documents are parsed ahead by a {@link DocumentPrefetcher}, while the
+ * template reads them one by one, which bounds the memory used. Nothing is
+ * parsed until the template reads the first document of the collection.
+ * The documents are parsed as those loaded by the <code>document()</code>
+ * function, ie. by the URI resolver, and are stripped of whitespace by the
+ * rules of the template.
+ * <p>
+ * The hook is installed into the configuration of the engine, shared by the
+ * transformations, once. The collections are registered by
+ * {@link #install(Transformer)} and unregistered by {@link #stop()}.
+ */
+public class SourceCollection {
+
+	private final Log log;
+	private final File catalog;
+	private final List files;
+	private final DefaultURIResolver resolver;
+	private final DocumentPrefetcher prefetcher;
+	private Finder finder;
+
+	/**
+	 * Has the collection been iterated by the engine (collection URI
+	 * resolver)? The engine keeps the documents of a collection iterated
+	 * again, they are not parsed ahead again.
+	 */
+	private boolean iterated = false;
+
+	/**
+	 * Create collection.
+	 *
+	 * @param log
+	 *            Maven log
+	 * @param catalog
+	 *            The catalog file of the collection, identifying it
+	 * @param files
+	 *            List of Files in the collection, in its order
+	 * @param resolver
+	 *            The resolver creating the sources of the files
+	 * @param pool
+	 *            Parallel worker pool parsing the files
+	 * @param window
+	 *            Maximum number of documents parsed ahead
+	 */
+	public SourceCollection(Log log, File catalog, List files,
+			DefaultURIResolver resolver, WorkerPool pool, int window) {
+		this.log = log;
+		this.catalog = catalog.getAbsoluteFile();
+		this.files = files;
+		this.resolver = resolver;
+		this.prefetcher = new DocumentPrefetcher(log, resolver, pool, files,
+				window);
+	}
+
+	/**
+	 * Install the collection into the engine of a transformer.
+	 *
+	 * @param transformer
+	 *            The transformer
+	 * @return true iff the engine of the transformer is supported
+	 */
+	public boolean install(Transformer transformer) {
+		try {
+			Object configuration = getConfiguration(transformer);
+			if (null == configuration) {
+				log.debug("Collection not parsed ahead, no configuration of "
+						+ transformer.getClass().getName());
+				return false;
+			}
+			synchronized (SourceCollection.class) {
+				finder = getFinder(configuration);
+			}
+			if (null == finder) {
+				log.debug("Collection not parsed ahead, no collection resolver of "
+						+ configuration.getClass().getName());
+				return false;
+			}
+			finder.collections.put(catalog, this);
+			return true;
+		} catch (Exception e) {
+			if (log.isDebugEnabled())
+				log.debug("Collection not parsed ahead by "
+						+ transformer.getClass().getName() + ": " + e);
+			return false;
+		}
+	}
+
+	/**
+	 * Unregister the collection, stop parsing and forget the parsed
+	 * documents.
+	 */
+	public void stop() {
+		if (null != finder)
+			finder.collections.remove(catalog);
+		prefetcher.stop();
+	}
+
+	private Object getConfiguration(Transformer transformer) throws Exception {
+		Object target = transformer;
+		Method getter = findMethod(target, "getConfiguration", 0);
+		if (null == getter) {
+			// Saxon 9.9 and later wrap the controller
+			Method controller = findMethod(target, "getUnderlyingController",
+					0);
+			if (null == controller)
+				return null;
+			target = controller.invoke(transformer, new Object[0]);
+			getter = findMethod(target, "getConfiguration", 0);
+		}
+		return null == getter ? null : getter.invoke(target, new Object[0]);
+	}
+
+	/**
+	 * Return the finder installed into the configuration, install it when
+	 * not installed yet.
+	 */
+	private Finder getFinder(Object configuration) throws Exception {
+		Method setter = findMethod(configuration, "setCollectionFinder", 1);
+		Method getter = findMethod(configuration, "getCollectionFinder", 0);
+		if (null == setter || null == getter) {
+			setter = findMethod(configuration, "setCollectionURIResolver", 1);
+			getter = findMethod(configuration, "getCollectionURIResolver", 0);
+		}
+		if (null == setter || null == getter)
+			return null;
+		Object installed = getter.invoke(configuration, new Object[0]);
+		if (null != installed && Proxy.isProxyClass(installed.getClass())
+				&& Proxy.getInvocationHandler(installed) instanceof Finder)
+			return (Finder) Proxy.getInvocationHandler(installed);
+		Class type = setter.getParameterTypes()[0];
+		Finder result = new Finder(installed);
+		setter.invoke(configuration, new Object[] { Proxy.newProxyInstance(
+				type.getClassLoader(), new Class[] { type }, result) });
+		return result;
+	}
+
+	private static Method findMethod(Object target, String name, int arity) {
+		Method[] methods = target.getClass().getMethods();
+		for (int i = 0; i < methods.length; i++)
+			if (name.equals(methods[i].getName())
+					&& arity == methods[i].getParameterTypes().length)
+				return methods[i];
+		return null;
+	}
+
+	private static Object invoke(Object target, String name, Object[] args)
+			throws Throwable {
+		Method method = findMethod(target, name, args.length);
+		if (null == method)
+			throw new NoSuchMethodException(target.getClass().getName() + "."
+					+ name);
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException ite) {
+			throw ite.getCause();
+		}
+	}
+
+	/**
+	 * Return the collection identified by a collection URI.
+	 *
+	 * @return The collection, null when not registered
+	 */
+	private static SourceCollection find(Map collections, String href,
+			String base) {
+		try {
+			URI uri = new URI(href);
+			if (!uri.isAbsolute() && null != base)
+				uri = new URI(base).resolve(uri);
+			if (!"file".equals(uri.getScheme()))
+				return null;
+			return (SourceCollection) collections.get(new File(uri)
+					.getAbsoluteFile());
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Take the source of a file, parsed ahead when available.
+	 */
+	private Source take(File file) throws Exception {
+		Source source = prefetcher.take(file);
+		if (null != source) {
+			resolver.offer(file, source);
+			return resolver.createResolvedSource(file);
+		}
+		return resolver.createSource(file);
+	}
+
+	/**
+	 * Build the document of a file, stripped of whitespace by the rules of
+	 * the template (collection finder).
+	 */
+	private Object build(File file, Object context) throws Throwable {
+		Object configuration = invoke(context, "getConfiguration",
+				new Object[0]);
+		Object options = invoke(configuration, "getParseOptions",
+				new Object[0]);
+		Object controller = invoke(context, "getController", new Object[0]);
+		Method getRule = null == controller ? null : findMethod(controller,
+				"getSpaceStrippingRule", 0);
+		Object rule = null == getRule ? null : getRule.invoke(controller,
+				new Object[0]);
+		if (null != rule) {
+			Method with = findMethod(options, "withSpaceStrippingRule", 1);
+			if (null != with) {
+				// Saxon 12 and later have immutable options
+				options = with.invoke(options, new Object[] { rule });
+			} else {
+				Constructor copy = options.getClass().getConstructor(
+						new Class[] { options.getClass() });
+				options = copy.newInstance(new Object[] { options });
+				invoke(options, "setSpaceStrippingRule", new Object[] { rule });
+			}
+		}
+		Source source = take(file);
+		Object tree;
+		if (null != findMethod(configuration, "buildDocumentTree", 2))
+			tree = invoke(configuration, "buildDocumentTree", new Object[] {
+					source, options });
+		else
+			tree = invoke(configuration, "buildDocument", new Object[] {
+					source, options });
+		Method root = findMethod(tree, "getRootNode", 0);
+		return null == root ? tree : root.invoke(tree, new Object[0]);
+	}
+
+	private String getURI(File file) {
+		return file.getAbsoluteFile().toURI().toString();
+	}
+
+	/**
+	 * Convert an exception to the exception of the engine.
+	 */
+	private static Throwable convert(Throwable t, Class type) {
+		if (!(t instanceof Exception) || t instanceof RuntimeException)
+			return t;
+		Class[] declared = null;
+		Method[] methods = type.getMethods();
+		for (int i = 0; i < methods.length && null == declared; i++)
+			if (methods[i].getExceptionTypes().length > 0)
+				declared = methods[i].getExceptionTypes();
+		if (null == declared)
+			return new IllegalStateException(t.toString());
+		for (int i = 0; i < declared.length; i++)
+			if (declared[i].isInstance(t))
+				return t;
+		try {
+			return (Throwable) declared[0].getConstructor(
+					new Class[] { Throwable.class }).newInstance(
+					new Object[] { t });
+		} catch (Exception e) {
+			return new IllegalStateException(t.toString());
+		}
+	}
+
+	private static Object defaultValue(Method method) {
+		Class type = method.getReturnType();
+		if (Boolean.TYPE == type)
+			return Boolean.FALSE;
+		if (Integer.TYPE == type)
+			return new Integer(0);
+		return null;
+	}
+
+	/**
+	 * Implements the collection finder or the collection URI resolver
+	 * interface of the engine, serving the registered collections and
+	 * passing the others to the previously installed one.
+	 */
+	private static class Finder implements InvocationHandler {
+
+		/**
+		 * Registered collections, by their catalog files.
+		 */
+		private final Map collections = new ConcurrentHashMap();
+
+		/**
+		 * The previously installed finder or resolver.
+		 */
+		private final Object previous;
+
+		public Finder(Object previous) {
+			this.previous = previous;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			String name = method.getName();
+			if ("findCollection".equals(name)) {
+				// Saxon 9.7 and later: (context, collectionURI)
+				SourceCollection collection = find(collections,
+						(String) args[1], null);
+				if (null != collection)
+					return collection.createResourceCollection(method
+							.getReturnType(), args[0]);
+			} else if ("resolve".equals(name)) {
+				// older Saxon: (href, base, context)
+				SourceCollection collection = find(collections,
+						(String) args[0], (String) args[1]);
+				if (null != collection)
+					return collection.createIterator(method.getReturnType(),
+							collection.startIteration());
+			} else if ("equals".equals(name))
+				return Boolean.valueOf(proxy == args[0]);
+			else if ("hashCode".equals(name))
+				return new Integer(System.identityHashCode(proxy));
+			else if ("toString".equals(name))
+				return "SourceCollection";
+			if (null == previous)
+				return defaultValue(method);
+			try {
+				return method.invoke(previous, args);
+			} catch (InvocationTargetException ite) {
+				throw ite.getCause();
+			}
+		}
+
+	}
+
+	// Saxon 9.7 and later
+
+	private Object createResourceCollection(Class type, final Object context) {
+		final ClassLoader loader = type.getClassLoader();
+		final Class resourceType;
+		try {
+			resourceType = Class.forName("net.sf.saxon.lib.Resource", true,
+					loader);
+		} catch (ClassNotFoundException cnfe) {
+			throw new IllegalStateException(cnfe.toString());
+		}
+		return Proxy.newProxyInstance(loader, new Class[] { type },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						String name = method.getName();
+						if ("getCollectionURI".equals(name))
+							return getURI(catalog);
+						if ("getResourceURIs".equals(name))
+							return new FileIterator(null, null);
+						if ("getResources".equals(name))
+							return new FileIterator(resourceType, context);
+						if ("isStable".equals(name))
+							return Boolean.TRUE;
+						if ("stripWhitespace".equals(name))
+							// stripped when building the documents
+							return Boolean.TRUE;
+						if ("equals".equals(name))
+							return Boolean.valueOf(proxy == args[0]);
+						if ("hashCode".equals(name))
+							return new Integer(System.identityHashCode(proxy));
+						if ("toString".equals(name))
+							return "SourceCollection " + getURI(catalog);
+						return defaultValue(method);
+					}
+				});
+	}
+
+	/**
+	 * Iterates the URIs of the files, or their resources when the resource
+	 * type is given.
+	 */
+	private class FileIterator implements Iterator {
+
+		private final Class resourceType;
+		private final Object context;
+		private int next = 0;
+
+		public FileIterator(Class resourceType, Object context) {
+			this.resourceType = resourceType;
+			this.context = context;
+		}
+
+		public boolean hasNext() {
+			return next < files.size();
+		}
+
+		public Object next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			File file = (File) files.get(next++);
+			if (null == resourceType)
+				return getURI(file);
+			return createResource(resourceType, file, context);
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+	private Object createResource(final Class type, final File file,
+			final Object context) {
+		return Proxy.newProxyInstance(type.getClassLoader(),
+				new Class[] { type }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						String name = method.getName();
+						if ("getResourceURI".equals(name))
+							return getURI(file);
+						if ("getContentType".equals(name))
+							return "application/xml";
+						if ("getItem".equals(name)) {
+							// Saxon 12 and later pass no context
+							Object itemContext = null == args
+									|| 0 == args.length ? context : args[0];
+							try {
+								return build(file, itemContext);
+							} catch (Throwable t) {
+								throw convert(t, type);
+							}
+						}
+						if ("equals".equals(name))
+							return Boolean.valueOf(proxy == args[0]);
+						if ("hashCode".equals(name))
+							return new Integer(System.identityHashCode(proxy));
+						if ("toString".equals(name))
+							return getURI(file);
+						return defaultValue(method);
+					}
+				});
+	}
+
+	// older Saxon
+
+	/**
+	 * Start an iteration of the collection.
+	 *
+	 * @return true iff it is the first one
+	 */
+	private synchronized boolean startIteration() {
+		boolean result = !iterated;
+		iterated = true;
+		return result;
+	}
+
+	/**
+	 * Create iterator of the URIs of the files, dereferenced by the engine
+	 * through the URI resolver, which is offered the documents parsed ahead.
+	 *
+	 * @param prefetch
+	 *            Take the documents parsed ahead, false when iterated again
+	 */
+	private Object createIterator(final Class type, final boolean prefetch) {
+		final Constructor uriValue;
+		try {
+			uriValue = Class.forName("net.sf.saxon.value.AnyURIValue", true,
+					type.getClassLoader()).getConstructor(
+					new Class[] { CharSequence.class });
+		} catch (Exception e) {
+			throw new IllegalStateException(e.toString());
+		}
+		return Proxy.newProxyInstance(type.getClassLoader(),
+				new Class[] { type }, new InvocationHandler() {
+					private int position = 0;
+					private Object current;
+
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						String name = method.getName();
+						if ("next".equals(name)) {
+							if (position >= files.size()) {
+								current = null;
+								position = -1;
+								return null;
+							}
+							if (position < 0)
+								return null;
+							File file = (File) files.get(position++);
+							if (prefetch) {
+								Source source = prefetcher.take(file);
+								if (null != source)
+									resolver.offer(file, source);
+							}
+							current = uriValue.newInstance(new Object[] { getURI(file) });
+							return current;
+						}
+						if ("current".equals(name))
+							return current;
+						if ("position".equals(name))
+							return new Integer(position);
+						if ("getAnother".equals(name))
+							return createIterator(type, false);
+						if ("close".equals(name))
+							return null;
+						if ("equals".equals(name))
+							return Boolean.valueOf(proxy == args[0]);
+						if ("hashCode".equals(name))
+							return new Integer(System.identityHashCode(proxy));
+						if ("toString".equals(name))
+							return "SourceCollection " + getURI(catalog);
+						return defaultValue(method);
+					}
+				});
+	}
+
+}
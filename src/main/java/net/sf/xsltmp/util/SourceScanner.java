@@ -0,0 +1,537 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Scans a directory tree for files matching include and exclude patterns.
+ * <p>
+ * An alternative to the plexus <code>DirectoryScanner</code>, with the same
+ * pattern syntax (<code>*</code>, <code>?</code>, <code>**</code> and
+ * <code>%regex[...]</code>) and the same result, ie. the relative paths of the
+ * included files, sorted. The patterns are compiled once. The directories
+ * which cannot contain included files, or whose files are all excluded, are
+ * not entered.
+ * <p>
+ * With a parallel worker pool, the directories are listed by the worker
+ * threads, each listing scheduling the listings of its subdirectories. The
+ * files are streamed by {@link #iterator()} in their sorted order while the
+ * scan proceeds. The last modification times and lengths of the included
+ * files are collected by the same pass into a {@link StatCache}.
+ * <p>
+ * When the runtime provides <code>java.nio.file</code>, the type, the last
+ * modification time and the length of each entry are read with the directory
+ * listing. Otherwise the directories are listed by {@link File#listFiles()}
+ * and each entry is queried for its type and last modification time
+ * separately.
+ * <p>
+ * With a {@link ScanSnapshot}, the directories unchanged since the previous
+ * scan are not listed again, their entries are taken from the snapshot. The
+ * snapshot is stored when the scan completes.
+ */
+public class SourceScanner {
+
+	private static final String REGEX_PREFIX = "%regex[";
+
+	/**
+	 * List the directories by <code>java.nio.file</code>?
+	 */
+	private static final boolean NIO = NioDirectoryLister.isAvailable();
+
+	private final Log log;
+	private final File baseDir;
+	private final WorkerPool pool;
+	private final StatCache statCache;
+	private final CompiledPattern[] includes;
+	private final CompiledPattern[] excludes;
+	private ScanSnapshot snapshot;
+
+	/**
+	 * Create scanner.
+	 *
+	 * @param log
+	 *            Maven log
+	 * @param baseDir
+	 *            The directory to scan
+	 * @param includes
+	 *            Patterns of the files to include, null to include all
+	 * @param excludes
+	 *            Patterns of the files to exclude, may be null
+	 * @param pool
+	 *            Worker pool listing the directories
+	 * @param statCache
+	 *            Cache to store the attributes of the included files
+	 */
+	public SourceScanner(Log log, File baseDir, String[] includes,
+			String[] excludes, WorkerPool pool, StatCache statCache) {
+		this.log = log;
+		this.baseDir = baseDir;
+		this.pool = pool;
+		this.statCache = statCache;
+		this.includes = compile(null == includes ? new String[] { "**" }
+				: includes);
+		this.excludes = compile(null == excludes ? new String[0] : excludes);
+	}
+
+	public ScanSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public void setSnapshot(ScanSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Scan the directory.
+	 *
+	 * @return Iterator of the relative paths of the included files (with the
+	 *         platform separator) in the sorted order
+	 */
+	public Iterator iterator() {
+		return new ScanIterator();
+	}
+
+	/**
+	 * Scan the whole directory.
+	 *
+	 * @return The relative paths of the included files in the sorted order
+	 */
+	public String[] scan() {
+		List result = new ArrayList();
+		for (Iterator iterator = iterator(); iterator.hasNext();)
+			result.add(iterator.next());
+		return (String[]) result.toArray(new String[result.size()]);
+	}
+
+	// Pattern matching
+
+	private CompiledPattern[] compile(String[] patterns) {
+		List result = new ArrayList();
+		for (int i = 0; i < patterns.length; i++) {
+			String pattern = patterns[i].trim();
+			if (0 == pattern.length())
+				continue;
+			result.add(new CompiledPattern(pattern));
+		}
+		return (CompiledPattern[]) result.toArray(new CompiledPattern[result
+				.size()]);
+	}
+
+	private boolean isIncluded(String path, String nativePath) {
+		boolean included = false;
+		for (int i = 0; i < includes.length && !included; i++)
+			included = includes[i].matches(path, nativePath);
+		if (!included)
+			return false;
+		for (int i = 0; i < excludes.length; i++)
+			if (excludes[i].matches(path, nativePath))
+				return false;
+		return true;
+	}
+
+	private boolean shouldEnter(String path, String nativePath) {
+		String[] segments = path.split("/");
+		boolean couldHold = false;
+		for (int i = 0; i < includes.length && !couldHold; i++)
+			couldHold = includes[i].couldHold(segments);
+		if (!couldHold)
+			return false;
+		for (int i = 0; i < excludes.length; i++)
+			if (excludes[i].excludesAllIn(path))
+				return false;
+		return true;
+	}
+
+	/**
+	 * An include or exclude pattern compiled to regular expressions.
+	 */
+	private static class CompiledPattern {
+
+		/**
+		 * The pattern matching whole paths.
+		 */
+		private final Pattern pattern;
+
+		/**
+		 * Is it a regular expression matching the paths with the platform
+		 * separator?
+		 */
+		private final boolean regex;
+
+		/**
+		 * Patterns of the path segments, null for <code>**</code>.
+		 */
+		private final Pattern[] segments;
+
+		/**
+		 * For a pattern ending with <code>**</code>, the pattern matching the
+		 * directories all of whose files match.
+		 */
+		private final Pattern dirPattern;
+
+		public CompiledPattern(String pattern) {
+			if (pattern.startsWith(REGEX_PREFIX) && pattern.endsWith("]")) {
+				this.pattern = Pattern.compile(pattern.substring(REGEX_PREFIX
+						.length(), pattern.length() - 1));
+				regex = true;
+				segments = null;
+				dirPattern = null;
+				return;
+			}
+			regex = false;
+			pattern = pattern.replace('\\', '/');
+			if (pattern.endsWith("/"))
+				pattern += "**";
+			String[] parts = pattern.split("/");
+			segments = new Pattern[parts.length];
+			for (int i = 0; i < parts.length; i++)
+				segments[i] = "**".equals(parts[i]) ? null : Pattern
+						.compile(toRegex(parts[i]));
+			this.pattern = Pattern.compile(toRegex(parts, parts.length));
+			if (parts.length > 1 && "**".equals(parts[parts.length - 1]))
+				dirPattern = Pattern.compile(toRegex(parts, parts.length - 1));
+			else
+				dirPattern = null;
+		}
+
+		public boolean matches(String path, String nativePath) {
+			return pattern.matcher(regex ? nativePath : path).matches();
+		}
+
+		public boolean couldHold(String[] dirSegments) {
+			if (regex)
+				return true;
+			for (int i = 0; i < dirSegments.length; i++) {
+				if (i >= segments.length - 1)
+					return null == segments[segments.length - 1];
+				if (null == segments[i])
+					return true;
+				if (!segments[i].matcher(dirSegments[i]).matches())
+					return false;
+			}
+			return true;
+		}
+
+		public boolean excludesAllIn(String dirPath) {
+			return null != dirPattern && dirPattern.matcher(dirPath).matches();
+		}
+
+		private static String toRegex(String[] parts, int count) {
+			StringBuffer b = new StringBuffer();
+			for (int i = 0; i < count; i++) {
+				boolean last = i == count - 1;
+				if ("**".equals(parts[i])) {
+					if (!last)
+						b.append("(?:[^/]*/)*");
+					else if (0 == i)
+						b.append(".*");
+					else {
+						// "a/**" also matches "a"
+						b.setLength(b.length() - 1);
+						b.append("(?:/.*)?");
+					}
+				} else {
+					b.append(toRegex(parts[i]));
+					if (!last)
+						b.append('/');
+				}
+			}
+			return b.toString();
+		}
+
+		private static String toRegex(String segment) {
+			StringBuffer b = new StringBuffer();
+			for (int i = 0; i < segment.length(); i++) {
+				char c = segment.charAt(i);
+				if ('*' == c)
+					b.append("[^/]*");
+				else if ('?' == c)
+					b.append("[^/]");
+				else if (Character.isLetterOrDigit(c))
+					b.append(c);
+				else
+					b.append('\\').append(c);
+			}
+			return b.toString();
+		}
+
+	}
+
+	// Directory walking
+
+	/**
+	 * An entry of a directory listing.
+	 */
+	private static class Entry {
+
+		/**
+		 * The sort key, the name with the platform separator appended for
+		 * directories. The depth-first walk in this order yields the paths in
+		 * their sorted order.
+		 */
+		private final String key;
+
+		/**
+		 * The path relative to the base directory with '/' separators.
+		 */
+		private final String path;
+
+		/**
+		 * The path relative to the base directory with the platform
+		 * separators.
+		 */
+		private final String nativePath;
+
+		/**
+		 * The directory.
+		 */
+		private final File dir;
+
+		/**
+		 * The listing of the directory, a Future when listed by the workers.
+		 */
+		private Object listing;
+
+		public Entry(String key, String path, String nativePath, File dir) {
+			this.key = key;
+			this.path = path;
+			this.nativePath = nativePath;
+			this.dir = dir;
+		}
+
+	}
+
+	/**
+	 * The names of the entries of a directory.
+	 */
+	private static class Listing {
+
+		private final String[] dirs;
+		private final String[] files;
+
+		/**
+		 * The last modification times and lengths of the files, null when
+		 * not read with the listing. An element is null when its attributes
+		 * could not be read.
+		 */
+		private final long[][] stats;
+
+		public Listing(String[] dirs, String[] files, long[][] stats) {
+			this.dirs = dirs;
+			this.files = files;
+			this.stats = stats;
+		}
+
+	}
+
+	private static final Comparator ENTRY_ORDER = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			return ((Entry) o1).key.compareTo(((Entry) o2).key);
+		}
+	};
+
+	/**
+	 * List a directory.
+	 *
+	 * @param parent
+	 *            The directory entry, with null path for the base directory
+	 * @return The sorted entries of the included files and the directories
+	 *         to enter
+	 */
+	private Entry[] list(Entry parent) {
+		Listing listing = null;
+		if (null != snapshot) {
+			String[][] names = snapshot.getEntries(null == parent.path ? ""
+					: parent.path, parent.dir.lastModified());
+			if (null != names)
+				listing = new Listing(names[0], names[1], null);
+		}
+		if (null == listing)
+			listing = listEntries(parent);
+		String[] dirs = listing.dirs;
+		String[] files = listing.files;
+		List result = new ArrayList(dirs.length + files.length);
+		for (int i = 0; i < dirs.length; i++) {
+			String path = getPath(parent, dirs[i]);
+			String nativePath = getNativePath(parent, dirs[i]);
+			if (shouldEnter(path, nativePath)) {
+				Entry entry = new Entry(dirs[i] + File.separator, path,
+						nativePath, new File(parent.dir, dirs[i]));
+				if (pool.isParallel())
+					schedule(entry);
+				result.add(entry);
+			}
+		}
+		for (int i = 0; i < files.length; i++) {
+			String path = getPath(parent, files[i]);
+			String nativePath = getNativePath(parent, files[i]);
+			if (isIncluded(path, nativePath)) {
+				File file = new File(baseDir, nativePath);
+				long[] stat = null == listing.stats ? null : listing.stats[i];
+				if (null != stat)
+					statCache.put(file, stat[0], stat[1]);
+				else
+					statCache.put(file, file.lastModified());
+				result.add(new Entry(files[i], path, nativePath, null));
+			}
+		}
+		Entry[] entries = (Entry[]) result.toArray(new Entry[result.size()]);
+		Arrays.sort(entries, ENTRY_ORDER);
+		return entries;
+	}
+
+	/**
+	 * List the entries of a directory, recording them in the snapshot.
+	 *
+	 * @param parent
+	 *            The directory entry
+	 * @return The names of the subdirectories and of the files, with the
+	 *         attributes of the files when read by <code>java.nio.file</code>
+	 */
+	private Listing listEntries(Entry parent) {
+		long lastModified = null == snapshot ? 0 : parent.dir.lastModified();
+		long listedAt = System.currentTimeMillis();
+		List dirs = new ArrayList();
+		List files = new ArrayList();
+		List stats = null;
+		if (NIO) {
+			stats = new ArrayList();
+			try {
+				NioDirectoryLister.list(parent.dir, dirs, files, stats);
+			} catch (IOException ioe) {
+				if (log.isDebugEnabled())
+					log.debug("Cannot list directory: " + parent.dir + ": "
+							+ ioe);
+				return new Listing(new String[0], new String[0], null);
+			}
+		} else {
+			File[] children = parent.dir.listFiles();
+			if (null == children) {
+				if (log.isDebugEnabled())
+					log.debug("Cannot list directory: " + parent.dir);
+				return new Listing(new String[0], new String[0], null);
+			}
+			for (int i = 0; i < children.length; i++) {
+				if (children[i].isDirectory())
+					dirs.add(children[i].getName());
+				else
+					files.add(children[i].getName());
+			}
+		}
+		Listing listing = new Listing((String[]) dirs.toArray(new String[dirs
+				.size()]), (String[]) files.toArray(new String[files.size()]),
+				null == stats ? null : (long[][]) stats
+						.toArray(new long[stats.size()][]));
+		if (null != snapshot)
+			snapshot.record(null == parent.path ? "" : parent.path,
+					lastModified, listedAt, listing.dirs, listing.files);
+		return listing;
+	}
+
+	private String getPath(Entry parent, String name) {
+		return null == parent.path ? name : parent.path + "/" + name;
+	}
+
+	private String getNativePath(Entry parent, String name) {
+		return null == parent.nativePath ? name : parent.nativePath
+				+ File.separator + name;
+	}
+
+	private void schedule(final Entry entry) {
+		entry.listing = pool.schedule(new Callable() {
+			public Object call() {
+				return list(entry);
+			}
+		});
+	}
+
+	private Entry[] getListing(Entry entry) {
+		if (null == entry.listing)
+			return list(entry);
+		try {
+			return (Entry[]) ((Future) entry.listing).get();
+		} catch (ExecutionException ee) {
+			throw new IllegalStateException("Cannot list directory "
+					+ entry.dir + ": " + ee.getCause());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted listing directory "
+					+ entry.dir);
+		}
+	}
+
+	/**
+	 * Depth-first walk of the listings.
+	 */
+	private class ScanIterator implements Iterator {
+
+		/**
+		 * Stack of the listings being walked and the positions in them.
+		 */
+		private final LinkedList listings = new LinkedList();
+		private final LinkedList positions = new LinkedList();
+		private String next;
+
+		public ScanIterator() {
+			Entry root = new Entry("", null, null, baseDir);
+			if (pool.isParallel())
+				schedule(root);
+			listings.addLast(getListing(root));
+			positions.addLast(new int[] { 0 });
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			while (null == next && !listings.isEmpty()) {
+				Entry[] entries = (Entry[]) listings.getLast();
+				int[] position = (int[]) positions.getLast();
+				if (position[0] >= entries.length) {
+					listings.removeLast();
+					positions.removeLast();
+					continue;
+				}
+				Entry entry = entries[position[0]++];
+				if (null == entry.dir) {
+					next = entry.nativePath;
+				} else {
+					listings.addLast(getListing(entry));
+					positions.addLast(new int[] { 0 });
+				}
+			}
+			if (null == next && null != snapshot)
+				snapshot.save();
+		}
+
+		public boolean hasNext() {
+			return null != next;
+		}
+
+		public Object next() {
+			if (null == next)
+				throw new NoSuchElementException();
+			String result = next;
+			advance();
+			return result;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
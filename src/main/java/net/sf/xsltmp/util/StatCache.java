@@ -0,0 +1,81 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Last modification times and lengths of files, as found when scanning them.
+ * <p>
+ * Saves querying the file system again for files not expected to change
+ * during the execution, ie. the source files. Files not known to the cache
+ * are queried directly.
+ * <p>
+ * Thread-safe.
+ */
+public class StatCache {
+
+	private final Map stats = new ConcurrentHashMap();
+
+	/**
+	 * Remember the attributes of a file.
+	 *
+	 * @param file
+	 *            The file
+	 * @param lastModified
+	 *            Its last modification time
+	 * @param length
+	 *            Its length
+	 */
+	public void put(File file, long lastModified, long length) {
+		stats.put(file, new long[] { lastModified, length });
+	}
+
+	/**
+	 * Remember the last modification time of a file, its length being queried
+	 * when needed.
+	 *
+	 * @param file
+	 *            The file
+	 * @param lastModified
+	 *            Its last modification time
+	 */
+	public void put(File file, long lastModified) {
+		put(file, lastModified, -1);
+	}
+
+	/**
+	 * Forget the attributes of a file.
+	 *
+	 * @param file
+	 *            The file
+	 */
+	public void remove(File file) {
+		stats.remove(file);
+	}
+
+	/**
+	 * Return the last modification time of a file.
+	 *
+	 * @param file
+	 *            The file
+	 * @return The remembered value, or the current one when not known
+	 */
+	public long lastModified(File file) {
+		long[] stat = (long[]) stats.get(file);
+		return null == stat ? file.lastModified() : stat[0];
+	}
+
+	/**
+	 * Return the length of a file.
+	 *
+	 * @param file
+	 *            The file
+	 * @return The remembered value, or the current one when not known
+	 */
+	public long length(File file) {
+		long[] stat = (long[]) stats.get(file);
+		return null == stat || stat[1] < 0 ? file.length() : stat[1];
+	}
+
+}
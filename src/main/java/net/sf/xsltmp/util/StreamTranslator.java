@@ -10,6 +10,11 @@ import org.apache.tools.ant.util.LineTokenizer;
 
 /**
  * Translates a Reader stream.
+ * <p>
+ * Reads the whole stream line by line and returns the translated content.
+ * 
+ * @deprecated Use {@link TranslatingReader}, which translates the stream in
+ *             a single pass while it is read.
  */
 public class StreamTranslator {
 
@@ -0,0 +1,128 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.transform.Templates;
+
+/**
+ * Process-wide cache of compiled XSL templates.
+ * <p>
+ * Shared by all executions of the plugin within a single JVM, ie. by all the
+ * executions in all the modules of a Maven build.
+ * <p>
+ * The caller is responsible for composing a key that identifies the template
+ * and everything that influences its compilation. Along with the compiled
+ * template, the files used during its compilation (the template itself and
+ * the included and imported templates) are remembered. A cached template is
+ * only served as long as none of these files changed since it was compiled.
+ * <p>
+ * Holds at most {@link #MAX_ENTRIES} templates, the least recently used ones
+ * are discarded first.
+ */
+public class TemplatesCache {
+
+	public static final int MAX_ENTRIES = 64;
+
+	private static final Map CACHE = new LinkedHashMap(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	/**
+	 * Get a compiled template from the cache.
+	 *
+	 * @param key
+	 *            Key of the template
+	 * @return The compiled template or null when not cached or out of date
+	 */
+	public Templates get(String key) {
+		synchronized (CACHE) {
+			Entry entry = (Entry) CACHE.get(key);
+			if (null == entry)
+				return null;
+			if (!entry.isUpToDate()) {
+				CACHE.remove(key);
+				return null;
+			}
+			return entry.templates;
+		}
+	}
+
+	/**
+	 * Get the files used to compile a cached template.
+	 *
+	 * @param key
+	 *            Key of the template
+	 * @return List of Files, empty when the template is not cached
+	 */
+	public List getFiles(String key) {
+		synchronized (CACHE) {
+			Entry entry = (Entry) CACHE.get(key);
+			if (null == entry)
+				return new ArrayList();
+			return new ArrayList(Arrays.asList(entry.files));
+		}
+	}
+
+	/**
+	 * Store a compiled template in the cache.
+	 *
+	 * @param key
+	 *            Key of the template
+	 * @param templates
+	 *            The compiled template
+	 * @param files
+	 *            List of Files used to compile the template
+	 */
+	public void put(String key, Templates templates, List files) {
+		Entry entry = new Entry(templates, files);
+		synchronized (CACHE) {
+			CACHE.put(key, entry);
+		}
+	}
+
+	/**
+	 * A compiled template with the state of the files it was compiled from.
+	 */
+	private static class Entry {
+
+		private final Templates templates;
+		private final File[] files;
+		private final long[] lastModified;
+		private final long[] length;
+
+		public Entry(Templates templates, List files) {
+			this.templates = templates;
+			this.files = new File[files.size()];
+			this.lastModified = new long[files.size()];
+			this.length = new long[files.size()];
+			int i = 0;
+			for (Iterator iterator = files.iterator(); iterator.hasNext(); i++) {
+				File file = (File) iterator.next();
+				this.files[i] = file;
+				this.lastModified[i] = file.lastModified();
+				this.length[i] = file.length();
+			}
+		}
+
+		public boolean isUpToDate() {
+			for (int i = 0; i < files.length; i++) {
+				if (files[i].lastModified() != lastModified[i]
+						|| files[i].length() != length[i])
+					return false;
+			}
+			return true;
+		}
+
+	}
+
+}
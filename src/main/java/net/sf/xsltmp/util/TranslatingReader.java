@@ -0,0 +1,248 @@
+package net.sf.xsltmp.util;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Reader that translates the underlying Reader stream while it is read.
+ * <p>
+ * Replaces the keys enclosed in the starting and the ending tokens by their
+ * values, the same way as {@link StreamTranslator}: a key does not span lines
+ * and contains no <code>':'</code>, <code>'='</code> or space characters, a
+ * key missing in the resources is left as it is. The replaced values are not
+ * translated again.
+ * <p>
+ * The stream is translated in a single pass, only the characters of a
+ * possible key are looked ahead.
+ */
+public class TranslatingReader extends FilterReader {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Starting token to identify keys.
+	 */
+	private final String startToken;
+
+	/**
+	 * Ending token to identify keys.
+	 */
+	private final String endToken;
+
+	/**
+	 * Holds key value pairs loaded from resource bundle file.
+	 */
+	private final Map resourceMap;
+
+	/**
+	 * Maven log.
+	 */
+	private final Log log;
+
+	/**
+	 * Characters read ahead from the underlying stream, between the position
+	 * and the limit.
+	 */
+	private char[] buffer = new char[BUFFER_SIZE];
+	private int position = 0;
+	private int limit = 0;
+	private boolean endOfInput = false;
+
+	/**
+	 * Buffer of {@link #read()}.
+	 */
+	private final char[] single = new char[1];
+
+	/**
+	 * The value replacing the last key, while not read yet.
+	 */
+	private String replacement;
+	private int replacementPosition;
+
+	/**
+	 * Create translating reader.
+	 *
+	 * @param in
+	 *            Input reader to be translated
+	 * @param startToken
+	 *            Starting token to identify keys
+	 * @param endToken
+	 *            Ending token to identify keys
+	 * @param resourceMap
+	 *            Key value pairs
+	 * @param log
+	 *            Maven log
+	 */
+	public TranslatingReader(Reader in, String startToken, String endToken,
+			Map resourceMap, Log log) {
+		super(in);
+		if (null == startToken || startToken.length() == 0)
+			throw new IllegalArgumentException("Empty start token");
+		if (null == endToken || endToken.length() == 0)
+			throw new IllegalArgumentException("Empty end token");
+		this.startToken = startToken;
+		this.endToken = endToken;
+		this.resourceMap = resourceMap;
+		this.log = log;
+	}
+
+	public int read() throws IOException {
+		return read(single, 0, 1) < 0 ? -1 : single[0];
+	}
+
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		char first = startToken.charAt(0);
+		int count = 0;
+		while (count < len) {
+			if (null != replacement) {
+				int n = Math.min(len - count, replacement.length()
+						- replacementPosition);
+				replacement.getChars(replacementPosition, replacementPosition
+						+ n, cbuf, off + count);
+				replacementPosition += n;
+				count += n;
+				if (replacementPosition == replacement.length())
+					replacement = null;
+				continue;
+			}
+			if (!fill(1))
+				break;
+			char c = buffer[position];
+			if (c == first && translate())
+				continue;
+			cbuf[off + count++] = c;
+			position++;
+		}
+		return count == 0 ? -1 : count;
+	}
+
+	public long skip(long n) throws IOException {
+		char[] skipped = new char[(int) Math.min(n, BUFFER_SIZE)];
+		long remaining = n;
+		while (remaining > 0) {
+			int read = read(skipped, 0, (int) Math.min(remaining,
+					skipped.length));
+			if (read < 0)
+				break;
+			remaining -= read;
+		}
+		return n - remaining;
+	}
+
+	public boolean ready() throws IOException {
+		return null != replacement || position < limit || in.ready();
+	}
+
+	public boolean markSupported() {
+		return false;
+	}
+
+	public void mark(int readAheadLimit) throws IOException {
+		throw new IOException("mark() not supported");
+	}
+
+	public void reset() throws IOException {
+		throw new IOException("reset() not supported");
+	}
+
+	/**
+	 * Translate the key at the position, if any.
+	 *
+	 * @return true iff a key was found and its value is to be read
+	 */
+	private boolean translate() throws IOException {
+		if (!matches(startToken, 0))
+			return false;
+		int start = startToken.length();
+		for (int end = start;; end++) {
+			if (isLineEnd(end) || charAt(end) < 0)
+				return false;
+			if (matches(endToken, end)) {
+				String token = new String(buffer, position + start, end - start);
+				if (log.isDebugEnabled())
+					log.debug("Translating token: " + token);
+				replacement = getReplaceFor(token);
+				replacementPosition = 0;
+				position += end + endToken.length();
+				return true;
+			}
+			if (!isTokenChar((char) charAt(end)))
+				return false;
+		}
+	}
+
+	private boolean isTokenChar(char c) {
+		return c != ':' && c != '=' && !Character.isSpaceChar(c);
+	}
+
+	private String getReplaceFor(String token) {
+		if (resourceMap.containsKey(token)) {
+			return (String) resourceMap.get(token);
+		}
+		log.warn("Translation missing for token: " + token);
+		return startToken + token + endToken;
+	}
+
+	/**
+	 * Does the string occur at the offset from the position, within a line?
+	 */
+	private boolean matches(String s, int offset) throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			if (i > 0 && isLineEnd(offset + i))
+				return false;
+			if (charAt(offset + i) != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Does a line end just before the offset from the position? Lines end by
+	 * <code>"\n"</code>, <code>"\r\n"</code> or <code>"\r"</code>.
+	 */
+	private boolean isLineEnd(int offset) throws IOException {
+		int previous = charAt(offset - 1);
+		return previous == '\n' || previous == '\r' && charAt(offset) != '\n';
+	}
+
+	/**
+	 * Return the character at the offset from the position, -1 beyond the end
+	 * of input.
+	 */
+	private int charAt(int offset) throws IOException {
+		return fill(offset + 1) ? buffer[position + offset] : -1;
+	}
+
+	/**
+	 * Read ahead at least n characters from the position, unless at the end of
+	 * input.
+	 *
+	 * @return true iff the characters are available
+	 */
+	private boolean fill(int n) throws IOException {
+		while (limit - position < n && !endOfInput) {
+			if (position + n > buffer.length) {
+				int available = limit - position;
+				char[] target = n > buffer.length ? new char[Math.max(n,
+						2 * buffer.length)] : buffer;
+				System.arraycopy(buffer, position, target, 0, available);
+				buffer = target;
+				position = 0;
+				limit = available;
+			}
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if (read < 0)
+				endOfInput = true;
+			else
+				limit += read;
+		}
+		return limit - position >= n;
+	}
+
+}
@@ -1,9 +1,11 @@
 package net.sf.xsltmp.util;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.maven.plugin.logging.Log;
@@ -31,6 +33,18 @@ import org.codehaus.plexus.components.io.fileselectors.IncludeExcludeFileSelecto
  * Once a file has been extracted from a given archive, remembers the path of
  * the file within the archive. Subsequent requests for files within the same
  * archive may specify the path relative to the path of the last request.
+ * <p>
+ * With a {@link SharedExtractCache}, the files are extracted to the shared
+ * repository instead, by the checksum of the archive.
+ * <p>
+ * When reading directly, the files are not extracted, but read directly from
+ * the archives by an {@link ArchiveReader}. Relative URIs are resolved within
+ * the archive by their <code>jar:</code> URIs, the paths of the previous
+ * requests are not used.
+ * <p>
+ * Thread-safe, may be shared by multiple worker threads. Only the extractions
+ * into the extract directory of the execution wait for each other, the files
+ * read directly or from the shared repository are got in parallel.
  */
 public class UnArchiverHelper {
 
@@ -59,6 +73,26 @@ public class UnArchiverHelper {
 	 */
 	private final Map archiveValidSubdirs;
 
+	/**
+	 * Reader of the files directly from the archives.
+	 */
+	private final ArchiveReader archiveReader;
+
+	/**
+	 * Read the files directly from the archives instead of extracting them?
+	 */
+	private boolean readDirectly = false;
+
+	/**
+	 * Repository of extracted files shared by builds, null when not used.
+	 */
+	private SharedExtractCache sharedExtractCache = null;
+
+	/**
+	 * Report of the execution, null when not reporting.
+	 */
+	private PerformanceReport report = null;
+
 	/**
 	 * Constructor.
 	 * 
@@ -79,6 +113,7 @@ public class UnArchiverHelper {
 		this.commonExtractDir = new File(
 				getProject().getBuild().getDirectory(), commonExtractDir);
 		archiveValidSubdirs = new HashMap();
+		archiveReader = new ArchiveReader(log, this.commonExtractDir);
 	}
 
 	public Log getLog() {
@@ -101,6 +136,34 @@ public class UnArchiverHelper {
 		return archiveValidSubdirs;
 	}
 
+	public ArchiveReader getArchiveReader() {
+		return archiveReader;
+	}
+
+	public boolean isReadDirectly() {
+		return readDirectly;
+	}
+
+	public void setReadDirectly(boolean readDirectly) {
+		this.readDirectly = readDirectly;
+	}
+
+	public SharedExtractCache getSharedExtractCache() {
+		return sharedExtractCache;
+	}
+
+	public void setSharedExtractCache(SharedExtractCache sharedExtractCache) {
+		this.sharedExtractCache = sharedExtractCache;
+	}
+
+	public PerformanceReport getReport() {
+		return report;
+	}
+
+	public void setReport(PerformanceReport report) {
+		this.report = report;
+	}
+
 	/**
 	 * Get a file from an archive.
 	 * 
@@ -114,8 +177,30 @@ public class UnArchiverHelper {
 		if (getLog().isDebugEnabled())
 			getLog().debug("Getting: " + filePath + " from archive: " + archive);
 		File extractDir = getExtractDir(archive);
+		if (isReadDirectly()) {
+			if (null != report)
+				report.count("extraction.direct");
+			File entry = getArchiveReader().getFile(archive, filePath);
+			return null == entry ? new File(extractDir, filePath) : entry;
+		}
+		if (null != getSharedExtractCache()) {
+			File sharedDir = getSharedExtractCache().getExtractDir(archive);
+			if (null != sharedDir) {
+				if (null != report)
+					report.count("extraction.shared");
+				return getSharedFile(archive, sharedDir, filePath);
+			}
+		}
+		return getExtractedFile(archive, extractDir, filePath);
+	}
+
+	private synchronized File getExtractedFile(File archive, File extractDir,
+			String filePath) {
 		// was already extracted?
 		File result = new File(extractDir, filePath);
+		if (null != report)
+			report.count(result.exists() ? "extraction.hits"
+					: "extraction.misses");
 		if (!result.exists()) {
 			extract(archive, filePath);
 			if (!result.exists()) {
@@ -137,7 +222,24 @@ public class UnArchiverHelper {
 		return result;
 	}
 
-	private void storeValidSubdir(File archive, String filePath) {
+	private File getSharedFile(File archive, File sharedDir, String filePath) {
+		File result = getSharedExtractCache().extract(archive, filePath);
+		if (null != result) {
+			storeValidSubdir(archive, filePath);
+			return result;
+		}
+		for (Iterator iterator = getValidSubdirs(archive).iterator(); iterator
+				.hasNext();) {
+			String subdir = (String) iterator.next();
+			String newFilePath = new File(subdir, filePath).getPath();
+			result = getSharedExtractCache().extract(archive, newFilePath);
+			if (null != result)
+				return result;
+		}
+		return new File(sharedDir, filePath);
+	}
+
+	private synchronized void storeValidSubdir(File archive, String filePath) {
 		String subdir = new File(filePath).getParent();
 		getArchiveSubdirs(archive).add(subdir);
 		if (getLog().isDebugEnabled())
@@ -146,6 +248,19 @@ public class UnArchiverHelper {
 							+ archive.getName() + " as: " + subdir);
 	}
 
+	/**
+	 * Return the paths within an archive where files were found previously.
+	 * 
+	 * @param archive
+	 *            The archive file
+	 * @return List of Strings, empty when reading directly
+	 */
+	public synchronized List getValidSubdirs(File archive) {
+		if (isReadDirectly())
+			return new ArrayList();
+		return new ArrayList(getArchiveSubdirs(archive));
+	}
+
 	private HashSet getArchiveSubdirs(File archive) {
 		HashSet set = (HashSet) getArchiveValidSubdirs().get(archive.getName());
 		if (null == set) {
@@ -163,7 +278,7 @@ public class UnArchiverHelper {
 	 * @param filePath
 	 *            Relative path to the file to be extracted within the archive
 	 */
-	public void extract(File archive, String filePath) {
+	public synchronized void extract(File archive, String filePath) {
 		File extractDir = getExtractDir(archive);
 		if (getLog().isDebugEnabled())
 			getLog().debug(
@@ -0,0 +1,249 @@
+package net.sf.xsltmp.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs tasks on a fixed number of worker threads.
+ * <p>
+ * The results of the tasks are collected in the order the tasks were
+ * submitted, regardless of the order in which the workers finish them. When
+ * several tasks fail, the failure of the task submitted first is reported.
+ * <p>
+ * The number of the submitted tasks not finished yet is limited, the
+ * submitter waits for the workers to catch up. Once a task has failed, the
+ * submitter can stop submitting, see {@link #hasFailed()}.
+ * <p>
+ * With a single thread, no worker threads are started and each task is run
+ * directly in the calling thread when it is submitted.
+ */
+public class WorkerPool {
+
+	/**
+	 * Number of worker threads.
+	 */
+	private final int threads;
+
+	/**
+	 * The executor of the tasks, null when running in the calling thread.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Results of the submitted tasks, in the order of submission. Futures of
+	 * the tasks not collected yet.
+	 */
+	private final List results = new ArrayList();
+
+	/**
+	 * Index of the first result not collected yet.
+	 */
+	private int collected = 0;
+
+	/**
+	 * Permits to submit tasks, one for each submitted task not finished yet.
+	 */
+	private final Semaphore pending;
+
+	/**
+	 * Has any submitted task failed?
+	 */
+	private volatile boolean failed = false;
+
+	/**
+	 * Create worker pool.
+	 *
+	 * @param threads
+	 *            Number of worker threads, a value below 1 means one thread
+	 *            per available processor
+	 * @param name
+	 *            Name prefix of the worker threads
+	 */
+	public WorkerPool(int threads, final String name) {
+		if (threads < 1)
+			threads = Runtime.getRuntime().availableProcessors();
+		this.threads = threads;
+		this.pending = new Semaphore(threads * 4);
+		if (threads > 1) {
+			executor = Executors.newFixedThreadPool(threads,
+					new ThreadFactory() {
+						private int counter = 0;
+
+						public synchronized Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, name + "-"
+									+ (++counter));
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		} else {
+			executor = null;
+		}
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Is the pool running the tasks in worker threads?
+	 *
+	 * @return true iff the pool has more than one thread
+	 */
+	public boolean isParallel() {
+		return null != executor;
+	}
+
+	/**
+	 * Has any submitted task failed?
+	 * <p>
+	 * The failure itself is thrown by {@link #join()}.
+	 *
+	 * @return true iff a task failed
+	 */
+	public boolean hasFailed() {
+		return failed;
+	}
+
+	/**
+	 * Submit a task.
+	 * <p>
+	 * When the pool is not parallel, the task is run immediately and its
+	 * failure is thrown from here. Otherwise waits while four tasks per
+	 * thread are submitted and not finished yet.
+	 *
+	 * @param task
+	 *            The task to run
+	 * @throws Exception
+	 *             The failure of the task when run in the calling thread
+	 */
+	public void submit(final Callable task) throws Exception {
+		if (!isParallel()) {
+			results.add(task.call());
+			return;
+		}
+		pending.acquire();
+		boolean submitted = false;
+		try {
+			results.add(executor.submit(new Callable() {
+				public Object call() throws Exception {
+					boolean done = false;
+					try {
+						Object result = task.call();
+						done = true;
+						return result;
+					} finally {
+						if (!done)
+							failed = true;
+						pending.release();
+					}
+				}
+			}));
+			submitted = true;
+		} finally {
+			if (!submitted)
+				pending.release();
+		}
+		collect();
+	}
+
+	/**
+	 * Replace the futures of the finished tasks by their results, in the
+	 * order of submission up to the first task not finished or failed.
+	 */
+	private void collect() throws InterruptedException {
+		while (collected < results.size()) {
+			Object result = results.get(collected);
+			if (result instanceof Future) {
+				Future future = (Future) result;
+				if (!future.isDone())
+					return;
+				try {
+					results.set(collected, future.get());
+				} catch (ExecutionException ee) {
+					// thrown by join()
+					return;
+				}
+			}
+			collected++;
+		}
+	}
+
+	/**
+	 * Schedule a task to run in the background.
+	 * <p>
+	 * Unlike {@link #submit(Callable)}, the result of the task is not
+	 * collected by {@link #join()}, the caller waits for it if needed.
+	 * 
+	 * @param task
+	 *            The task to run
+	 * @return Future of the task
+	 * @throws IllegalStateException
+	 *             When the pool is not parallel
+	 */
+	public Future schedule(Callable task) {
+		if (!isParallel())
+			throw new IllegalStateException(
+					"Cannot schedule tasks, no worker threads");
+		return executor.submit(task);
+	}
+
+	/**
+	 * Wait for all the submitted tasks to finish.
+	 *
+	 * @return The results of the tasks in the order of submission
+	 * @throws Exception
+	 *             The failure of the first failed task in the order of
+	 *             submission
+	 */
+	public List join() throws Exception {
+		List list = new ArrayList(results.size());
+		try {
+			for (Iterator iterator = results.iterator(); iterator.hasNext();) {
+				Object result = iterator.next();
+				if (result instanceof Future)
+					result = ((Future) result).get();
+				list.add(result);
+			}
+		} catch (ExecutionException ee) {
+			cancel();
+			Throwable cause = ee.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw ee;
+		} finally {
+			results.clear();
+			collected = 0;
+		}
+		return list;
+	}
+
+	/**
+	 * Stop the worker threads.
+	 * <p>
+	 * Tasks not started yet are not run.
+	 */
+	public void shutdown() {
+		if (isParallel())
+			executor.shutdownNow();
+	}
+
+	private void cancel() {
+		for (Iterator iterator = results.iterator(); iterator.hasNext();) {
+			Object result = iterator.next();
+			if (result instanceof Future)
+				((Future) result).cancel(false);
+		}
+	}
+
+}
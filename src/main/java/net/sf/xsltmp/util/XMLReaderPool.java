@@ -0,0 +1,313 @@
+package net.sf.xsltmp.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.sax.SAXSource;
+
+import org.apache.maven.plugin.logging.Log;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Pool of SAX parsers re-used to parse the inputs of the transformations.
+ * <p>
+ * Creating a parser is expensive compared to parsing a small file. The pool
+ * keeps the parsers per thread, so that each worker thread re-uses its own
+ * parsers. A parser is borrowed from the pool when the XSLT engine first uses
+ * the source, and returned after the document has been parsed, with its
+ * features and properties restored and its handlers released. A document
+ * parsed while another one is being parsed by the same thread (eg. by an
+ * extension function) gets another parser.
+ * <p>
+ * The parsers are namespace aware and have the configured features set.
+ */
+public class XMLReaderPool {
+
+	/**
+	 * Maven log.
+	 */
+	private final Log log;
+
+	/**
+	 * Features to set on the parsers, Boolean by name.
+	 */
+	private final Map features = new TreeMap();
+
+	/**
+	 * Factory of the parsers, created on first use.
+	 */
+	private SAXParserFactory factory;
+
+	/**
+	 * Parsers of the current thread not currently in use.
+	 */
+	private final ThreadLocal idle = new ThreadLocal();
+
+	/**
+	 * Create pool of parsers.
+	 *
+	 * @param log
+	 *            Maven log
+	 * @param features
+	 *            Map of features to set on the parsers by name, the values
+	 *            are "true" or "false", may be null
+	 */
+	public XMLReaderPool(Log log, Map features) {
+		this.log = log;
+		if (null != features) {
+			for (Iterator iterator = features.entrySet().iterator(); iterator
+					.hasNext();) {
+				Map.Entry entry = (Map.Entry) iterator.next();
+				this.features.put(String.valueOf(entry.getKey()).trim(),
+						Boolean.valueOf(String.valueOf(entry.getValue())
+								.trim()));
+			}
+		}
+	}
+
+	/**
+	 * Create a source parsed by a pooled parser.
+	 *
+	 * @param input
+	 *            The input to parse
+	 * @return SAXSource
+	 */
+	public SAXSource createSource(InputSource input) {
+		SAXSource source = new SAXSource(new PooledXMLReader(), input);
+		source.setSystemId(input.getSystemId());
+		return source;
+	}
+
+	/**
+	 * Create a source of a file parsed by a pooled parser.
+	 * <p>
+	 * The encoding of the file is detected by the parser.
+	 *
+	 * @param file
+	 *            The file to parse
+	 * @return SAXSource
+	 */
+	public SAXSource createSource(File file) {
+		return createSource(new InputSource(file.toURI().toString()));
+	}
+
+	/**
+	 * Return a key identifying the configuration of the parsers.
+	 *
+	 * @return String
+	 */
+	public String getConfigurationKey() {
+		return "parserFeatures=" + features;
+	}
+
+	private XMLReader borrow() throws SAXException {
+		LinkedList list = (LinkedList) idle.get();
+		if (null != list && !list.isEmpty())
+			return (XMLReader) list.removeLast();
+		return create();
+	}
+
+	private void release(XMLReader reader) {
+		LinkedList list = (LinkedList) idle.get();
+		if (null == list) {
+			list = new LinkedList();
+			idle.set(list);
+		}
+		list.addLast(reader);
+	}
+
+	private XMLReader create() throws SAXException {
+		XMLReader reader;
+		synchronized (this) {
+			if (null == factory) {
+				factory = SAXParserFactory.newInstance();
+				factory.setNamespaceAware(true);
+			}
+			try {
+				reader = factory.newSAXParser().getXMLReader();
+			} catch (ParserConfigurationException pce) {
+				throw new SAXException("Cannot create XML parser", pce);
+			}
+		}
+		for (Iterator iterator = features.entrySet().iterator(); iterator
+				.hasNext();) {
+			Map.Entry entry = (Map.Entry) iterator.next();
+			reader.setFeature((String) entry.getKey(), ((Boolean) entry
+					.getValue()).booleanValue());
+		}
+		if (log.isDebugEnabled())
+			log.debug("Created XML parser: " + reader.getClass().getName()
+					+ " in thread: " + Thread.currentThread().getName());
+		return reader;
+	}
+
+	/**
+	 * XMLReader handed to the XSLT engine, delegating to a pooled parser.
+	 * <p>
+	 * Remembers the original handlers of the parser and the original values
+	 * of the features and properties changed by the engine, to restore them
+	 * when returning the parser to the pool.
+	 */
+	private class PooledXMLReader implements XMLReader {
+
+		private XMLReader reader;
+		private ContentHandler contentHandler;
+		private DTDHandler dtdHandler;
+		private EntityResolver entityResolver;
+		private ErrorHandler errorHandler;
+		private final Map features = new HashMap();
+		private final Map properties = new HashMap();
+
+		private XMLReader getReader() throws SAXNotRecognizedException {
+			if (null == reader) {
+				try {
+					reader = borrow();
+				} catch (SAXNotRecognizedException snre) {
+					throw snre;
+				} catch (SAXException se) {
+					throw new SAXNotRecognizedException(se.getMessage());
+				}
+				contentHandler = reader.getContentHandler();
+				dtdHandler = reader.getDTDHandler();
+				entityResolver = reader.getEntityResolver();
+				errorHandler = reader.getErrorHandler();
+			}
+			return reader;
+		}
+
+		private XMLReader getReaderOrFail() {
+			try {
+				return getReader();
+			} catch (SAXException se) {
+				throw new IllegalStateException(se.getMessage());
+			}
+		}
+
+		public boolean getFeature(String name)
+				throws SAXNotRecognizedException, SAXNotSupportedException {
+			return getReader().getFeature(name);
+		}
+
+		public void setFeature(String name, boolean value)
+				throws SAXNotRecognizedException, SAXNotSupportedException {
+			XMLReader target = getReader();
+			if (!features.containsKey(name))
+				features.put(name, Boolean.valueOf(target.getFeature(name)));
+			target.setFeature(name, value);
+		}
+
+		public Object getProperty(String name)
+				throws SAXNotRecognizedException, SAXNotSupportedException {
+			return getReader().getProperty(name);
+		}
+
+		public void setProperty(String name, Object value)
+				throws SAXNotRecognizedException, SAXNotSupportedException {
+			XMLReader target = getReader();
+			if (!properties.containsKey(name))
+				properties.put(name, target.getProperty(name));
+			target.setProperty(name, value);
+		}
+
+		public void setEntityResolver(EntityResolver resolver) {
+			getReaderOrFail().setEntityResolver(resolver);
+		}
+
+		public EntityResolver getEntityResolver() {
+			return getReaderOrFail().getEntityResolver();
+		}
+
+		public void setDTDHandler(DTDHandler handler) {
+			getReaderOrFail().setDTDHandler(handler);
+		}
+
+		public DTDHandler getDTDHandler() {
+			return getReaderOrFail().getDTDHandler();
+		}
+
+		public void setContentHandler(ContentHandler handler) {
+			getReaderOrFail().setContentHandler(handler);
+		}
+
+		public ContentHandler getContentHandler() {
+			return getReaderOrFail().getContentHandler();
+		}
+
+		public void setErrorHandler(ErrorHandler handler) {
+			getReaderOrFail().setErrorHandler(handler);
+		}
+
+		public ErrorHandler getErrorHandler() {
+			return getReaderOrFail().getErrorHandler();
+		}
+
+		public void parse(InputSource input) throws IOException, SAXException {
+			try {
+				getReader().parse(input);
+			} finally {
+				returnReader();
+			}
+		}
+
+		public void parse(String systemId) throws IOException, SAXException {
+			parse(new InputSource(systemId));
+		}
+
+		/**
+		 * Reset the parser and return it to the pool. A parser which cannot
+		 * be reset is dropped.
+		 */
+		private void returnReader() {
+			XMLReader target = reader;
+			reader = null;
+			try {
+				target.setContentHandler(contentHandler);
+				target.setDTDHandler(dtdHandler);
+				target.setEntityResolver(entityResolver);
+				target.setErrorHandler(errorHandler);
+				for (Iterator iterator = features.entrySet().iterator(); iterator
+						.hasNext();) {
+					Map.Entry entry = (Map.Entry) iterator.next();
+					target.setFeature((String) entry.getKey(),
+							((Boolean) entry.getValue()).booleanValue());
+				}
+				for (Iterator iterator = properties.entrySet().iterator(); iterator
+						.hasNext();) {
+					Map.Entry entry = (Map.Entry) iterator.next();
+					target.setProperty((String) entry.getKey(), entry
+							.getValue());
+				}
+			} catch (SAXException se) {
+				if (log.isDebugEnabled())
+					log.debug("XML parser not re-used, cannot reset it: " + se);
+				return;
+			} catch (RuntimeException re) {
+				// eg. a parser refusing null handlers
+				if (log.isDebugEnabled())
+					log.debug("XML parser not re-used, cannot reset it: " + re);
+				return;
+			} finally {
+				features.clear();
+				properties.clear();
+			}
+			release(target);
+		}
+
+	}
+
+}